@@ -195,7 +195,8 @@ class BootStrap {
 				PriceListService priceListService = new PriceListService(
 					properties.getProperty(IceOptions.LOCAL_DIR), 
 					properties.getProperty(IceOptions.WORK_S3_BUCKET_NAME), 
-					properties.getProperty(IceOptions.WORK_S3_BUCKET_PREFIX));
+					properties.getProperty(IceOptions.WORK_S3_BUCKET_PREFIX),
+					Integer.parseInt(prop.getProperty(IceOptions.PRICE_LIST_CACHE_SIZE_MB, "" + PriceListService.defaultCacheSizeMB)));
 				
 				
                 processorConfig = new ProcessorConfig(
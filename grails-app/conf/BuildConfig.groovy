@@ -113,6 +113,12 @@ grails.project.dependency.resolution = {
                     'mockito-core',
             )
         }
+
+        test(
+                // Micro-benchmarks of the processor (see ReservationProcessorBenchmark)
+                'org.openjdk.jmh:jmh-core:1.19',
+                'org.openjdk.jmh:jmh-generator-annprocess:1.19'
+        )
     }
 
     plugins {
@@ -44,6 +44,8 @@ import com.google.common.collect.Lists
 import com.google.common.collect.Sets
 import com.google.common.collect.Maps
 
+import java.util.concurrent.Callable
+
 import org.json.JSONObject
 
 import com.netflix.ice.common.ConsolidateType
@@ -96,6 +98,7 @@ class DashboardController {
 		breakdown: "GET",
 		editappgroup: "GET",
 		appgroup: "GET",
+		status: "GET",
 	];
 			
     private static ReaderConfig getConfig() {
@@ -115,6 +118,19 @@ class DashboardController {
     def index = {
         redirect(action: "summary")
     }
+
+    /**
+     * Readiness of the reader for load balancers, 503 until the recent data has been loaded
+     */
+    def status = {
+        WarmUp warmUp = getConfig().warmUp
+        def data = warmUp.getStatus()
+        data.put("dataVersion", getManagers().getDataVersion())
+
+        response.status = warmUp.isReady() ? 200 : 503
+        def result = [status: response.status, data: data]
+        render result as JSON
+    }
 	
 	def getReservationOps = {
 		List<Operation> resOps = Operation.getReservationOperations();
@@ -297,9 +313,9 @@ class DashboardController {
 			for (ResourceGroup rg: resourceGroups) {
 				// If no separator, it's defaulted to the product name, so skip it
 				if (rg.name.contains(ResourceGroup.separator)) {
-					UserTag[] tags = rg.getUserTags();
-					if (tags.length > index && !StringUtils.isEmpty(tags[index].name))
-						data.add(tags[index]);
+					UserTag tag = rg.getUserTag(index);
+					if (!StringUtils.isEmpty(tag.name))
+						data.add(tag);
 				}
 			}
         }
@@ -558,6 +574,24 @@ class DashboardController {
     def appgroup = {}
 
     private Map doGetData(JSONObject query) {
+        // Results only change when a new processing run is picked up, so serve repeated queries from the cache
+        QueryCache queryCache = getManagers().getQueryCache();
+        String key = QueryCache.getKey(query, getManagers().getDataVersion());
+        Map result = queryCache.getIfPresent(key);
+        if (result != null) {
+            logger.debug("doGetData: serving cached result");
+            return result;
+        }
+
+        // Don't cache results that are missing data files that failed to load
+        long loadFailures = getManagers().getLoadFailures();
+        result = computeData(query);
+        if (result.status == 200 && !result.data.isEmpty() && getManagers().getLoadFailures() == loadFailures)
+            queryCache.put(key, result);
+        return result;
+    }
+
+    private Map computeData(JSONObject query) {
 		logger.debug("******** doGetData: called");
 
 		TagGroupManager tagGroupManager = getManagers().getTagGroupManager(null);
@@ -660,20 +694,28 @@ class DashboardController {
                 products = Lists.newArrayList(productSet);
             }
             data = Maps.newTreeMap();
+			// Query the tags concurrently and merge the results in order
+			List<Callable<Map<Tag, double[]>>> subQueries = Lists.newArrayList();
 			for (UserTag tag: tags) {
 				DataManager dataManager = getManagers().getTagCoverageManager(tag);
-				Map<Tag, double[]> dataOfTag = dataManager.getData(
-					interval,
-					new TagLists(accounts, regions, zones, products, operations, usageTypes, resourceGroups),
-					groupBy == TagType.Tag ? null : groupBy,
-					aggregate,
-					forReservation,
-					usageUnit,
-					userTagGroupByIndex
-				);
-				
+				TagLists tagLists = new TagLists(accounts, regions, zones, products, operations, usageTypes, resourceGroups);
+				subQueries.add({ ->
+					dataManager.getData(
+						interval,
+						tagLists,
+						groupBy == TagType.Tag ? null : groupBy,
+						aggregate,
+						forReservation,
+						usageUnit,
+						userTagGroupByIndex
+					)
+				} as Callable);
+			}
+			List<Map<Tag, double[]>> dataOfTags = getManagers().getQueryExecutor().invokeAll(subQueries);
+			for (int i = 0; i < tags.size(); i++) {
+				Map<Tag, double[]> dataOfTag = dataOfTags.get(i);
 				if (groupBy == TagType.Tag) {
-					data.put(tag, dataOfTag.get(Tag.aggregated));
+					data.put(tags.get(i), dataOfTag.get(Tag.aggregated));
 				}
 				else {
 					mergeTagCoverageData(dataOfTag, data);
@@ -690,6 +732,8 @@ class DashboardController {
 
             Map<String, ApplicationGroup> appgroups = getConfig().applicationGroupService.getApplicationGroups();
             List<List<Product>> productsWithResources = getConfig().resourceService.getProductsWithResources();
+            // Query the products of each application group concurrently
+            List<Callable<Map<Tag, double[]>>> subQueries = Lists.newArrayList();
             for (String name: appgroups.keySet()) {
                 appgroup = appgroups.get(name);
                 if (appgroup.data == null)
@@ -715,21 +759,26 @@ class DashboardController {
                     DataManager dataManager = isCost ? getManagers().getCostManager(product, consolidateType) : getManagers().getUsageManager(product, consolidateType);
                     if (dataManager == null)
                         continue;
-                    Map<Tag, double[]> dataOfProduct = dataManager.getData(
-                        interval,
-                        new TagLists(accounts, regions, zones, Lists.newArrayList(product), operations, usageTypes, resourceGroupsOfProduct),
-                        null,
-                        aggregate,
-                        forReservation,
-						usageUnit
-                    );
-
-                    Map<Tag, double[]> tmp = Maps.newHashMap();
-                    tmp.put(new com.netflix.ice.tag.ApplicationGroup(name), dataOfProduct.get(Tag.aggregated));
-
-                    merge(tmp, data);
+                    TagLists tagLists = new TagLists(accounts, regions, zones, Lists.newArrayList(product), operations, usageTypes, resourceGroupsOfProduct);
+                    String appgroupName = name;
+                    subQueries.add({ ->
+	                    Map<Tag, double[]> dataOfProduct = dataManager.getData(
+	                        interval,
+	                        tagLists,
+	                        null,
+	                        aggregate,
+	                        forReservation,
+							usageUnit
+	                    );
+	
+	                    Map<Tag, double[]> tmp = Maps.newHashMap();
+	                    tmp.put(new com.netflix.ice.tag.ApplicationGroup(appgroupName), dataOfProduct.get(Tag.aggregated));
+	                    return tmp;
+                    } as Callable);
                 }
             }
+            for (Map<Tag, double[]> tmp: getManagers().getQueryExecutor().invokeAll(subQueries))
+                merge(tmp, data);
         }
         else if (resourceGroups.size() > 0 || groupBy == TagType.ResourceGroup || appgroup != null || showResourceGroups || showResourceGroupTags) {
             data = Maps.newTreeMap();
@@ -749,6 +798,8 @@ class DashboardController {
 	                products = Lists.newArrayList(productSet);
 	            }
 			}
+			// Query the products concurrently
+			List<Callable<Map<Tag, double[]>>> subQueries = Lists.newArrayList();
             for (Product product: products) {
                 if (product == null)
                     continue;
@@ -777,24 +828,30 @@ class DashboardController {
 				else {
 					tagLists = new TagLists(accounts, regions, zones, Lists.newArrayList(product), operations, usageTypes, resourceGroups);
 				}
-				logger.debug("-------------- Process product ----------------" + product);
-                Map<Tag, double[]> dataOfProduct = dataManager.getData(
-                    interval,
-                    tagLists,
-                    groupBy,
-                    aggregate,
-                    forReservation,
-					usageUnit,
-					userTagGroupByIndex
-                );
-                
-                if (groupBy == TagType.Product && dataOfProduct.size() > 0) {
-                    double[] currentProductValues = dataOfProduct.get(dataOfProduct.keySet().iterator().next());
-                    dataOfProduct.put(Tag.aggregated, Arrays.copyOf(currentProductValues, currentProductValues.size()));
-                } 
-                
-                merge(dataOfProduct, data);
+				Product productToQuery = product;
+				subQueries.add({ ->
+					logger.debug("-------------- Process product ----------------" + productToQuery);
+	                Map<Tag, double[]> dataOfProduct = dataManager.getData(
+	                    interval,
+	                    tagLists,
+	                    groupBy,
+	                    aggregate,
+	                    forReservation,
+						usageUnit,
+						userTagGroupByIndex
+	                );
+	                
+	                if (groupBy == TagType.Product && dataOfProduct.size() > 0) {
+	                    double[] currentProductValues = dataOfProduct.get(dataOfProduct.keySet().iterator().next());
+	                    dataOfProduct.put(Tag.aggregated, Arrays.copyOf(currentProductValues, currentProductValues.size()));
+	                }
+	                return dataOfProduct;
+				} as Callable);
             }
+            
+            // Merge the results of the products queried concurrently in order
+            for (Map<Tag, double[]> dataOfProduct: getManagers().getQueryExecutor().invokeAll(subQueries))
+                merge(dataOfProduct, data);
         }
         else {
 			logger.debug("doGetData: " + operations + ", forReservation: " + forReservation);
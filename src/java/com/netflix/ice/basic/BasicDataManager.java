@@ -28,8 +28,10 @@ import com.netflix.ice.tag.UserTag;
 
 import org.joda.time.*;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -39,26 +41,104 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
 
     protected TagGroupManager tagGroupManager;
     protected InstanceMetricsService instanceMetricsService;
+    // Pre-aggregated cubes of this data, smallest first
+    protected List<CubeDataManager> cubes = new CopyOnWriteArrayList<CubeDataManager>();
     
     public BasicDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, TagGroupManager tagGroupManager, boolean compress,
-    		int monthlyCacheSize, AccountService accountService, ProductService productService, InstanceMetricsService instanceMetricsService) {
-    	super(startDate, dbName, consolidateType, compress, monthlyCacheSize, accountService, productService);
+    		DataCache dataCache, AccountService accountService, ProductService productService, InstanceMetricsService instanceMetricsService) {
+    	super(startDate, dbName, consolidateType, compress, dataCache, accountService, productService);
         this.tagGroupManager = tagGroupManager;
         this.instanceMetricsService = instanceMetricsService;
+    }
+    
+    /**
+     * Add a cube to answer queries that only filter and group by its dimensions. Cubes with fewer
+     * dimensions have fewer columns, so they're kept ahead of the larger ones.
+     */
+    public void addCube(CubeDataManager cube) {
+    	int index = 0;
+    	while (index < cubes.size() && cubes.get(index).getCube().getDimensions().size() <= cube.getCube().getDimensions().size())
+    		index++;
+    	cubes.add(index, cube);
+    }
+    
+    @Override
+    public void stale() {
+    	super.stale();
+    	for (CubeDataManager cube: cubes)
+    		cube.stale();
+    }
+    
+    @Override
+    public void stale(Map<String, Long> changes) {
+    	super.stale(changes);
+    	for (CubeDataManager cube: cubes)
+    		cube.stale(changes);
+    }
+    
+    @Override
+    public void load(Interval interval) throws ExecutionException {
+    	super.load(interval);
+    	for (CubeDataManager cube: cubes)
+    		cube.load(interval);
+    }
+    
+    @Override
+    public void shutdown() {
+    	for (CubeDataManager cube: cubes)
+    		cube.shutdown();
+    	super.shutdown();
+    }
+    
+    /**
+     * Plan the query: pick the smallest cube that has all the dimensions the query's groups filter and group by
+     * and has been written for the whole interval. Falls back to the full data.
+     */
+    protected DataFilePoller getSource(Interval interval, Collection<TagLists> tagListsOfGroups, TagType groupBy, UsageUnit usageUnit) throws ExecutionException {
+    	for (CubeDataManager cube: cubes) {
+    		if (canAnswer(cube, tagListsOfGroups, groupBy, usageUnit) && cube.hasData(interval)) {
+    			logger.debug(dbName + " answering from cube " + cube.getCube());
+    			return cube;
+    		}
+    	}
+    	return this;
+    }
 
-        start();
+    /**
+     * The TagLists of each group add the groupBy tag and the operations to the query's
+     * filters, so the cube must be able to filter on all of them.
+     */
+    private boolean canAnswer(CubeDataManager cube, Collection<TagLists> tagListsOfGroups, TagType groupBy, UsageUnit usageUnit) {
+    	for (TagLists tagLists: tagListsOfGroups) {
+    		if (tagLists != null && !cube.canAnswer(tagLists, groupBy, usageUnit))
+    			return false;
+    	}
+    	return true;
     }
     
-    private double[] getData(Interval interval, TagLists tagLists, UsageUnit usageUnit, TagType groupBy) throws ExecutionException {
+    /**
+     * Get the data for each of the groups in a single pass over the tag group columns of each month.
+     * Each column is assigned to the group for its value of the groupBy tag, and is added to that group's
+     * results if the group's TagLists contain it.
+     */
+    private Map<Tag, double[]> getData(DataFilePoller source, Interval interval, Map<Tag, TagLists> tagListsMap, UsageUnit usageUnit, TagType groupBy, int userTagGroupByIndex) throws ExecutionException {
     	Interval adjusted = getAdjustedInterval(interval);
         DateTime start = adjusted.getStart();
         DateTime end = adjusted.getEnd();
+        source.preload(interval);
 
         int num = getSize(interval);
-        double[] result = new double[num];
+        Map<Tag, double[]> result = Maps.newHashMap();
+        Map<Tag, TagFilter> filters = Maps.newHashMap();
+        for (Tag tag: tagListsMap.keySet()) {
+        	result.put(tag, new double[num]);
+        	TagLists tagLists = tagListsMap.get(tag);
+        	if (tagLists != null)
+        		filters.put(tag, tagLists.getFilter());
+        }
 
         do {
-            ReadOnlyData data = getReadOnlyData(start);
+            ReadOnlyData data = source.getReadOnlyData(start);
 
             int resultIndex = 0;
             int fromIndex = 0;
@@ -94,31 +174,35 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
                 }
             }
 
+            // Walk the columns once to find the group each one is added to
             List<Integer> columnIndecies = Lists.newArrayList();
-            List<TagGroup> tagGroups = Lists.newArrayList();
+            List<double[]> columnResults = Lists.newArrayList();
+            List<Double> columnMultipliers = Lists.newArrayList();
             int columnIndex = 0;
             for (TagGroup tagGroup: data.getTagGroups()) {
-            	boolean contains = tagLists.contains(tagGroup, true);
-//            	if (tagLists instanceof TagListsWithUserTags) {
-//            		logger.debug("resource: " + contains + ", " + tagGroup + ", " + columnIndex);
-//            	}
-                if (contains) {
+            	Tag key = groupBy == null ? Tag.aggregated : getGroupByTag(tagGroup, groupBy, userTagGroupByIndex);
+            	TagFilter filter = key == null ? null : filters.get(key);
+                if (filter != null && filter.contains(tagGroup, true)) {
                 	columnIndecies.add(columnIndex);
-                	tagGroups.add(tagGroup);
+                	columnResults.add(result.get(key));
+                	columnMultipliers.add(adjustForUsageUnit(usageUnit, tagGroup.usageType, 1.0));
                 }
                 columnIndex++;
             }
-//        	if (tagLists instanceof TagListsWithUserTags || groupBy == TagType.ResourceGroup) {
-//        		logger.info("tagGroups = " + tagGroups.size() /* + ", tagLists: " + tagLists*/);
-//                double[] fromData = data.getData(fromIndex);
-//                for (int i = 0; i < columnIndecies.size(); i++)
-//                	logger.info("      " + fromData[columnIndecies.get(i)] + ", " + tagGroups.get(i) + ", " + (tagGroups.get(i).resourceGroup == null ? "null" : tagGroups.get(i).resourceGroup.isProductName()));
-//        		
-//        	}
+            
+            int numColumns = columnIndecies.size();
+            int[] columns = new int[numColumns];
+            double[] multipliers = new double[numColumns];
+            for (int i = 0; i < numColumns; i++) {
+            	columns[i] = columnIndecies.get(i);
+            	multipliers[i] = columnMultipliers.get(i);
+            }
+            double[][] results = columnResults.toArray(new double[numColumns][]);
+
             while (resultIndex < num && fromIndex < data.getNum()) {
                 double[] fromData = data.getData(fromIndex++);
-                for (int i = 0; i < columnIndecies.size(); i++)
-                    result[resultIndex] += adjustForUsageUnit(usageUnit, tagGroups.get(i).usageType, fromData[columnIndecies.get(i)]);
+                for (int i = 0; i < numColumns; i++)
+                    results[i][resultIndex] += fromData[columns[i]] * multipliers[i];
                 resultIndex++;
             }
 
@@ -134,6 +218,36 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
         return result;
     }
     
+    /**
+     * Get the value of the groupBy tag for a tag group. The TagLists for each group only differ from the
+     * query in the list for the groupBy tag, so the group's TagLists can only contain tag groups with this value.
+     */
+    private Tag getGroupByTag(TagGroup tagGroup, TagType groupBy, int userTagGroupByIndex) {
+    	switch (groupBy) {
+    	case Account:
+    		return tagGroup.account;
+    	case Region:
+    		return tagGroup.region;
+    	case Zone:
+    		return tagGroup.zone;
+    	case Product:
+    		return tagGroup.product;
+    	case Operation:
+    		return tagGroup.operation;
+    	case UsageType:
+    		return tagGroup.usageType;
+    	case ResourceGroup:
+    		return tagGroup.resourceGroup;
+    	case Tag:
+    		// Tag groups without user tags are matched by the empty tag
+    		if (tagGroup.resourceGroup == null || tagGroup.resourceGroup.isProductName())
+    			return TagListsWithUserTags.emptyTag;
+    		return tagGroup.resourceGroup.getUserTag(userTagGroupByIndex);
+    	default:
+    		return null;
+    	}
+    }
+    
     private double adjustForUsageUnit(UsageUnit usageUnit, UsageType usageType, double value) {
     	double multiplier = 1.0;
     	
@@ -174,15 +288,14 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
 
         Map<Tag, double[]> result = Maps.newTreeMap();
         
-        for (Tag tag: tagListsMap.keySet()) {
-            try {
-                //logger.info("Tag: " + tag + ", TagLists: " + tagListsMap.get(tag));
-                double[] data = getData(interval, tagListsMap.get(tag), usageUnit, groupBy);
+        try {
+        	DataFilePoller source = getSource(interval, tagListsMap.values(), groupBy, usageUnit);
+        	Map<Tag, double[]> dataByTag = getData(source, interval, tagListsMap, usageUnit, groupBy, userTagGroupByIndex);
+            for (Tag tag: dataByTag.keySet()) {
+                double[] data = dataByTag.get(tag);
                 if (groupBy == TagType.Tag) {
                 	Tag userTag = (UserTag) (tag.name.isEmpty() ? UserTag.get(UserTag.none) : tag);
                 	
-                	//logger.info("resourceGroup: " + tag + " -> " + userTag + " value: " + data[0] + ", " + dbName);
-                	
         			if (result.containsKey(userTag)) {
         				// aggregate current data with the one already in the map
         				addData(data, result.get(userTag));
@@ -196,9 +309,9 @@ public class BasicDataManager extends DataFilePoller implements DataManager {
                 	result.put(tag, data);
                 }
             }
-            catch (ExecutionException e) {
-                logger.error("error in getData for " + tag + " " + interval, e);
-            }
+        }
+        catch (ExecutionException e) {
+            logger.error("error in getData for " + tagListsMap.keySet() + " " + interval, e);
         }
         if (aggregate != AggregateType.none) {
             double[] aggregated = null;
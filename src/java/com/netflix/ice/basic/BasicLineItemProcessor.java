@@ -31,6 +31,7 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Map;
 
 /*
@@ -195,6 +196,18 @@ public class BasicLineItemProcessor implements LineItemProcessor {
             String key = operation + "|" + tagGroup.region + "|" + usageType;
             ondemandRate.put(key, costValue/usageValue);
         }
+        
+        // Accumulate spot savings and on-demand instance costs as we go so we don't have to rescan the data after processing
+        TagGroup spotSavingsTagGroup = null;
+        double spotOnDemandRate = 0;
+        if (tagGroup.operation == Operation.spotInstances && ec2Prices != null) {
+        	InstancePrices.Product ec2Product = ec2Prices.getProduct(tagGroup.region, usageType);
+        	if (ec2Product != null) {
+        		spotSavingsTagGroup = TagGroup.getTagGroup(account, reformedMetaData.region, zone, product, Operation.spotInstanceSavings, usageType, null);
+        		spotOnDemandRate = ec2Product.getOnDemandRate();
+        	}
+        }
+        InstancePrices.Key ondemandKey = product.isEc2Instance() && tagGroup.operation == Operation.ondemandInstances ? new InstancePrices.Key(tagGroup.region, usageType) : null;
 
         if (resourceService != null) {
             if (lineItem.hasResources() && !lineItem.getResource().isEmpty()) {
@@ -216,6 +229,15 @@ public class BasicLineItemProcessor implements LineItemProcessor {
             }
         }
 
+        boolean[] hasTag = null;
+        if (resourceTagGroup != null) {
+        	// Look up which user tags the line item has values for once rather than for every hour
+        	List<String> userTags = resourceService.getUserTags();
+        	hasTag = new boolean[userTags.size()];
+        	for (int j = 0; j < hasTag.length; j++)
+        		hasTag[j] = !StringUtils.isEmpty(resourceService.getUserTagValue(lineItem, userTags.get(j)));
+        }
+
         for (int i : indexes) {
             if (!product.isMonitor()) {
                 Map<TagGroup, Double> usages = usageData.getData(i);
@@ -229,9 +251,13 @@ public class BasicLineItemProcessor implements LineItemProcessor {
                 // The reservation processor handles determination on what's unused.
                 if (result != Result.monthly || !(product.isRedshift() || product.isRdsInstance() || (product.isEc2Instance() && isCostAndUsageReport))) {
                 	addValue(usages, tagGroup, usageValue,  true);                	
+                	if (spotSavingsTagGroup != null)
+                		costAndUsageData.addSpotSavings(spotSavingsTagGroup, i, spotOnDemandRate * usageValue - costValue);
                 }
 
                 addValue(costs, tagGroup, costValue, true);
+                if (ondemandKey != null)
+                	costAndUsageData.addOndemandCost(ondemandKey, i, costValue);
             }
 
             if (resourceTagGroup != null) {
@@ -245,10 +271,7 @@ public class BasicLineItemProcessor implements LineItemProcessor {
                 addValue(costsOfResource, resourceTagGroup, costValue, !product.isMonitor());
                 
                 // Collect statistics on tag coverage
-                for (String tag: resourceService.getUserTags()) {
-                	String v = resourceService.getUserTagValue(lineItem, tag);
-                	costAndUsageData.addTagCoverage(tag, i, tagGroup, !StringUtils.isEmpty(v));
-                }
+                costAndUsageData.addTagCoverage(i, tagGroup, hasTag);
             }
             else if (resourceService != null) {
             	// Save the non-resource-based costs using the product name - same as if it wasn't tagged.
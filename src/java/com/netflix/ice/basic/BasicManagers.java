@@ -19,6 +19,7 @@ package com.netflix.ice.basic;
 
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.netflix.ice.common.*;
@@ -51,6 +52,11 @@ public class BasicManagers extends Poller implements Managers {
     private InstanceMetricsService instanceMetricsService = null;
     private InstancesService instancesService = null;
     private Long lastPollMillis = 0L;
+    private volatile long dataVersion = 0L;
+    private long lastManifestRun = 0L;
+    private DataCache dataCache;
+    private QueryCache queryCache;
+    private QueryExecutor queryExecutor;
 
     private static final String COVERAGE_PREFIX = "coverage_hourly_";
     
@@ -60,6 +66,7 @@ public class BasicManagers extends Poller implements Managers {
     
     public void shutdown() {
     	lastProcessedPoller.shutdown();
+    	queryExecutor.shutdown();
     	
         for (BasicTagGroupManager tagGroupManager: tagGroupManagers.values()) {
             tagGroupManager.shutdown();
@@ -77,10 +84,14 @@ public class BasicManagers extends Poller implements Managers {
 
     public void init() {
         config = ReaderConfig.getInstance();
+        StalePoller.setPollThreads(config.pollThreads);
         instanceMetricsService = new InstanceMetricsService(config.localDir, config.workS3BucketName, config.workS3BucketPrefix);
         instancesService = new InstancesService(config.localDir, config.workS3BucketName, config.workS3BucketPrefix, config.accountService);
         
         lastProcessedPoller = new LastProcessedPoller(config.startDate);
+        dataCache = new DataCache(config.dataCacheSizeMB);
+        queryCache = new QueryCache(config.queryCacheSizeMB, StalePoller.DefaultStalePollInvervalSecs * 1000L);
+        queryExecutor = new QueryExecutor(config.queryThreads);
         		
         doWork();
         start(1*60, 1*60, false);
@@ -120,27 +131,49 @@ public class BasicManagers extends Poller implements Managers {
     	return instancesService.getInstances();
     }
 
+    public QueryCache getQueryCache() {
+    	return queryCache;
+    }
+
+    public long getDataVersion() {
+    	return dataVersion;
+    }
+
+    public long getLoadFailures() {
+    	return dataCache.getLoadFailures();
+    }
+
+    public QueryExecutor getQueryExecutor() {
+    	return queryExecutor;
+    }
+
     @Override
     protected void poll() throws Exception {
         doWork();
     }
 
     private void doWork() {
-    	if (lastPollMillis >= lastProcessedPoller.getLastProcessedMillis())
+    	long lastProcessedMillis = lastProcessedPoller.getLastProcessedMillis();
+    	if (lastPollMillis >= lastProcessedMillis)
     		return;	// nothing to do
     	
-    	// Mark all the data managers so they update their caches
+    	// Cached query results are for the previous version of the data
+    	dataVersion = lastProcessedMillis;
+    	queryCache.invalidateAll();
+    	
+    	// Mark the data managers so they update their caches, only the files that changed if the processor says which
+    	Map<String, Long> changes = getChanges();
     	for (BasicTagGroupManager m: tagGroupManagers.values()) {
-    		m.stale();
+    		if (changes == null)
+    			m.stale();
+    		else
+    			m.stale(changes);
     	}
-    	for (DataFilePoller p: costManagers.values()) {
-    		p.stale();
-    	}
-    	for (DataFilePoller p: usageManagers.values()) {
-    		p.stale();
-    	}
-    	for (DataFilePoller p: tagCoverageManagers.values()) {
-    		p.stale();
+    	for (DataFilePoller p: Iterables.concat(costManagers.values(), usageManagers.values(), tagCoverageManagers.values())) {
+    		if (changes == null)
+    			p.stale();
+    		else
+    			p.stale(changes);
     	}
     	instancesService.stale();
     	instanceMetricsService.stale();
@@ -179,10 +212,22 @@ public class BasicManagers extends Poller implements Managers {
                 
             	String partialDbName = consolidateType + "_" + (product == null ? "all" : product.getFileName());
                
-                costManagers.put(key, new BasicDataManager(config.startDate, "cost_" + partialDbName, consolidateType, tagGroupManager, compress,
-                		config.monthlyCacheSize, config.accountService, config.productService, null));
-                usageManagers.put(key, new BasicDataManager(config.startDate, "usage_" + partialDbName, consolidateType, tagGroupManager, compress,
-                		config.monthlyCacheSize, config.accountService, config.productService, instanceMetricsService));
+                BasicDataManager costManager = new BasicDataManager(config.startDate, "cost_" + partialDbName, consolidateType, tagGroupManager, compress,
+                		dataCache, config.accountService, config.productService, null);
+                BasicDataManager usageManager = new BasicDataManager(config.startDate, "usage_" + partialDbName, consolidateType, tagGroupManager, compress,
+                		dataCache, config.accountService, config.productService, instanceMetricsService);
+                
+                // The processor writes cubes of the daily and monthly data across all products
+                if (product == null && (consolidateType == ConsolidateType.daily || consolidateType == ConsolidateType.monthly)) {
+                	for (Cube cube: config.cubes) {
+                		costManager.addCube(new CubeDataManager(config.startDate, "cost_" + partialDbName, consolidateType, cube, compress,
+                				dataCache, config.accountService, config.productService));
+                		usageManager.addCube(new CubeDataManager(config.startDate, "usage_" + partialDbName, consolidateType, cube, compress,
+                				dataCache, config.accountService, config.productService));
+                	}
+                }
+                costManagers.put(key, costManager);
+                usageManagers.put(key, usageManager);
             }
         }
 
@@ -202,10 +247,36 @@ public class BasicManagers extends Poller implements Managers {
             
             tagCoverageManagers.put(UserTag.get(tagName),
             		new TagCoverageDataManager(config.startDate, "coverage_" + ConsolidateType.hourly + "_" + tagName, ConsolidateType.hourly, getTagGroupManager(null), compress,
-            				config.monthlyCacheSize, config.accountService, config.productService));
+            				dataCache, config.accountService, config.productService));
         }        
     }
 
+    /**
+     * Get the versions of the files the processor wrote since the last time we looked at its change manifest.
+     * Returns null if they aren't known and all the data should be checked.
+     */
+    private Map<String, Long> getChanges() {
+    	ChangeManifest manifest;
+    	try {
+    		manifest = ChangeManifest.download(config.workS3BucketName, config.workS3BucketPrefix);
+    	}
+    	catch (Exception e) {
+    		logger.error("failed to read change manifest", e);
+    		return null;
+    	}
+    	if (manifest == null)
+    		return null;
+
+    	long lastRun = lastManifestRun;
+    	lastManifestRun = manifest.getLastRun();
+    	// Runs we haven't seen may have been dropped from the manifest
+    	if (lastRun == 0 || manifest.getSince() > lastRun)
+    		return null;
+    	Map<String, Long> changes = manifest.getChangesSince(lastRun);
+    	logger.info(changes.size() + " files changed since " + new DateTime(lastRun));
+    	return changes;
+    }
+
     private static class Key implements Comparable<Key> {
         Product product;
         ConsolidateType consolidateType;
@@ -3,6 +3,7 @@ package com.netflix.ice.basic;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
 import com.netflix.ice.common.LineItem;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.ResourceService;
@@ -41,10 +42,22 @@ public class BasicResourceService extends ResourceService {
     // Map of tag values to canonical name. All keys are lower case.
     private final Map<String, String> tagValuesInverted;
     
-    // Map containing the lineItem column indecies that match the canonical tag keys specified by CustomTags
-    // Key is the Custom Tag name (without the "user:" prefix). First index in the list is always the exact
-    // custom tag name match if present.
-    private Map<String, List<Integer>> tagIndecies;
+    // Interns the tag values and caches the resource groups for each combination of custom tag values.
+    // Replaced on commit so that it only holds the resource groups of the month being processed.
+    private volatile ResourceTagResolver resolver;
+    
+    // Position of each user tag in the userTags list
+    private final Map<String, Integer> userTagPositions;
+    // Position in the userTags list of each of the custom tags
+    private final int[] customTagPositions;
+    
+    // The lineItem column indecies that match the canonical tag keys for each of the userTags.
+    // First index in each list is always the exact user tag name match if present.
+    // Compiled by initHeader().
+    private volatile int[][] tagIndecies;
+    
+    // Scratch array of custom tag value ids for each processing thread
+    private final ThreadLocal<int[]> customTagIds;
     
     private static final String USER_TAG_PREFIX = "user:";
 
@@ -78,6 +91,22 @@ public class BasicResourceService extends ResourceService {
 			if (!tag.isEmpty())
 				userTags.add(tag);		
 		}
+		
+		resolver = new ResourceTagResolver(tagValuesInverted);
+		userTagPositions = Maps.newHashMap();
+		for (int i = 0; i < userTags.size(); i++)
+			userTagPositions.put(userTags.get(i), i);
+		customTagPositions = new int[customTags.length];
+		for (int i = 0; i < customTags.length; i++) {
+			Integer position = userTagPositions.get(customTags[i]);
+			customTagPositions[i] = position == null ? -1 : position;
+		}
+		customTagIds = new ThreadLocal<int[]>() {
+			@Override
+			protected int[] initialValue() {
+				return new int[BasicResourceService.this.customTags.length];
+			}
+		};
 	}
 
 	@Override
@@ -97,32 +126,36 @@ public class BasicResourceService extends ResourceService {
     @Override
     public ResourceGroup getResourceGroup(Account account, Region region, Product product, LineItem lineItem, long millisStart) {
         // Build the resource group based on the values of the custom tags
-    	String[] tags = new String[customTags.length];
+    	ResourceTagResolver resolver = this.resolver;
+    	int[] ids = customTagIds.get();
        	boolean hasTag = false;
        	for (int i = 0; i < customTags.length; i++) {
-        	String v = getUserTagValue(lineItem, customTags[i]);
-        	tags[i] = v;
-        	hasTag = v == null ? hasTag : true;
+        	ids[i] = getUserTagValueId(resolver, lineItem, customTagPositions[i]);
+        	hasTag = ids[i] == 0 ? hasTag : true;
         }
         // If we didn't have any tags, just return a ResourceGroup
-        return hasTag ? ResourceGroup.getResourceGroup(tags) : ResourceGroup.getResourceGroup(product.name, true);
+        return hasTag ? resolver.getResourceGroup(ids) : ResourceGroup.getResourceGroup(product.name, true);
     }
     
     @Override
     public String getUserTagValue(LineItem lineItem, String tag) {
+    	Integer position = userTagPositions.get(tag);
+    	ResourceTagResolver resolver = this.resolver;
+    	return position == null ? null : resolver.getValue(getUserTagValueId(resolver, lineItem, position));
+    }
+    
+    private int getUserTagValueId(ResourceTagResolver resolver, LineItem lineItem, int position) {
+    	if (position < 0)
+    		return 0;
     	// Grab the first non-empty value
-    	for (int index: tagIndecies.get(tag)) {
+    	for (int index: tagIndecies[position]) {
     		if (lineItem.getResourceTagsSize() > index) {
     			String val = lineItem.getResourceTag(index);
-    			if (!StringUtils.isEmpty(val)) {
-	    			if (tagValuesInverted.containsKey(val.toLowerCase())) {
-	    				val = tagValuesInverted.get(val.toLowerCase());
-	    			}
-	    			return val;
-    			}
+    			if (!StringUtils.isEmpty(val))
+    				return resolver.getId(val);
     		}
     	}
-    	return null;
+    	return 0;
     }
 
     @Override
@@ -143,16 +176,16 @@ public class BasicResourceService extends ResourceService {
 
     @Override
     public void commit() {
-
+    	resolver = new ResourceTagResolver(tagValuesInverted);
     }
     
     @Override
     public void initHeader(String[] header) {
-    	tagIndecies = Maps.newHashMap();
-    	for (String tag: userTags) {
+    	int[][] compiled = new int[userTags.size()][];
+    	for (int position = 0; position < userTags.size(); position++) {
+    		String tag = userTags.get(position);
     		String fullTag = USER_TAG_PREFIX + tag;
     		List<Integer> indecies = Lists.newArrayList();
-    		tagIndecies.put(tag, indecies);
     		
     		// First check the preferred key name
     		int index = -1;
@@ -185,6 +218,8 @@ public class BasicResourceService extends ResourceService {
                     }
             	}
             }
+            compiled[position] = Ints.toArray(indecies);
     	}
+    	tagIndecies = compiled;
     }
 }
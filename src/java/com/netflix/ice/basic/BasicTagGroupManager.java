@@ -17,6 +17,8 @@
  */
 package com.netflix.ice.basic;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
@@ -33,6 +35,7 @@ import org.joda.time.DateTime;
 import org.joda.time.DateTimeZone;
 import org.joda.time.Interval;
 
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -44,14 +47,32 @@ public class BasicTagGroupManager extends StalePoller implements TagGroupManager
     private ReaderConfig config;
     private String dbName;
     private File file;
-    private TreeMap<Long, Collection<TagGroup>> tagGroups;
-    private TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups;
+    // Months in the file
+    private TreeSet<Long> months;
+    // Index of the tag groups of all the months with the resource groups removed, used for queries over all the months
+    private TagGroupIndex allTagGroups;
+    // Indexes of the most recently used months. Other months are read from the file again when a query needs them,
+    // so tag groups that are no longer used by any of the indexes can be released by the interners.
+    private final Cache<Long, MonthIndexes> monthIndexes;
     private Interval totalInterval;
+    // For unit testing
+    private TreeMap<Long, Collection<TagGroup>> source;
+
+    private static class MonthIndexes {
+        final TagGroupIndex tagGroups;
+        final TagGroupIndex tagGroupsWithResourceGroups;
+
+        MonthIndexes(Collection<TagGroup> tagGroups, Collection<TagGroup> tagGroupsWithResourceGroups) {
+            this.tagGroups = new TagGroupIndex(tagGroups);
+            this.tagGroupsWithResourceGroups = new TagGroupIndex(tagGroupsWithResourceGroups);
+        }
+    }
 
     BasicTagGroupManager(Product product) {
     	config = ReaderConfig.getInstance();
         this.dbName = TagGroupWriter.DB_PREFIX + (product == null ? "all" : product.getFileName());
         file = new File(config.localDir, dbName);
+        monthIndexes = CacheBuilder.newBuilder().maximumSize(config.monthlyCacheSize).build();
         try {
             stalePoll();
         }
@@ -61,81 +82,94 @@ public class BasicTagGroupManager extends StalePoller implements TagGroupManager
         start(DefaultStalePollInvervalSecs, DefaultStalePollInvervalSecs, false);
     }
     
+    /**
+     * Only reload the tag groups if the processor wrote a newer version of the file
+     * @param changes versions of the files the processor has written
+     */
+    public void stale(Map<String, Long> changes) {
+        Long version = changes.get(file.getName());
+        if (version != null && file.lastModified() < version)
+            stale();
+    }
+    
     // For unit testing
     BasicTagGroupManager(TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups) {
-    	this.tagGroupsWithResourceGroups = tagGroupsWithResourceGroups;
-    	this.tagGroups = removeResourceGroups(tagGroupsWithResourceGroups);
+    	this(tagGroupsWithResourceGroups, 12);
+    }
+
+    // For unit testing
+    BasicTagGroupManager(TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups, int monthlyCacheSize) {
+    	monthIndexes = CacheBuilder.newBuilder().maximumSize(monthlyCacheSize).build();
+    	source = tagGroupsWithResourceGroups;
+    	Set<TagGroup> all = Sets.newHashSet();
+    	for (Collection<TagGroup> tagGroups: tagGroupsWithResourceGroups.values())
+    		all.addAll(removeResourceGroups(tagGroups));
+    	setTagGroups(Sets.newTreeSet(tagGroupsWithResourceGroups.keySet()), all, Maps.<Long, MonthIndexes>newHashMap());
     }
 
     @Override
     protected boolean stalePoll() throws IOException {
-        boolean downloaded = AwsUtils.downloadFileIfChanged(config.workS3BucketName, config.workS3BucketPrefix, file, 0);
-        if (downloaded || tagGroups == null) {
-            logger.info("trying to read from " + file);
-            DataInputStream in = new DataInputStream(new FileInputStream(file));
-            try {
-                TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups = TagGroup.Serializer.deserializeTagGroups(config.accountService, config.productService, in);
-                TreeMap<Long, Collection<TagGroup>> tagGroups = removeResourceGroups(tagGroupsWithResourceGroups);
-                Interval totalInterval = null;
-                if (tagGroups.size() > 0) {
-                    totalInterval = new Interval(tagGroups.firstKey(), new DateTime(tagGroups.lastKey()).plusMonths(1).getMillis(), DateTimeZone.UTC);
+        synchronized (monthIndexes) {
+            boolean downloaded = AwsUtils.downloadFileIfChanged(config.workS3BucketName, config.workS3BucketPrefix, file, 0);
+            if (downloaded || months == null) {
+                logger.info("trying to read from " + file);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                try {
+                    // Read a month at a time, only keeping the indexes of the newest months
+                    int numMonths = in.readInt();
+                    TreeSet<Long> months = Sets.newTreeSet();
+                    Set<TagGroup> all = Sets.newHashSet();
+                    Map<Long, MonthIndexes> newest = Maps.newHashMap();
+                    for (int i = 0; i < numMonths; i++) {
+                        long monthMilli = in.readLong();
+                        int numTagGroups = in.readInt();
+                        List<TagGroup> tagGroups = Lists.newArrayListWithCapacity(numTagGroups);
+                        for (int j = 0; j < numTagGroups; j++)
+                            tagGroups.add(TagGroup.Serializer.deserialize(config.accountService, config.productService, in));
+                        Collection<TagGroup> withoutResourceGroups = removeResourceGroups(tagGroups);
+                        months.add(monthMilli);
+                        all.addAll(withoutResourceGroups);
+                        if (i >= numMonths - config.monthlyCacheSize)
+                            newest.put(monthMilli, new MonthIndexes(withoutResourceGroups, tagGroups));
+                    }
+                    setTagGroups(months, all, newest);
+                    logger.info("done reading " + file);
+                }
+                finally {
+                    in.close();
                 }
-                this.totalInterval = totalInterval;
-                this.tagGroups = tagGroups;
-                this.tagGroupsWithResourceGroups = tagGroupsWithResourceGroups;
-                logger.info("done reading " + file);
-            }
-            catch (IOException e) {
-            	throw e;
-            }
-            finally {
-                in.close();
             }
         }
         return false;
     }
 
+    private void setTagGroups(TreeSet<Long> months, Set<TagGroup> all, Map<Long, MonthIndexes> newest) {
+        this.totalInterval = months.size() == 0 ? null : new Interval(months.first(), new DateTime(months.last()).plusMonths(1).getMillis(), DateTimeZone.UTC);
+        this.allTagGroups = new TagGroupIndex(all);
+        this.monthIndexes.invalidateAll();
+        this.monthIndexes.putAll(newest);
+        this.months = months;
+    }
+
     @Override
     protected String getThreadName() {
         return this.dbName;
     }
 
-    private TreeMap<Long, Collection<TagGroup>> removeResourceGroups(TreeMap<Long, Collection<TagGroup>> tagGroups) {
-        TreeMap<Long, Collection<TagGroup>> result = Maps.newTreeMap();
-        for (Long key: tagGroups.keySet()) {
-            Collection<TagGroup> from = tagGroups.get(key);
-            Set<TagGroup> to = Sets.newHashSet();
-            for (TagGroup tagGroup: from) {
-                if (tagGroup.resourceGroup != null)
-                    to.add(TagGroup.getTagGroup(tagGroup.account, tagGroup.region, tagGroup.zone, tagGroup.product, tagGroup.operation, tagGroup.usageType, null));
-                else
-                    to.add(tagGroup);
-            }
-
-            result.put(key, to);
+    private Collection<TagGroup> removeResourceGroups(Collection<TagGroup> from) {
+        Set<TagGroup> to = Sets.newHashSet();
+        for (TagGroup tagGroup: from) {
+            if (tagGroup.resourceGroup != null)
+                to.add(TagGroup.getTagGroup(tagGroup.account, tagGroup.region, tagGroup.zone, tagGroup.product, tagGroup.operation, tagGroup.usageType, null));
+            else
+                to.add(tagGroup);
         }
-        return result;
-    }
-
-    private Set<TagGroup> getTagGroupsInRange(Collection<Long> monthMillis) {
-        Set<TagGroup> tagGroupsInRange = Sets.newHashSet();
-        for (Long monthMilli: monthMillis) {
-            tagGroupsInRange.addAll(this.tagGroups.get(monthMilli));
-        }
-        return tagGroupsInRange;
-    }
-
-    private Set<TagGroup> getTagGroupsWithResourceGroupsInRange(Collection<Long> monthMillis) {
-        Set<TagGroup> tagGroupsInRange = Sets.newHashSet();
-        for (Long monthMilli: monthMillis) {
-            tagGroupsInRange.addAll(this.tagGroupsWithResourceGroups.get(monthMilli));
-        }
-        return tagGroupsInRange;
+        return to;
     }
 
     private Collection<Long> getMonthMillis(Interval interval) {
         Set<Long> result = Sets.newTreeSet();
-        for (Long milli: tagGroups.keySet()) {
+        for (Long milli: months) {
             DateTime monthDate = new DateTime(milli, DateTimeZone.UTC);
             if (new Interval(monthDate, monthDate.plusMonths(1)).overlap(interval) != null)
                 result.add(milli);
@@ -144,113 +178,140 @@ public class BasicTagGroupManager extends StalePoller implements TagGroupManager
         return result;
     }
 
-    public Collection<Account> getAccounts(Interval interval, TagLists tagLists) {
-        Set<Account> result = Sets.newTreeSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsInRange(getMonthMillis(interval));
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                result.add(tagGroup.account);
+    /**
+     * Get the indexes of the months in the interval, reading the months that aren't cached from the file in one pass
+     */
+    private Collection<TagGroupIndex> getIndexes(Interval interval, boolean withResourceGroups) {
+        Collection<Long> monthMillis = getMonthMillis(interval);
+        if (!withResourceGroups && monthMillis.size() == months.size())
+            return monthMillis.size() == 0 ? Collections.<TagGroupIndex>emptyList() : Collections.singletonList(allTagGroups);
+
+        Map<Long, MonthIndexes> indexes = Maps.newHashMap(monthIndexes.getAllPresent(monthMillis));
+        if (indexes.size() < monthMillis.size()) {
+            Set<Long> missing = Sets.newHashSet(monthMillis);
+            missing.removeAll(indexes.keySet());
+            indexes.putAll(loadIndexes(missing));
         }
 
+        List<TagGroupIndex> result = Lists.newArrayListWithCapacity(indexes.size());
+        for (MonthIndexes index: indexes.values())
+            result.add(withResourceGroups ? index.tagGroupsWithResourceGroups : index.tagGroups);
         return result;
     }
 
-    public Collection<Region> getRegions(Interval interval, TagLists tagLists) {
-        Set<Region> result = Sets.newTreeSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsInRange(getMonthMillis(interval));
+    /**
+     * Build the indexes of the months and cache them. The file is locked against the poller so that the indexes
+     * can't be cached after the poller has replaced them with the ones of a newer file.
+     */
+    private Map<Long, MonthIndexes> loadIndexes(Set<Long> monthMillis) {
+        synchronized (monthIndexes) {
+            TreeMap<Long, Collection<TagGroup>> tagGroups;
+            if (source != null) {
+                tagGroups = Maps.newTreeMap();
+                for (Long monthMilli: monthMillis)
+                    tagGroups.put(monthMilli, source.get(monthMilli));
+            }
+            else {
+                logger.info("reading " + monthMillis.size() + " months from " + file);
+                try {
+                    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                    try {
+                        tagGroups = TagGroup.Serializer.deserializeTagGroups(config.accountService, config.productService, in, monthMillis);
+                    }
+                    finally {
+                        in.close();
+                    }
+                }
+                catch (IOException e) {
+                    throw new RuntimeException("cannot read tag groups from " + file, e);
+                }
+            }
 
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                result.add(tagGroup.region);
+            Map<Long, MonthIndexes> result = Maps.newHashMap();
+            for (Long monthMilli: tagGroups.keySet())
+                result.put(monthMilli, new MonthIndexes(removeResourceGroups(tagGroups.get(monthMilli)), tagGroups.get(monthMilli)));
+            monthIndexes.putAll(result);
+            return result;
         }
+    }
 
+    /**
+     * Get the non-null values of a tag type for the tag groups in the interval that match the tagLists
+     */
+    @SuppressWarnings("unchecked")
+    private <T extends Tag> Collection<T> getTags(boolean withResourceGroups, Interval interval, TagLists tagLists, TagType tagType) {
+        Set<T> result = Sets.newTreeSet();
+        for (TagGroupIndex index: getIndexes(interval, withResourceGroups)) {
+            BitSet matches = index.getMatches(tagLists);
+            if (matches == null) {
+                for (Tag tag: index.getTags(tagType)) {
+                    if (tag != null)
+                        result.add((T) tag);
+                }
+            }
+            else {
+                for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+                    Tag tag = TagGroupIndex.getTag(index.get(i), tagType);
+                    if (tag != null)
+                        result.add((T) tag);
+                }
+            }
+        }
         return result;
     }
 
-    public Collection<Zone> getZones(Interval interval, TagLists tagLists) {
-        Set<Zone> result = Sets.newTreeSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsInRange(getMonthMillis(interval));
+    public Collection<Account> getAccounts(Interval interval, TagLists tagLists) {
+        return getTags(false, interval, tagLists, TagType.Account);
+    }
 
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup) && tagGroup.zone != null)
-                result.add(tagGroup.zone);
-        }
+    public Collection<Region> getRegions(Interval interval, TagLists tagLists) {
+        return getTags(false, interval, tagLists, TagType.Region);
+    }
 
-        return result;
+    public Collection<Zone> getZones(Interval interval, TagLists tagLists) {
+        return getTags(false, interval, tagLists, TagType.Zone);
     }
 
     public Collection<Product> getProducts(Interval interval, TagLists tagLists) {
-        Set<Product> result = Sets.newTreeSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsInRange(getMonthMillis(interval));
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                result.add(tagGroup.product);
-        }
-
-        return result;
+        return getTags(false, interval, tagLists, TagType.Product);
     }
 
     public Collection<Operation> getOperations(Interval interval, TagLists tagLists) {
-        Set<Operation> result = Sets.newTreeSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsInRange(getMonthMillis(interval));
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                result.add(tagGroup.operation);
-        }
-
-        return result;
+        return getTags(false, interval, tagLists, TagType.Operation);
     }
 
     public Collection<UsageType> getUsageTypes(Interval interval, TagLists tagLists) {
-        Set<UsageType> result = Sets.newTreeSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsInRange(getMonthMillis(interval));
-
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup))
-                result.add(tagGroup.usageType);
-        }
-
-        return result;
+        return getTags(false, interval, tagLists, TagType.UsageType);
     }
 
     public Collection<ResourceGroup> getResourceGroups(Interval interval, TagLists tagLists) {
-        Set<ResourceGroup> result = Sets.newTreeSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsWithResourceGroupsInRange(getMonthMillis(interval));
-
-        // Add ResourceGroup tags that are non-null, just the product name, or userTag CSVs.
-        for (TagGroup tagGroup: tagGroupsInRange) {
-            if (tagLists.contains(tagGroup) && tagGroup.resourceGroup != null) {
-                result.add(tagGroup.resourceGroup);
-            }
-        }
-
-        return result;
+        return getTags(true, interval, tagLists, TagType.ResourceGroup);
     }
 
     public Collection<UserTag> getResourceGroupTags(Interval interval, TagLists tagLists, int userTagGroupByIndex) {
         Set<UserTag> result = Sets.newTreeSet();
-        Set<TagGroup> tagGroupsInRange = getTagGroupsWithResourceGroupsInRange(getMonthMillis(interval));
 
         // Add ResourceGroup tags that are non-null, just the product name, or userTag CSVs.
-        for (TagGroup tagGroup: tagGroupsInRange) {
-        	logger.debug("tag group <" + tagLists.contains(tagGroup) + ">: " + tagGroup);
-            if (tagLists.contains(tagGroup) && tagGroup.resourceGroup != null) {
-            	try {
-            		UserTag t = tagGroup.resourceGroup.isProductName() ? UserTag.get("") : tagGroup.resourceGroup.getUserTags()[userTagGroupByIndex];
-            		result.add(t);
-            	}
-            	catch (Exception e) {
-            		logger.error("Bad resourceGroup: " + tagGroup.resourceGroup + ", " + e);
-            	}
+        for (TagGroupIndex index: getIndexes(interval, true)) {
+            BitSet matches = index.getMatches(tagLists);
+            if (matches == null) {
+                for (Tag tag: index.getTags(TagType.ResourceGroup))
+                    addResourceGroupTag(result, (ResourceGroup) tag, userTagGroupByIndex);
+            }
+            else {
+                for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1))
+                    addResourceGroupTag(result, index.get(i).resourceGroup, userTagGroupByIndex);
             }
         }
 
         return result;
     }
 
+    private void addResourceGroupTag(Set<UserTag> result, ResourceGroup resourceGroup, int userTagGroupByIndex) {
+        if (resourceGroup != null)
+            result.add(resourceGroup.isProductName() ? UserTag.get("") : resourceGroup.getUserTag(userTagGroupByIndex));
+    }
+
     public Collection<Account> getAccounts(TagLists tagLists) {
         return this.getAccounts(totalInterval, tagLists);
     }
@@ -353,6 +414,10 @@ public class BasicTagGroupManager extends StalePoller implements TagGroupManager
                         //logger.info("     operations: " + operations);
                         tmp = tmp.copyWithOperations(operations);
                     }
+                    else {
+                    	// Copy the query's list so that queries running concurrently don't see the removals
+                    	tmp = tmp.copyWithOperations(Lists.newArrayList(tmp.operations));
+                    }
                     for (Operation.ReservationOperation lentOp: Operation.getLentOperations())
                         tmp.operations.remove(lentOp);
         			for (Operation.ReservationOperation savingsOp: Operation.getSavingsOperations())
@@ -0,0 +1,94 @@
+package com.netflix.ice.basic;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import org.joda.time.DateTime;
+import org.joda.time.Interval;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.Cube;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.ReadOnlyData;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.reader.TagListsWithUserTags;
+import com.netflix.ice.reader.UsageUnit;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+
+/**
+ * CubeDataManager reads the pre-aggregated cube files written by the processor for a summary data file.
+ * BasicDataManager uses it to answer the queries that only filter and group by the cube's dimensions.
+ */
+public class CubeDataManager extends DataFilePoller {
+	// Marks months or years without a cube file, e.g. data processed before the cube was configured
+	private static final ReadOnlyData missing = new ReadOnlyData(new double[][]{}, Lists.<TagGroup>newArrayList());
+
+	private final Cube cube;
+
+	public CubeDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, Cube cube, boolean compress,
+			DataCache dataCache, AccountService accountService, ProductService productService) {
+		super(startDate, cube.getDbName(dbName), consolidateType, compress, dataCache, accountService, productService);
+		this.cube = cube;
+	}
+
+	public Cube getCube() {
+		return cube;
+	}
+
+	@Override
+	protected ReadOnlyData deserialize(DataInput in) throws IOException {
+		int numKeys = in.readInt();
+		List<TagGroup> keys = Lists.newArrayList();
+		for (int i = 0; i < numKeys; i++)
+			keys.add(cube.deserialize(accountService, productService, in));
+		return ReadOnlyData.Serializer.deserialize(keys, in);
+	}
+
+	@Override
+	protected ReadOnlyData getMissingData(DateTime key) {
+		return missing;
+	}
+
+	/**
+	 * Check if the query only filters and groups by the dimensions of the cube
+	 */
+	public boolean canAnswer(TagLists tagLists, TagType groupBy, UsageUnit usageUnit) {
+		// Unit conversions need the usage type of each column
+		if (usageUnit == UsageUnit.ECUs || usageUnit == UsageUnit.vCPUs || usageUnit == UsageUnit.Normalized)
+			return false;
+		if (tagLists instanceof TagListsWithUserTags)
+			return false;
+		if (groupBy != null && !cube.contains(groupBy))
+			return false;
+
+		return isAnswerable(tagLists.accounts, TagType.Account) &&
+				isAnswerable(tagLists.regions, TagType.Region) &&
+				isAnswerable(tagLists.zones, TagType.Zone) &&
+				isAnswerable(tagLists.products, TagType.Product) &&
+				isAnswerable(tagLists.operations, TagType.Operation) &&
+				isAnswerable(tagLists.usageTypes, TagType.UsageType) &&
+				isAnswerable(tagLists.resourceGroups, TagType.ResourceGroup);
+	}
+
+	private boolean isAnswerable(List<? extends Tag> tags, TagType tagType) {
+		return tags == null || tags.size() == 0 || cube.contains(tagType);
+	}
+
+	/**
+	 * Check that the processor has written the cube for all of the interval
+	 */
+	public boolean hasData(Interval interval) throws ExecutionException {
+		preload(interval);
+		for (DateTime key: getKeys(interval)) {
+			if (getReadOnlyData(key) == missing)
+				return false;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.basic;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.netflix.ice.reader.ReadOnlyData;
+
+/**
+ * Cache of the data files loaded by all the data managers of the reader. Entries are keyed by
+ * the manager and the month or year of the file and are weighed by their size in memory, so a month
+ * of hourly resource data uses up more of the budget than a monthly summary. The least recently
+ * used files are evicted first, whichever manager they belong to.
+ *
+ * Files that fail to load aren't cached, they're loaded again by the next query that needs them.
+ */
+public class DataCache {
+    private final LoadingCache<Key, ReadOnlyData> cache;
+    private final AtomicLong loadFailures = new AtomicLong();
+
+    /**
+     * @param cacheSizeMB memory budget for the loaded data
+     */
+    public DataCache(int cacheSizeMB) {
+        cache = CacheBuilder.newBuilder()
+                // A single segment so that one large file can use the whole budget
+                .concurrencyLevel(1)
+                .maximumWeight(cacheSizeMB * 1024L)
+                .weigher(new Weigher<Key, ReadOnlyData>() {
+                    public int weigh(Key key, ReadOnlyData value) {
+                        return (int) Math.min(Integer.MAX_VALUE, value.getEstimatedSize() / 1024 + 1);
+                    }
+                })
+                .removalListener(new RemovalListener<Key, ReadOnlyData>() {
+                    public void onRemoval(RemovalNotification<Key, ReadOnlyData> notification) {
+                        // Refreshed data replaces the old data in place
+                        if (notification.getCause() != RemovalCause.REPLACED)
+                            notification.getKey().poller.removed(notification.getKey().date);
+                    }
+                })
+                .build(new CacheLoader<Key, ReadOnlyData>() {
+                    public ReadOnlyData load(Key key) throws Exception {
+                        try {
+                            return key.poller.loadData(key.date);
+                        }
+                        catch (Exception e) {
+                            loadFailures.incrementAndGet();
+                            throw e;
+                        }
+                    }
+                });
+    }
+
+    public ReadOnlyData get(DataFilePoller poller, DateTime date) throws ExecutionException {
+        return cache.get(new Key(poller, date));
+    }
+
+    public ReadOnlyData getIfPresent(DataFilePoller poller, DateTime date) {
+        return cache.getIfPresent(new Key(poller, date));
+    }
+
+    public void put(DataFilePoller poller, DateTime date, ReadOnlyData data) {
+        cache.put(new Key(poller, date), data);
+    }
+
+    /**
+     * Drop all the data of a manager, e.g. when it shuts down
+     */
+    public void invalidateAll(DataFilePoller poller) {
+        for (Key key: cache.asMap().keySet()) {
+            if (key.poller == poller)
+                cache.invalidate(key);
+        }
+    }
+
+    /**
+     * Number of files that failed to load. Results computed while it changes are missing some of the data.
+     */
+    public long getLoadFailures() {
+        return loadFailures.get();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    private static class Key {
+        final DataFilePoller poller;
+        final DateTime date;
+
+        Key(DataFilePoller poller, DateTime date) {
+            this.poller = poller;
+            this.date = date;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return poller == other.poller && date.equals(other.date);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(poller) + date.hashCode();
+        }
+    }
+}
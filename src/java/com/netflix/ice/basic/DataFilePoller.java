@@ -1,12 +1,22 @@
 package com.netflix.ice.basic;
 
+import java.io.DataInput;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 import java.util.zip.GZIPInputStream;
 
 import org.joda.time.DateTime;
@@ -14,14 +24,11 @@ import org.joda.time.Interval;
 import org.joda.time.PeriodType;
 
 import com.amazonaws.AmazonServiceException;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
-import com.google.common.cache.RemovalListener;
-import com.google.common.cache.RemovalNotification;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.common.ConsolidateType;
@@ -36,72 +43,154 @@ import com.netflix.ice.reader.ReaderConfig;
  */
 public class DataFilePoller extends StalePoller {
     protected static final String compressExtension = ".gz";
+    private static final int loadThreads = 8;
+    private static final int loadAttempts = 2;
+
+    // Shared by all the data managers to load the months or years of a query concurrently and to read ahead
+    private static final ExecutorService loadPool = Executors.newFixedThreadPool(loadThreads, new ThreadFactoryBuilder().setNameFormat("DataFileLoader-%d").setDaemon(true).build());
+    // Keep the poller and the loaders from downloading the same file at the same time
+    private static final Striped<Lock> fileLocks = Striped.lock(64);
 
     protected ReaderConfig config = ReaderConfig.getInstance();
     protected DateTime startDate;
     protected final String dbName;
     protected final boolean compress;
     protected ConsolidateType consolidateType;
-    private AccountService accountService;
-    private ProductService productService;
+    protected AccountService accountService;
+    protected ProductService productService;
 
     // map of files we've loaded into the cache
     protected Map<DateTime, File> fileCache = Maps.newConcurrentMap();
+    // months or years to refresh on the next poll, all of them if refreshAll is set
+    private final Set<DateTime> staleKeys = Collections.newSetFromMap(Maps.<DateTime, Boolean>newConcurrentMap());
+    private volatile boolean refreshAll = true;
     
-    // data cache
-    protected LoadingCache<DateTime, ReadOnlyData> data;
+    // data cache shared by all the data managers
+    protected final DataCache dataCache;
 
-    public DataFilePoller(DateTime startDate, final String dbName, ConsolidateType consolidateType, boolean compress,
-    		int monthlyCacheSize, AccountService accountService, ProductService productService) {
+    public DataFilePoller(DateTime startDate, String dbName, ConsolidateType consolidateType, boolean compress,
+    		DataCache dataCache, AccountService accountService, ProductService productService) {
     	this.startDate = startDate;
         this.consolidateType = consolidateType;
         this.dbName = dbName;
         this.compress = compress;
+        this.dataCache = dataCache;
         this.accountService = accountService;
         this.productService = productService;
-        
-        this.data = CacheBuilder.newBuilder()
-        	       .maximumSize(monthlyCacheSize)
-        	       .removalListener(new RemovalListener<DateTime, ReadOnlyData>() {
-        	           public void onRemoval(RemovalNotification<DateTime, ReadOnlyData> objectRemovalNotification) {
-        	               logger.info(dbName + " removing from file cache " + objectRemovalNotification.getKey());
-        	               fileCache.remove(objectRemovalNotification.getKey());
-        	           }
-        	       })
-        	       .build(
-        	               new CacheLoader<DateTime, ReadOnlyData>() {
-        	                   public ReadOnlyData load(DateTime monthDate) throws Exception {
-        	                       return loadData(monthDate);
-        	                   }
-        	               });
 
         start();
     }
     
+    @Override
+    public void stale() {
+        refreshAll = true;
+        super.stale();
+    }
+
+    /**
+     * Only refresh the cached months or years whose files are older than the versions the processor wrote
+     * @param changes versions of the files the processor has written
+     */
+    public void stale(Map<String, Long> changes) {
+        boolean changed = false;
+        for (Map.Entry<DateTime, File> entry: fileCache.entrySet()) {
+            Long version = changes.get(entry.getValue().getName());
+            if (version != null && entry.getValue().lastModified() < version) {
+                staleKeys.add(entry.getKey());
+                changed = true;
+            }
+        }
+        if (changed)
+            super.stale();
+    }
+
     /**
-     * We check if new data is available periodically
+     * We check if new data is available periodically. Changed files are downloaded and loaded in the
+     * background while queries keep using the data already in the cache, then the new data is swapped in.
      * @throws Exception
      */
     @Override
     protected boolean stalePoll() throws Exception {
         logger.info(dbName + " start polling...");
-        for (DateTime key: Sets.newHashSet(fileCache.keySet())) {
+        boolean all = refreshAll;
+        refreshAll = false;
+        Set<DateTime> keys = Sets.newHashSet(all ? fileCache.keySet() : staleKeys);
+        staleKeys.removeAll(keys);
+
+        boolean stillStale = false;
+        for (DateTime key: keys) {
             File file = fileCache.get(key);
+            if (file == null)
+                continue;
+            boolean refreshed;
             try {
-                logger.info("trying to download " + file);
-                boolean downloaded = downloadFile(file);
-                if (downloaded) {
-                    ReadOnlyData newData = loadDataFromFile(file);
-                    data.put(key, newData);
-                    fileCache.put(key, file);
-                }
+                refreshed = refresh(key, file);
             }
             catch (Exception e) {
-                logger.error("failed to download " + file, e);
-                return true;
+                logger.error("failed to refresh " + file, e);
+                refreshed = false;
+            }
+            if (!refreshed) {
+                staleKeys.add(key);
+                stillStale = true;
+            }
+        }
+        return stillStale;
+    }
+
+    /**
+     * Download a changed file next to the current one, load it and then replace the current file and data.
+     * Returns false if the new version couldn't be loaded and should be tried again on the next poll.
+     */
+    private boolean refresh(DateTime key, File file) throws Exception {
+        File staging = new File(file.getPath() + ".new");
+        Lock lock = fileLocks.get(file.getName());
+        boolean downloaded;
+        lock.lock();
+        try {
+            logger.info("trying to download " + file);
+            downloaded = downloadFile(file, staging);
+        }
+        catch (AmazonServiceException ase) {
+            if (ase.getStatusCode() != 404)
+                throw ase;
+            // Keep serving what we have
+            logger.warn("file not found: " + file.getName());
+            return true;
+        }
+        finally {
+            lock.unlock();
+        }
+        if (!downloaded)
+            return true;
+
+        ReadOnlyData newData;
+        try {
+            newData = loadDataFromFile(staging);
+        }
+        catch (Exception e) {
+            logger.error("error in loading new data for " + key + " " + dbName + ", keeping current data", e);
+            staging.delete();
+            return false;
+        }
+
+        lock.lock();
+        try {
+            // Readers that already opened the old file keep reading it
+            if (!staging.renameTo(file)) {
+                file.delete();
+                if (!staging.renameTo(file))
+                    logger.error("not able to replace " + file + " with new version");
             }
         }
-        return false;
+        finally {
+            lock.unlock();
+        }
+        if (dataCache.getIfPresent(this, key) != null) {
+            dataCache.put(this, key, newData);
+            fileCache.put(key, file);
+        }
+        return true;
     }
 
     @Override
@@ -109,9 +198,24 @@ public class DataFilePoller extends StalePoller {
         return this.dbName;
     }
 
-    private ReadOnlyData loadData(DateTime monthDate) throws InterruptedException {
-        while (true) {
-            File file = getDownloadFile(monthDate);
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        dataCache.invalidateAll(this);
+    }
+
+    /**
+     * Called by the data cache when it evicts a month or year of this manager
+     */
+    void removed(DateTime key) {
+        logger.info(dbName + " removing from file cache " + key);
+        fileCache.remove(key);
+    }
+
+    ReadOnlyData loadData(DateTime monthDate) throws IOException {
+        File file = null;
+        for (int attempt = 0; attempt < loadAttempts; attempt++) {
+            file = getDownloadFile(monthDate);
             try {
                 ReadOnlyData result = loadDataFromFile(file);
                 fileCache.put(monthDate, file);
@@ -120,7 +224,7 @@ public class DataFilePoller extends StalePoller {
             catch (FileNotFoundException e) {
                 logger.warn("no data for " + monthDate + " " + this.dbName);
                 fileCache.put(monthDate, file);
-                return new ReadOnlyData(new double[][]{}, Lists.<TagGroup>newArrayList());
+                return getMissingData(monthDate);
             }
             catch (Exception e) {
                 logger.error("error in loading data for " + monthDate + " " + this.dbName, e);
@@ -128,12 +232,13 @@ public class DataFilePoller extends StalePoller {
                     logger.info("deleted corrupted file " + file);
                 else
                     logger.error("not able to delete corrupted file " + file);
-                Thread.sleep(2000L);
             }
         }
+        // Fail the load rather than cache empty data, the next query that needs it tries again
+        throw new IOException("giving up loading data for " + monthDate + " " + this.dbName + " from " + file);
     }
 
-    private synchronized File getDownloadFile(DateTime monthDate) {
+    private File getDownloadFile(DateTime monthDate) {
         File file = getFile(monthDate);
         downloadFile(file);
         return file;
@@ -149,7 +254,9 @@ public class DataFilePoller extends StalePoller {
         return new File(config.localDir, filename + (compress ? compressExtension : ""));
     }
 
-    protected synchronized boolean downloadFile(File file) {
+    protected boolean downloadFile(File file) {
+        Lock lock = fileLocks.get(file.getName());
+        lock.lock();
         try {
             return AwsUtils.downloadFileIfChanged(config.workS3BucketName, config.workS3BucketPrefix, file, 0);
         }
@@ -170,6 +277,16 @@ public class DataFilePoller extends StalePoller {
             logger.error("error downloading " + file.getName(), e);
             return false;
         }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Download the file to staging if the processor has written a newer version of it
+     */
+    protected boolean downloadFile(File file, File staging) {
+        return AwsUtils.downloadFileIfChanged(config.workS3BucketName, config.workS3BucketPrefix, file, staging);
     }
 
     private ReadOnlyData loadDataFromFile(File file) throws Exception {
@@ -179,7 +296,7 @@ public class DataFilePoller extends StalePoller {
         	is = new GZIPInputStream(is);
         DataInputStream in = new DataInputStream(is);
         try {
-            ReadOnlyData result = ReadOnlyData.Serializer.deserialize(accountService, productService, in);
+            ReadOnlyData result = deserialize(in);
             logger.info("done loading data from " + file);
             return result;
         }
@@ -188,9 +305,87 @@ public class DataFilePoller extends StalePoller {
         }
     }
 
+    protected ReadOnlyData deserialize(DataInput in) throws IOException {
+        return ReadOnlyData.Serializer.deserialize(accountService, productService, in);
+    }
+
+    /**
+     * Get the data to use when there's no file for a month or year
+     */
+    protected ReadOnlyData getMissingData(DateTime key) {
+        return new ReadOnlyData(new double[][]{}, Lists.<TagGroup>newArrayList());
+    }
+
+    /**
+     * Get the months for hourly data or the years for daily data that hold the interval.
+     * Weekly and monthly data are in a single file.
+     */
+    protected List<DateTime> getKeys(Interval interval) {
+        List<DateTime> keys = Lists.newArrayList();
+        DateTime start = getAdjustedInterval(interval).getStart();
+        do {
+            keys.add(start);
+            if (consolidateType == ConsolidateType.hourly)
+                start = start.plusMonths(1);
+            else if (consolidateType == ConsolidateType.daily)
+                start = start.plusYears(1);
+            else
+                break;
+        }
+        while (start.isBefore(interval.getEnd()));
+        return keys;
+    }
+
+    private DateTime nextKey(DateTime key, int num) {
+        return consolidateType == ConsolidateType.hourly ? key.plusMonths(num) : key.plusYears(num);
+    }
+
+    /**
+     * Load the months or years of the interval that aren't cached yet concurrently, then start loading
+     * the ones just before and after the interval that a chart is likely to be panned to next.
+     */
+    protected void preload(Interval interval) {
+        if (consolidateType != ConsolidateType.hourly && consolidateType != ConsolidateType.daily)
+            return;
+
+        List<DateTime> keys = getKeys(interval);
+        List<Future<ReadOnlyData>> futures = Lists.newArrayList();
+        for (DateTime key: keys) {
+            if (dataCache.getIfPresent(this, key) == null)
+                futures.add(loadPool.submit(getLoader(key)));
+        }
+        for (Future<ReadOnlyData> future: futures) {
+            try {
+                future.get();
+            }
+            catch (ExecutionException e) {
+                // getReadOnlyData() reports it when the query gets to this month
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        DateTime before = nextKey(keys.get(0), -1);
+        DateTime after = nextKey(keys.get(keys.size() - 1), 1);
+        if (!before.isBefore(startDate) && dataCache.getIfPresent(this, before) == null)
+            loadPool.submit(getLoader(before));
+        if (after.isBeforeNow() && dataCache.getIfPresent(this, after) == null)
+            loadPool.submit(getLoader(after));
+    }
+
+    private Callable<ReadOnlyData> getLoader(final DateTime key) {
+        return new Callable<ReadOnlyData>() {
+            public ReadOnlyData call() throws Exception {
+                return getReadOnlyData(key);
+            }
+        };
+    }
+
     protected ReadOnlyData getReadOnlyData(DateTime key) throws ExecutionException {
 
-        ReadOnlyData result = this.data.get(key);
+        ReadOnlyData result = dataCache.get(this, key);
 
         if (fileCache.get(key) == null) {
             logger.warn(dbName + " cannot find file in fileCache " + key);
@@ -242,6 +437,11 @@ public class DataFilePoller extends StalePoller {
         return num;
     }
     
+    public void load(Interval interval) throws ExecutionException {
+        for (DateTime key: getKeys(interval))
+            getReadOnlyData(key);
+    }
+
     public int getDataLength(DateTime start) {
         try {
             ReadOnlyData data = getReadOnlyData(start);
@@ -5,6 +5,7 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.io.IOUtils;
@@ -16,6 +17,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.netflix.ice.common.LineItem;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.ResourceService;
@@ -29,15 +31,24 @@ import com.netflix.ice.tag.ResourceGroup;
  * A ResourceService which queries an https://github.com/Netflix/edda instance for the 'Usage' tag of instances for breaking down
  * costs based on this tag.
  *
- * Recognizes configuration values "ice.eddaresourceservice.url" and "ice.eddaresourceservice.tag", i.e.
+ * Recognizes configuration values "ice.eddaresourceservice.url", "ice.eddaresourceservice.tag",
+ * "ice.eddaresourceservice.snapshot" and "ice.eddaresourceservice.snapshotTTLMinutes", i.e.
  * 
   # Settings for our own Resource-Service            
   ice.eddaresourceservice.url=http://172.16.110.80:8080
   ice.eddaresourceservice.tag=Usage
+  # Load the tags of all instances in one request and look them up locally (default true)
+  ice.eddaresourceservice.snapshot=true
+  # Reload the snapshot when it's older than this, 0 loads it once for each month processed (default 0)
+  ice.eddaresourceservice.snapshotTTLMinutes=0
   
- * Note: You will need to register the service in Bootstrap.groovy when ProcessorConfig and ReaderConfig are instantiated.
+ * In snapshot mode the instance tags are bulk loaded with a single expanded view/instances request
+ * the first time they're needed and dropped on commit() once each month of billing data is processed.
+ * A failed load isn't kept: the previous snapshot stays in use, or the line items report an error if there
+ * isn't one, and the load is retried a minute later.
+ * With snapshot mode off, every line item makes two requests to Edda.
  *
- * TODO: There is currently no caching done, so there might be a lot of requests fired off to Edda!
+ * Note: You will need to register the service in Bootstrap.groovy when ProcessorConfig and ReaderConfig are instantiated.
  */
 public class EddaResourceService extends ResourceService {
 	@SuppressWarnings("unchecked")
@@ -54,6 +65,25 @@ public class EddaResourceService extends ResourceService {
     // read from properties
     protected String EDDA_ROOT_URL;
     protected String EDDA_TAG_NAME;
+    protected boolean snapshotMode;
+    protected long snapshotTTLMillis;
+    
+    protected long snapshotRetryMillis = 60 * 1000;
+    private volatile Snapshot snapshot;
+    private long failedMillis = 0;
+    
+    /**
+     * Tag values of all the instances known to Edda at the time the snapshot was loaded.
+     */
+    private static class Snapshot {
+    	final Map<String, String> tags; // Tag value by instance ID, empty string if the instance doesn't have the tag
+    	final long loadedMillis;
+    	
+    	Snapshot(Map<String, String> tags, long loadedMillis) {
+    		this.tags = tags;
+    		this.loadedMillis = loadedMillis;
+    	}
+    }
 
     //private final Properties prop;
 
@@ -63,6 +93,8 @@ public class EddaResourceService extends ResourceService {
 
 		EDDA_ROOT_URL = prop.getProperty("ice.eddaresourceservice.url", "http://localhost:18081/edda/api/v2/");
 		EDDA_TAG_NAME = prop.getProperty("ice.eddaresourceservice.tag", "Usage");
+		snapshotMode = Boolean.parseBoolean(prop.getProperty("ice.eddaresourceservice.snapshot", "true"));
+		snapshotTTLMillis = Long.parseLong(prop.getProperty("ice.eddaresourceservice.snapshotTTLMinutes", "0")) * 60 * 1000;
 
 		for (List<String> l: productNamesWithResources) {
         	List<Product> lp = Lists.newArrayList();
@@ -92,6 +124,9 @@ public class EddaResourceService extends ResourceService {
 				logger.warn("Had empty resourceId");
 				return ResourceGroup.getResourceGroup("Error", false);
 			}
+			
+			if (snapshotMode)
+				return getResourceGroupFromSnapshot(resourceId);
 
 			try {
 				JSONArray instances = readInstanceArray();
@@ -145,6 +180,79 @@ public class EddaResourceService extends ResourceService {
 		logger.debug("Product: " + product + " not handled, resourceId: " + resourceId);
 		return super.getResourceGroup(account, region, product, lineItem, millisStart);
 	}
+	
+	private ResourceGroup getResourceGroupFromSnapshot(String resourceId) {
+		Snapshot s = getSnapshot();
+		if (s == null)
+			return ResourceGroup.getResourceGroup("Error", false);
+		
+		String usage = s.tags.get(resourceId);
+		if (usage == null) {
+			logger.debug("Did not find resourceId in edda: " + resourceId);
+			return ResourceGroup.getResourceGroup("Unknown", false);
+		}
+		if (usage.isEmpty()) {
+			logger.debug("Did not find tag '" + EDDA_TAG_NAME + "' for resource " + resourceId);
+			return ResourceGroup.getResourceGroup("Unknown", false);
+		}
+		return ResourceGroup.getResourceGroup(usage, false);
+	}
+	
+	private Snapshot getSnapshot() {
+		Snapshot s = snapshot;
+		if (s != null && !isExpired(s))
+			return s;
+		
+		synchronized (this) {
+			// Check again in case another thread loaded it while we waited.
+			// Don't go back to edda for every line item after a failed load.
+			if ((snapshot == null || isExpired(snapshot)) && System.currentTimeMillis() - failedMillis >= snapshotRetryMillis) {
+				Snapshot loaded = loadSnapshot();
+				if (loaded == null)
+					failedMillis = System.currentTimeMillis();
+				else
+					snapshot = loaded;
+			}
+			return snapshot;
+		}
+	}
+	
+	private boolean isExpired(Snapshot s) {
+		return snapshotTTLMillis > 0 && System.currentTimeMillis() - s.loadedMillis > snapshotTTLMillis;
+	}
+	
+	/**
+	 * Returns null if the snapshot couldn't be loaded
+	 */
+	private Snapshot loadSnapshot() {
+		long now = System.currentTimeMillis();
+		try {
+			JSONArray instances = readExpandedInstanceArray();
+			Map<String, String> tags = Maps.newHashMapWithExpectedSize(instances.length());
+			for (int i = 0; i < instances.length(); i++) {
+				JSONObject instance = instances.getJSONObject(i);
+				String value = "";
+				JSONArray instanceTags = instance.optJSONArray("tags");
+				for (int j = 0; instanceTags != null && j < instanceTags.length(); j++) {
+					JSONObject tag = instanceTags.getJSONObject(j);
+					if (tag.getString("key").equals(EDDA_TAG_NAME)) {
+						value = tag.getString("value");
+						break;
+					}
+				}
+				tags.put(instance.getString("instanceId"), value);
+			}
+			logger.info("Loaded snapshot of " + tags.size() + " instances from edda");
+			return new Snapshot(tags, now);
+		} catch (JSONException e) {
+			logger.warn("error parsing json", e);
+		} catch (MalformedURLException e) {
+			logger.warn("error parsing url", e);
+		} catch (IOException e) {
+			logger.warn("error fetching data from edda at " + EDDA_ROOT_URL, e);
+		}
+		return null;
+	}
 
 
 	/* (non-Javadoc)
@@ -162,6 +270,11 @@ public class EddaResourceService extends ResourceService {
 	@Override
 	public void commit() {
 		logger.info("Commit...");
+		// Load a fresh snapshot for the next month
+		synchronized (this) {
+			snapshot = null;
+			failedMillis = 0;
+		}
 	}
 
 	/* (non-Javadoc)
@@ -184,6 +297,17 @@ public class EddaResourceService extends ResourceService {
 		return instances;
 	}
 
+	protected JSONArray readExpandedInstanceArray() throws IOException, MalformedURLException, JSONException {
+		InputStream stream = new URL(EDDA_ROOT_URL + "view/instances;_expand:(instanceId,tags:(key,value))").openStream();
+		final String json;
+		try {
+			json = IOUtils.toString(stream);
+		} finally {
+			stream.close();
+		}
+		return new JSONArray(json);
+	}
+
 	@Override
 	public List<String> getUserTags() {
 		// TODO Auto-generated method stub
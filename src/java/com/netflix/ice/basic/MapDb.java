@@ -19,6 +19,10 @@ package com.netflix.ice.basic;
 
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.S3ObjectSummary;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.processor.ProcessorConfig;
 import com.netflix.ice.tag.Account;
@@ -31,16 +35,52 @@ import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
 
+/**
+ * Resource mappings stored in a MapDb file that's backed up to S3.
+ *
+ * Reads are served from an in-memory LRU cache in front of the db. Writes are queued
+ * and written to the db in batches by a background thread so that disk commits don't stall
+ * line item processing. The queue is bounded, so a writer that falls behind will block
+ * SetResource() until it catches up. commit() is a flush barrier: it returns once everything
+ * set before it was called has been committed to the db and uploaded. If the db commit fails,
+ * the writes are kept and retried with the next batch, and the flush throws.
+ */
 public class MapDb {
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private static final int defaultCacheSize = 100000;
+    private static final int defaultQueueSize = 10000;
+    private static final int maxBatchSize = 1000;
+
     private DB db;
     private Map<String, String> items;
-    private long numItemsToCommit = 0;
     private ProcessorConfig config;
     private String dbName;
 
+    private final Cache<String, String> cache;
+    // Values that have been queued but not yet committed to the db
+    private final ConcurrentMap<String, String> pending = Maps.newConcurrentMap();
+    private final BlockingQueue<Write> queue;
+
+    private static class Write {
+    	final String key;
+    	final String value;
+    	final CountDownLatch flushed; // set for flush requests
+    	Exception error; // set if the writes before a flush request couldn't be committed
+    	
+    	Write(String key, String value, CountDownLatch flushed) {
+    		this.key = key;
+    		this.value = value;
+    		this.flushed = flushed;
+    	}
+    }
+
     MapDb(String name) {
         this.config = ProcessorConfig.getInstance();
 
@@ -54,17 +94,60 @@ public class MapDb {
             }
         }
         this.db = DBMaker.newFileDB(new File(config.localDir, this.dbName)).make();
+        this.items = openMap(name);
+        this.cache = CacheBuilder.newBuilder().maximumSize(defaultCacheSize).build();
+        this.queue = new ArrayBlockingQueue<Write>(defaultQueueSize);
+        startWriter(name);
+    }
+
+    /**
+     * Used for testing with a db that isn't backed up to S3.
+     */
+    MapDb(String name, DB db, int cacheSize, int queueSize) {
+        this.dbName = "db_" + name;
+        this.db = db;
+        this.items = openMap(name);
+        this.cache = CacheBuilder.newBuilder().maximumSize(cacheSize).build();
+        this.queue = new ArrayBlockingQueue<Write>(queueSize);
+        startWriter(name);
+    }
+
+    private Map<String, String> openMap(String name) {
         try {
-            this.items = db.createHashMap(name, false, null, null);
+            return db.createHashMap(name, false, null, null);
         }
         catch (IllegalArgumentException e) {
-            this.items = db.getHashMap(name);
-            logger.info("found " + this.items.size() + " items from mapdb for " + name);
+        	Map<String, String> map = db.getHashMap(name);
+            logger.info("found " + map.size() + " items from mapdb for " + name);
+            return map;
         }
     }
 
+    private void startWriter(String name) {
+    	Thread t = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				writeBehind();
+			}
+    	}, "MapDbWriter-" + name);
+    	t.setDaemon(true);
+    	t.start();
+    }
+
     String getResource(Account account, Region region, String resourceId) {
-        return this.items.get(resourceId + "|" + account + "|" + region);
+        return get(resourceId + "|" + account + "|" + region);
+    }
+
+    private String get(String key) {
+    	String value = cache.getIfPresent(key);
+    	if (value == null) {
+    		value = pending.get(key);
+    		if (value == null)
+    			value = this.items.get(key);
+    		if (value != null)
+    			cache.put(key, value);
+    	}
+    	return value;
     }
 
     void SetResource(Account account, Region region, String resourceId, String resource, long millisStart) {
@@ -72,36 +155,102 @@ public class MapDb {
             return;
 
         String key = resourceId + "|" + account + "|" + region;
-        String resourceInDb = this.items.get(key);
-
-        if (resourceInDb == null) {
-            this.items.put(key, resource);
+        String resourceInDb = get(key);
 
-            numItemsToCommit ++;
-            if (numItemsToCommit >= 1000) {
-                this.commit();
-                numItemsToCommit = 0;
-            }
-        }
-        else if (!resourceInDb.equals(resource)) {
+        if (resource.equals(resourceInDb))
+        	return;
+        if (resourceInDb != null)
             logger.error("different resources " + resourceInDb + " " + resource + " for " + resourceId);
-            this.items.put(key, resource);
-            resourceInDb = resource;
 
-            numItemsToCommit ++;
-            if (numItemsToCommit >= 1000) {
-                this.commit();
-                numItemsToCommit = 0;
-            }
-        }
+        cache.put(key, resource);
+        pending.put(key, resource);
+        enqueue(new Write(key, resource, null));
+    }
+
+    private void enqueue(Write write) {
+    	try {
+    		queue.put(write);
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new RuntimeException("interrupted while queueing mapdb write", e);
+    	}
     }
 
+    /**
+     * Wait for all the resources set so far to be committed, then upload the db.
+     */
     void commit() {
-        this.db.commit();
-        upload();
+    	flush();
+    	if (config != null)
+    		upload();
         logger.info("committed " + this.items.size() + ".");
     }
 
+    void flush() {
+    	CountDownLatch flushed = new CountDownLatch(1);
+    	Write write = new Write(null, null, flushed);
+    	enqueue(write);
+    	try {
+    		flushed.await();
+    	}
+    	catch (InterruptedException e) {
+    		Thread.currentThread().interrupt();
+    		throw new RuntimeException("interrupted while flushing mapdb", e);
+    	}
+    	if (write.error != null)
+    		throw new RuntimeException("error writing to mapdb " + dbName, write.error);
+    }
+
+    private void writeBehind() {
+    	List<Write> batch = Lists.newArrayListWithCapacity(maxBatchSize);
+    	// Writes of a batch that failed to commit, they go ahead of the next batch
+    	List<Write> retry = Lists.newArrayList();
+    	while (true) {
+    		try {
+    			batch.addAll(retry);
+    			retry.clear();
+    			batch.add(queue.take());
+    			queue.drainTo(batch, maxBatchSize - 1);
+
+    			List<CountDownLatch> flushes = Lists.newArrayList();
+    			for (Write write: batch) {
+    				if (write.flushed != null)
+    					flushes.add(write.flushed);
+    				else
+    					this.items.put(write.key, write.value);
+    			}
+    			this.db.commit();
+
+    			for (Write write: batch) {
+    				if (write.flushed == null)
+    					pending.remove(write.key, write.value);
+    			}
+    			for (CountDownLatch flushed: flushes)
+    				flushed.countDown();
+    		}
+    		catch (InterruptedException e) {
+    			break;
+    		}
+    		catch (Exception e) {
+    			logger.error("error writing to mapdb " + dbName, e);
+    			// Keep the writes to try again and report the failure to anyone waiting on a flush
+    			for (Write write: batch) {
+    				if (write.flushed == null) {
+    					retry.add(write);
+    				}
+    				else {
+    					write.error = e;
+    					write.flushed.countDown();
+    				}
+    			}
+    		}
+    		finally {
+    			batch.clear();
+    		}
+    	}
+    }
+
     void upload() {
         AmazonS3Client s3Client = AwsUtils.getAmazonS3Client();
 
@@ -0,0 +1,148 @@
+package com.netflix.ice.basic;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.tag.ResourceGroup;
+
+/**
+ * Maps raw resource tag values from the billing reports to interned ids and tuples of
+ * those ids to their ResourceGroup. Once a value or tuple has been seen, resolving
+ * it again is a lookup that allocates nothing.
+ *
+ * Id 0 is reserved for an empty or missing tag value.
+ *
+ * Lookups are lock-free so that report files can be processed on multiple threads,
+ * new values and tuples are added under the object lock.
+ */
+class ResourceTagResolver {
+	// Map of tag values to canonical name. All keys are lower case.
+	private final Map<String, String> tagValuesInverted;
+
+	// Raw values as they appear in the reports to the id of their canonical value
+	private final ConcurrentMap<String, Integer> rawIds = Maps.newConcurrentMap();
+	// Canonical values to their id, guarded by this
+	private final Map<String, Integer> canonicalIds = Maps.newHashMap();
+	private volatile String[] values = new String[64];
+	private int numValues = 1;
+
+	// Open addressed hash table of id tuples. Entries are immutable, so they can be
+	// read without locking. A reader that misses an entry being added falls through to the
+	// synchronized add which finds it.
+	private volatile Entry[] table = new Entry[256];
+	private int numEntries = 0;
+
+	private static class Entry {
+		final int[] ids;
+		final ResourceGroup resourceGroup;
+
+		Entry(int[] ids, ResourceGroup resourceGroup) {
+			this.ids = ids;
+			this.resourceGroup = resourceGroup;
+		}
+	}
+
+	ResourceTagResolver(Map<String, String> tagValuesInverted) {
+		this.tagValuesInverted = tagValuesInverted;
+	}
+
+	/**
+	 * Get the id for a raw tag value. Returns 0 if the value is empty.
+	 */
+	int getId(String raw) {
+		if (StringUtils.isEmpty(raw))
+			return 0;
+		Integer id = rawIds.get(raw);
+		return id == null ? addValue(raw) : id;
+	}
+
+	/**
+	 * Get the canonical value for an id. Returns null for id 0.
+	 */
+	String getValue(int id) {
+		return values[id];
+	}
+
+	private synchronized int addValue(String raw) {
+		Integer id = rawIds.get(raw);
+		if (id != null)
+			return id;
+
+		String canonical = tagValuesInverted.get(raw.toLowerCase());
+		if (canonical == null)
+			canonical = raw;
+
+		id = canonicalIds.get(canonical);
+		if (id == null) {
+			id = numValues++;
+			String[] v = values;
+			if (id >= v.length)
+				v = Arrays.copyOf(v, v.length * 2);
+			v[id] = canonical;
+			values = v;
+			canonicalIds.put(canonical, id);
+		}
+		rawIds.put(raw, id);
+		return id;
+	}
+
+	/**
+	 * Get the ResourceGroup for a tuple of value ids. The ids array is only read,
+	 * so callers can reuse it for each line item.
+	 */
+	ResourceGroup getResourceGroup(int[] ids) {
+		Entry[] t = table;
+		for (int i = hash(ids) & (t.length - 1); ; i = (i + 1) & (t.length - 1)) {
+			Entry e = t[i];
+			if (e == null)
+				return addResourceGroup(ids);
+			if (Arrays.equals(e.ids, ids))
+				return e.resourceGroup;
+		}
+	}
+
+	private synchronized ResourceGroup addResourceGroup(int[] ids) {
+		Entry[] t = table;
+		int i = hash(ids) & (t.length - 1);
+		for (; t[i] != null; i = (i + 1) & (t.length - 1)) {
+			if (Arrays.equals(t[i].ids, ids))
+				return t[i].resourceGroup;
+		}
+
+		String[] tags = new String[ids.length];
+		for (int j = 0; j < ids.length; j++)
+			tags[j] = values[ids[j]];
+		Entry entry = new Entry(ids.clone(), ResourceGroup.getResourceGroup(tags));
+
+		if (++numEntries * 2 > t.length) {
+			// Grow the table and publish the new one once it's complete
+			Entry[] grown = new Entry[t.length * 2];
+			for (Entry e: t) {
+				if (e != null)
+					insert(grown, e);
+			}
+			insert(grown, entry);
+			table = grown;
+		}
+		else {
+			t[i] = entry;
+		}
+		return entry.resourceGroup;
+	}
+
+	private static void insert(Entry[] t, Entry entry) {
+		int i = hash(entry.ids) & (t.length - 1);
+		while (t[i] != null)
+			i = (i + 1) & (t.length - 1);
+		t[i] = entry;
+	}
+
+	private static int hash(int[] ids) {
+		int h = Arrays.hashCode(ids);
+		return h ^ (h >>> 16);
+	}
+}
@@ -21,6 +21,7 @@ import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.reader.AggregateType;
 import com.netflix.ice.reader.DataManager;
 import com.netflix.ice.reader.ReadOnlyData;
+import com.netflix.ice.reader.TagFilter;
 import com.netflix.ice.reader.TagGroupManager;
 import com.netflix.ice.reader.TagLists;
 import com.netflix.ice.reader.UsageUnit;
@@ -31,8 +32,8 @@ public class TagCoverageDataManager extends DataFilePoller implements DataManage
     protected TagGroupManager tagGroupManager;
 
 	public TagCoverageDataManager(DateTime startDate, String dbName, ConsolidateType consolidateType, TagGroupManager tagGroupManager, boolean compress,
-			int monthlyCacheSize, AccountService accountService, ProductService productService) {
-		super(startDate, dbName, consolidateType, compress, monthlyCacheSize, accountService, productService);
+			DataCache dataCache, AccountService accountService, ProductService productService) {
+		super(startDate, dbName, consolidateType, compress, dataCache, accountService, productService);
 		this.tagGroupManager = tagGroupManager;
 	}
 
@@ -43,6 +44,8 @@ public class TagCoverageDataManager extends DataFilePoller implements DataManage
 
         int num = getSize(interval);
         double[] result = new double[num];
+        TagFilter filter = tagLists.getFilter();
+        preload(interval);
 
         do {
             ReadOnlyData data = getReadOnlyData(start);
@@ -74,7 +77,7 @@ public class TagCoverageDataManager extends DataFilePoller implements DataManage
             List<Integer> columnIndecies = Lists.newArrayList();
             int columnIndex = 0;
             for (TagGroup tagGroup: data.getTagGroups()) {
-                if (tagLists.contains(tagGroup)) {
+                if (filter.contains(tagGroup)) {
                 	columnIndecies.add(columnIndex);
                 }
                 columnIndex++;
@@ -0,0 +1,152 @@
+package com.netflix.ice.basic;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.TagFilter;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.reader.TagListsWithUserTags;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+import com.netflix.ice.tag.UserTag;
+
+/**
+ * Inverted index of the tag groups of one month. Each tag group is given an ordinal and, for each
+ * of the tag types, every tag value maps to the sorted ordinals of the tag groups that have it.
+ *
+ * The tag groups matching a TagLists are found by setting the ordinals for the listed values
+ * of each filtered tag type in a bitmap and intersecting the bitmaps. User tag lists are checked
+ * against the remaining tag groups only.
+ */
+class TagGroupIndex {
+	private static final TagType[] tagTypes = new TagType[]{
+		TagType.Account, TagType.Region, TagType.Zone, TagType.Product, TagType.Operation, TagType.UsageType, TagType.ResourceGroup,
+	};
+
+	private final TagGroup[] tagGroups;
+	private final Map<TagType, Map<Tag, int[]>> postings = new EnumMap<TagType, Map<Tag, int[]>>(TagType.class);
+
+	TagGroupIndex(Collection<TagGroup> tagGroups) {
+		this.tagGroups = tagGroups.toArray(new TagGroup[tagGroups.size()]);
+
+		for (TagType tagType: tagTypes) {
+			Map<Tag, Postings> building = Maps.newHashMap();
+			for (int i = 0; i < this.tagGroups.length; i++) {
+				Tag tag = getTag(this.tagGroups[i], tagType);
+				Postings p = building.get(tag);
+				if (p == null) {
+					p = new Postings();
+					building.put(tag, p);
+				}
+				p.add(i);
+			}
+			Map<Tag, int[]> map = Maps.newHashMapWithExpectedSize(building.size());
+			for (Entry<Tag, Postings> entry: building.entrySet())
+				map.put(entry.getKey(), entry.getValue().toArray());
+			postings.put(tagType, map);
+		}
+	}
+
+	private static class Postings {
+		int[] ordinals = new int[4];
+		int size = 0;
+
+		void add(int ordinal) {
+			if (size == ordinals.length)
+				ordinals = Arrays.copyOf(ordinals, size * 2);
+			ordinals[size++] = ordinal;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(ordinals, size);
+		}
+	}
+
+	static Tag getTag(TagGroup tagGroup, TagType tagType) {
+		switch (tagType) {
+		case Account:		return tagGroup.account;
+		case Region:		return tagGroup.region;
+		case Zone:			return tagGroup.zone;
+		case Product:		return tagGroup.product;
+		case Operation:		return tagGroup.operation;
+		case UsageType:		return tagGroup.usageType;
+		case ResourceGroup:	return tagGroup.resourceGroup;
+		default:			return null;
+		}
+	}
+
+	TagGroup get(int ordinal) {
+		return tagGroups[ordinal];
+	}
+
+	/**
+	 * Get all the values of a tag type, including null if any of the tag groups don't have the tag
+	 */
+	Collection<Tag> getTags(TagType tagType) {
+		return postings.get(tagType).keySet();
+	}
+
+	/**
+	 * Get the ordinals of the tag groups that TagLists.contains(TagGroup) would return true for.
+	 * Returns null if all the tag groups match.
+	 */
+	BitSet getMatches(TagLists tagLists) {
+		BitSet result = null;
+		result = intersect(result, TagType.Account, tagLists.accounts);
+		result = intersect(result, TagType.Region, tagLists.regions);
+		result = intersect(result, TagType.Zone, tagLists.zones);
+		result = intersect(result, TagType.Product, tagLists.products);
+		result = intersect(result, TagType.Operation, tagLists.operations);
+		result = intersect(result, TagType.UsageType, tagLists.usageTypes);
+		result = intersect(result, TagType.ResourceGroup, tagLists.resourceGroups);
+
+		if (tagLists instanceof TagListsWithUserTags && hasValues(((TagListsWithUserTags) tagLists).resourceUserTagLists)) {
+			// Check the user tags of the remaining tag groups
+			if (result == null) {
+				result = new BitSet(tagGroups.length);
+				result.set(0, tagGroups.length);
+			}
+			TagFilter filter = tagLists.getFilter();
+			for (int i = result.nextSetBit(0); i >= 0; i = result.nextSetBit(i + 1)) {
+				if (!filter.contains(tagGroups[i]))
+					result.clear(i);
+			}
+		}
+		return result;
+	}
+
+	private BitSet intersect(BitSet result, TagType tagType, List<? extends Tag> tags) {
+		if (tags == null || tags.size() == 0)
+			return result;
+
+		Map<Tag, int[]> map = postings.get(tagType);
+		BitSet matches = new BitSet(tagGroups.length);
+		for (Tag tag: tags) {
+			int[] ordinals = map.get(tag);
+			if (ordinals == null)
+				continue;
+			for (int ordinal: ordinals)
+				matches.set(ordinal);
+		}
+		if (result != null)
+			matches.and(result);
+		return matches;
+	}
+
+	private static boolean hasValues(List<List<UserTag>> lists) {
+		if (lists == null)
+			return false;
+		for (List<UserTag> list: lists) {
+			if (list != null && list.size() > 0)
+				return true;
+		}
+		return false;
+	}
+}
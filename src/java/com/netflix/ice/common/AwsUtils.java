@@ -359,6 +359,22 @@ public class AwsUtils {
             return false;
     }
 
+    /**
+     * Download the file to the staging file if it has changed since the local copy was downloaded.
+     * The local copy is left as is so that it can still be read while the new version downloads.
+     */
+    public static boolean downloadFileIfChanged(String bucketName, String bucketFilePrefix, File file, File staging) {
+        ObjectMetadata metadata = s3Client.getObjectMetadata(bucketName, bucketFilePrefix + file.getName());
+        boolean download = !file.exists() || metadata.getLastModified().getTime() > file.lastModified();
+        logger.info("downloadFileIfChanged " + file + " " + metadata.getLastModified().getTime() + " " + file.lastModified());
+
+        if (download) {
+            return download(bucketName, bucketFilePrefix + file.getName(), staging);
+        }
+        else
+            return false;
+    }
+
     public static boolean downloadFileIfNotExist(String bucketName, String bucketFilePrefix, File file) {
         boolean download = !file.exists();
         if (download) {
@@ -0,0 +1,153 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.common;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+
+import com.amazonaws.services.s3.AmazonS3Client;
+import com.amazonaws.services.s3.model.AmazonS3Exception;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.google.common.collect.Maps;
+
+/**
+ * Files the processor has rewritten in the work bucket. Each processing run adds the files it wrote
+ * with their version, the last modified time in S3, so that readers only refresh the data that
+ * changed since the last run they saw. Runs older than the retention period are dropped, the
+ * manifest covers all the runs since getSince().
+ */
+public class ChangeManifest {
+    public static final String FILE_NAME = "change_manifest";
+
+    private long since;
+    private long lastRun;
+    private final Map<String, Entry> files = Maps.newTreeMap();
+
+    public static class Entry {
+        public final long version;
+        public final long run;
+
+        Entry(long version, long run) {
+            this.version = version;
+            this.run = run;
+        }
+    }
+
+    /**
+     * @param since time of the first run covered by the manifest
+     */
+    public ChangeManifest(long since) {
+        this.since = since;
+        this.lastRun = since;
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    public long getLastRun() {
+        return lastRun;
+    }
+
+    public void add(String fileName, long version, long run) {
+        files.put(fileName, new Entry(version, run));
+        lastRun = Math.max(lastRun, run);
+    }
+
+    /**
+     * Drop the files of the runs before the given time
+     */
+    public void prune(long before) {
+        if (before <= since)
+            return;
+        for (String fileName: Maps.newHashMap(files).keySet()) {
+            if (files.get(fileName).run < before)
+                files.remove(fileName);
+        }
+        since = before;
+    }
+
+    /**
+     * Get the versions of the files written by the runs after the given one
+     */
+    public Map<String, Long> getChangesSince(long run) {
+        Map<String, Long> changes = Maps.newHashMap();
+        for (Map.Entry<String, Entry> entry: files.entrySet()) {
+            if (entry.getValue().run > run)
+                changes.put(entry.getKey(), entry.getValue().version);
+        }
+        return changes;
+    }
+
+    public void write(Writer out) throws IOException {
+        out.write("since\t" + since + "\n");
+        for (Map.Entry<String, Entry> entry: files.entrySet())
+            out.write(entry.getValue().run + "\t" + entry.getValue().version + "\t" + entry.getKey() + "\n");
+    }
+
+    public static ChangeManifest read(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null || !line.startsWith("since\t"))
+            throw new IOException("bad change manifest header: " + line);
+        ChangeManifest manifest = new ChangeManifest(Long.parseLong(line.substring("since\t".length())));
+        while ((line = in.readLine()) != null) {
+            if (line.isEmpty())
+                continue;
+            String[] fields = line.split("\t", 3);
+            manifest.add(fields[2], Long.parseLong(fields[1]), Long.parseLong(fields[0]));
+        }
+        return manifest;
+    }
+
+    /**
+     * Read the manifest from the work bucket. Returns null if the processor hasn't written one yet.
+     */
+    public static ChangeManifest download(String bucketName, String prefix) throws IOException {
+        AmazonS3Client s3Client = AwsUtils.getAmazonS3Client();
+        InputStream in = null;
+        try {
+            in = s3Client.getObject(bucketName, prefix + FILE_NAME).getObjectContent();
+            return read(new BufferedReader(new InputStreamReader(in, "UTF-8")));
+        }
+        catch (AmazonS3Exception e) {
+            if (e.getStatusCode() == 404)
+                return null;
+            throw e;
+        }
+        finally {
+            if (in != null)
+                try {in.close();} catch (Exception e){}
+        }
+    }
+
+    public void upload(String bucketName, String prefix) throws IOException {
+        StringWriter out = new StringWriter();
+        write(out);
+        byte[] bytes = out.toString().getBytes("UTF-8");
+        ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentLength(bytes.length);
+
+        AwsUtils.getAmazonS3Client().putObject(bucketName, prefix + FILE_NAME, new ByteArrayInputStream(bytes), metadata);
+    }
+}
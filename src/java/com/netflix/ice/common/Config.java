@@ -17,6 +17,7 @@
  */
 package com.netflix.ice.common;
 
+import java.util.List;
 import java.util.Properties;
 
 import com.amazonaws.auth.AWSCredentialsProvider;
@@ -41,6 +42,7 @@ public abstract class Config {
     public final DateTime startDate;
     public final AWSCredentialsProvider credentialsProvider;
     public final boolean familyRiBreakout;
+    public final List<Cube> cubes;
 
     /**
      *
@@ -71,6 +73,9 @@ public abstract class Config {
         
         // whether to separate out the family RI usage into its own operation category
         familyRiBreakout = properties.getProperty(IceOptions.FAMILY_RI_BREAKOUT) == null ? false : Boolean.parseBoolean(properties.getProperty(IceOptions.FAMILY_RI_BREAKOUT));
+        
+        // pre-aggregated cubes written by the processor and used by the reader
+        cubes = Cube.parse(properties.getProperty(IceOptions.CUBES));
 
         if (workS3BucketName == null) throw new IllegalArgumentException("IceOptions.WORK_S3_BUCKET_NAME must be specified");
         if (workS3BucketRegion == null) throw new IllegalArgumentException("IceOptions.WORK_S3_BUCKET_REGION must be specified");
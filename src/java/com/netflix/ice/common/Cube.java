@@ -0,0 +1,154 @@
+package com.netflix.ice.common;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.TagType;
+
+/*
+ * Cube describes a pre-aggregated copy of the summary data that only keeps a few of the
+ * tag dimensions, for example account and product. The processor sums the values of all the
+ * tag groups that share the same tags for the cube's dimensions into a single column so that
+ * the reader can answer queries that only filter and group by those dimensions from a much
+ * smaller file.
+ *
+ * Cubes are configured with a comma separated list of dimension combinations joined by '+',
+ * e.g. "Account+Product+Operation,Region+Product+Operation". Every cube must keep the Operation
+ * dimension because grouped queries leave out the lent and savings operations.
+ */
+public class Cube {
+	private static final Set<TagType> supportedDimensions = EnumSet.of(TagType.Account, TagType.Region, TagType.Product, TagType.Operation);
+
+	private final Set<TagType> dimensions;
+	private final String name;
+
+	public Cube(Collection<TagType> dimensions) {
+		if (dimensions.size() == 0)
+			throw new IllegalArgumentException("cube must have at least one dimension");
+		this.dimensions = EnumSet.copyOf(dimensions);
+		for (TagType tagType: this.dimensions) {
+			if (!supportedDimensions.contains(tagType))
+				throw new IllegalArgumentException("unsupported cube dimension: " + tagType);
+		}
+		if (!this.dimensions.contains(TagType.Operation))
+			throw new IllegalArgumentException("cube must have the Operation dimension: " + this.dimensions);
+		List<String> names = Lists.newArrayList();
+		for (TagType tagType: this.dimensions)
+			names.add(tagType.name().toLowerCase());
+		this.name = StringUtils.join(names, "_");
+	}
+
+	public static List<Cube> parse(String spec) {
+		List<Cube> cubes = Lists.newArrayList();
+		if (StringUtils.isBlank(spec))
+			return cubes;
+
+		for (String combination: spec.split(",")) {
+			if (StringUtils.isBlank(combination))
+				continue;
+			List<TagType> dimensions = Lists.newArrayList();
+			for (String dimension: combination.split("\\+"))
+				dimensions.add(TagType.valueOf(dimension.trim()));
+			cubes.add(new Cube(dimensions));
+		}
+		return cubes;
+	}
+
+	public Set<TagType> getDimensions() {
+		return Collections.unmodifiableSet(dimensions);
+	}
+
+	public boolean contains(TagType tagType) {
+		return dimensions.contains(tagType);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the name of the cube's data file for the summary data file dbName, e.g. cost_monthly_all
+	 */
+	public String getDbName(String dbName) {
+		return dbName + "_cube_" + name;
+	}
+
+	/**
+	 * Get the cube column key for a tag group. Only the tags of the cube's dimensions are kept.
+	 */
+	public TagGroup getKey(TagGroup tagGroup) {
+		return new Key(
+				contains(TagType.Account) ? tagGroup.account : null,
+				contains(TagType.Region) ? tagGroup.region : null,
+				contains(TagType.Product) ? tagGroup.product : null,
+				contains(TagType.Operation) ? tagGroup.operation : null);
+	}
+
+	public void serialize(DataOutput out, TagGroup key) throws IOException {
+		if (contains(TagType.Account))
+			out.writeUTF(key.account.toString());
+		if (contains(TagType.Region))
+			out.writeUTF(key.region.toString());
+		if (contains(TagType.Product))
+			out.writeUTF(key.product.getCanonicalName());
+		if (contains(TagType.Operation))
+			out.writeUTF(key.operation.toString());
+	}
+
+	public TagGroup deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException {
+		Account account = contains(TagType.Account) ? accountService.getAccountByName(in.readUTF()) : null;
+		Region region = contains(TagType.Region) ? Region.getRegionByName(in.readUTF()) : null;
+		Product product = contains(TagType.Product) ? productService.getProductByName(in.readUTF()) : null;
+		Operation operation = contains(TagType.Operation) ? Operation.getOperation(in.readUTF()) : null;
+		return new Key(account, region, product, operation);
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	/*
+	 * Key is a tag group with only the tags of the cube's dimensions set. The other tags are null.
+	 * Keys aren't interned and can't be compared or serialized as regular tag groups.
+	 */
+	private static class Key extends TagGroup {
+		private static final long serialVersionUID = 1L;
+
+		private Key(Account account, Region region, Product product, Operation operation) {
+			super(account, region, null, product, operation, null, null);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o)
+				return true;
+			if (!(o instanceof Key))
+				return false;
+			Key other = (Key) o;
+			return Objects.equal(account, other.account) &&
+					Objects.equal(region, other.region) &&
+					Objects.equal(product, other.product) &&
+					Objects.equal(operation, other.operation);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(account, region, product, operation);
+		}
+	}
+}
@@ -123,7 +123,8 @@ public class IceOptions {
     public static final String LOCAL_DIR = "ice.localDir";
 
     /**
-     * Monthly data cache size for reader. Default is 12.
+     * Number of recent months of data the reader loads at startup, and of months of tag groups each tag group
+     * manager keeps indexed. Default is 12.
      */
     public static final String MONTHLY_CACHE_SIZE = "ice.monthlycachesize";
 
@@ -221,4 +222,49 @@ public class IceOptions {
      * write JSON data files for ingest into services such as ElasticSearch
      */
     public static final String WRITE_JSON_FILES = "ice.writeJsonFiles";
+
+    /**
+     * Memory budget in MB for imported price lists held by the processor. Default is 512.
+     */
+    public static final String PRICE_LIST_CACHE_SIZE_MB = "ice.priceListCacheSizeMB";
+
+    /**
+     * Maximum number of distinct values of each custom tag kept per product and month. The values with the
+     * lowest cost beyond the limit are folded into "(other)". Default is 0, which keeps all values.
+     */
+    public static final String RESOURCE_GROUP_CARDINALITY_LIMIT = "ice.resourceGroupCardinalityLimit";
+
+    /**
+     * Memory budget in MB for the data files loaded by the reader, shared by all products and consolidation types. Default is 2048.
+     */
+    public static final String DATA_CACHE_SIZE_MB = "ice.dataCacheSizeMB";
+
+    /**
+     * Memory budget in MB for dashboard query results cached by the reader. Default is 64, 0 disables the cache.
+     */
+    public static final String QUERY_CACHE_SIZE_MB = "ice.queryCacheSizeMB";
+
+    /**
+     * Dimension combinations of the pre-aggregated cubes written by the processor for the daily and monthly data
+     * and used by the reader to answer queries that only filter and group by those dimensions, e.g.
+     * "Account+Product+Operation,Region+Product+Operation". Supported dimensions are Account, Region, Product and Operation.
+     * Every cube must have the Operation dimension. Default is none.
+     */
+    public static final String CUBES = "ice.cubes";
+
+    /**
+     * Number of threads shared by the reader to run the per-product and per-tag parts of dashboard queries
+     * concurrently. Default is 8, 0 runs them on the request thread.
+     */
+    public static final String QUERY_THREADS = "ice.queryThreads";
+
+    /**
+     * Number of threads shared by the reader's data managers to check for and load new data. Default is 4.
+     */
+    public static final String POLL_THREADS = "ice.pollThreads";
+
+    /**
+     * Number of threads used by the reader to load the recent data at startup. Default is 4.
+     */
+    public static final String WARM_UP_THREADS = "ice.warmUpThreads";
 }
@@ -71,6 +71,8 @@ public abstract class ResourceService {
 
     /**
      * Commit resource mappings. This method will be called at the end of billing file processing to commit your mappings.
+     * It's a flush barrier: implementations that write mappings asynchronously must not return until everything
+     * set before the call has been persisted.
      */
     abstract public void commit();
     
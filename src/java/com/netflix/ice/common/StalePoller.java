@@ -1,8 +1,31 @@
 package com.netflix.ice.common;
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Poller that reloads its data after it's been marked stale. There can be thousands of them in the
+ * reader, so instead of a thread each they're all run on a small shared scheduler. The number of
+ * scheduler threads bounds how many of them download and load data at the same time.
+ */
 public abstract class StalePoller extends Poller {
-    private boolean stale = true;
-    public final int DefaultStalePollInvervalSecs = 5 * 60;
+    private volatile boolean stale = true;
+    public static final int DefaultStalePollInvervalSecs = 5 * 60;
+    public static final int DefaultPollThreads = 4;
+
+    private static final ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(DefaultPollThreads,
+    		new ThreadFactoryBuilder().setNameFormat("StalePoller-%d").setDaemon(true).build());
+    private ScheduledFuture<?> future;
+
+    /**
+     * Set the number of threads shared by all the stale pollers
+     */
+    public static void setPollThreads(int numThreads) {
+    	scheduler.setCorePoolSize(Math.max(1, numThreads));
+    }
 
     public void stale() {
     	stale = true;
@@ -14,15 +37,45 @@ public abstract class StalePoller extends Poller {
         start(DefaultStalePollInvervalSecs);
     }
 
+	@Override
+    public synchronized void start(int initialDelaySec, int delaySec, boolean fixedRate) {
+		if (future != null)
+			return;
+		Runnable task = new Runnable() {
+			public void run() {
+				try {
+					poll();
+				}
+				catch (Exception e) {
+					// Keep the poller scheduled
+					logger.error("Error polling " + getThreadName(), e);
+				}
+			}
+		};
+		future = fixedRate ?
+				scheduler.scheduleAtFixedRate(task, initialDelaySec, delaySec, TimeUnit.SECONDS) :
+				scheduler.scheduleWithFixedDelay(task, initialDelaySec, delaySec, TimeUnit.SECONDS);
+        logger.info("poller for " + getThreadName() + " scheduled...");
+	}
+
+	@Override
+	public synchronized void shutdown() {
+		if (future == null)
+			return;
+		logger.info("shutting down poller for " + getThreadName() + "...");
+		future.cancel(true);
+		future = null;
+	}
+
 	@Override
 	protected void poll() throws Exception {
     	if (!stale)
     		return;
-    	stale = stalePoll();    	
+    	stale = stalePoll();
 	}
 
 	/**
-	 * 
+	 *
 	 * @return Return true if data is no longer stale
 	 * @throws Exception
 	 */
@@ -17,6 +17,8 @@
  */
 package com.netflix.ice.common;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.tag.*;
@@ -30,12 +32,13 @@ import org.slf4j.LoggerFactory;
 
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 
 public class TagGroup implements Comparable<TagGroup>, Serializable {
@@ -142,7 +145,8 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
         return result;
     }
 
-    private static Map<TagGroup, TagGroup> tagGroups = Maps.newConcurrentMap();
+    // Weakly held so that tag groups no longer referenced by any month's data can be collected
+    private static final Interner<TagGroup> tagGroups = Interners.newWeakInterner();
 
     public static TagGroup getTagGroup(String account, String region, String zone, String product, String operation, String usageTypeName, String usageTypeUnit, String resourceGroup, AccountService accountService, ProductService productService) {
         return getTagGroup(
@@ -156,15 +160,7 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
     }
     
     public static TagGroup getTagGroup(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup) {
-        TagGroup newOne = new TagGroup(account, region, zone, product, operation, usageType, resourceGroup);
-        TagGroup oldOne = tagGroups.get(newOne);
-        if (oldOne != null) {
-            return oldOne;
-        }
-        else {
-            tagGroups.put(newOne, newOne);
-            return newOne;
-        }
+        return tagGroups.intern(new TagGroup(account, region, zone, product, operation, usageType, resourceGroup));
     }
 
     public static class Serializer {
@@ -226,6 +222,40 @@ public class TagGroup implements Comparable<TagGroup>, Serializable {
             return result;
         }
 
+        /**
+         * Deserialize the tag groups of the given months only. The tag groups of the other months are skipped over
+         * without creating their tags.
+         */
+        public static TreeMap<Long, Collection<TagGroup>> deserializeTagGroups(AccountService accountService, ProductService productService, DataInput in, Set<Long> monthMillis) throws IOException {
+            int numCollections = in.readInt();
+            TreeMap<Long, Collection<TagGroup>> result = Maps.newTreeMap();
+            for (int i = 0; i < numCollections && result.size() < monthMillis.size(); i++) {
+                long monthMilli = in.readLong();
+                int numKeys = in.readInt();
+                if (!monthMillis.contains(monthMilli)) {
+                    for (int j = 0; j < numKeys; j++)
+                        skip(in);
+                    continue;
+                }
+                List<TagGroup> keys = Lists.newArrayListWithCapacity(numKeys);
+                for (int j = 0; j < numKeys; j++) {
+                    keys.add(deserialize(accountService, productService, in));
+                }
+                result.put(monthMilli, keys);
+            }
+
+            return result;
+        }
+
+        private static void skip(DataInput in) throws IOException {
+            // account, region, zone, product, operation, usage type name and unit, resource group
+            for (int i = 0; i < 8; i++) {
+                int length = in.readUnsignedShort();
+                if (in.skipBytes(length) != length)
+                    throw new EOFException();
+            }
+        }
+
         public static TagGroup deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException {
             Account account = accountService.getAccountByName(in.readUTF());
             Region region = Region.getRegionByName(in.readUTF());
@@ -1,8 +1,7 @@
 package com.netflix.ice.common;
 
-import java.util.Map;
-
-import com.google.common.collect.Maps;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.netflix.ice.tag.Account;
 import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Product;
@@ -68,18 +67,10 @@ public class TagGroupRI extends TagGroup {
         return result;
     }
     
-    private static Map<TagGroupRI, TagGroupRI> tagGroups = Maps.newConcurrentMap();
+    private static final Interner<TagGroupRI> tagGroups = Interners.newWeakInterner();
 
     public static TagGroupRI getTagGroup(Account account, Region region, Zone zone, Product product, Operation operation, UsageType usageType, ResourceGroup resourceGroup, String reservationId) {
-        TagGroupRI newOne = new TagGroupRI(account, region, zone, product, operation, usageType, resourceGroup, reservationId);
-        TagGroupRI oldOne = tagGroups.get(newOne);
-        if (oldOne != null) {
-            return oldOne;
-        }
-        else {
-            tagGroups.put(newOne, newOne);
-            return newOne;
-        }
+        return tagGroups.intern(new TagGroupRI(account, region, zone, product, operation, usageType, resourceGroup, reservationId));
     }
 
 }
@@ -22,6 +22,7 @@ import com.amazonaws.services.ec2.AmazonEC2ClientBuilder;
 import com.amazonaws.services.ec2.model.StopInstancesRequest;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.S3ObjectSummary;
 import com.amazonaws.services.simpleemail.AmazonSimpleEmailServiceClient;
 import com.amazonaws.services.simpleemail.model.*;
 import com.google.common.collect.Lists;
@@ -29,8 +30,6 @@ import com.google.common.collect.Maps;
 import com.netflix.ice.common.*;
 import com.netflix.ice.processor.pricelist.InstancePrices;
 import com.netflix.ice.processor.pricelist.InstancePrices.ServiceCode;
-import com.netflix.ice.tag.Operation;
-import com.netflix.ice.tag.Operation.ReservationOperation;
 import com.netflix.ice.tag.Product;
 
 import org.apache.commons.io.IOUtils;
@@ -49,6 +48,9 @@ import java.util.*;
  */
 public class BillingFileProcessor extends Poller {
     protected static Logger staticLogger = LoggerFactory.getLogger(BillingFileProcessor.class);
+    // Readers that haven't seen a run for longer than this refresh all their data
+    private static final long changeRetentionMillis = 7 * 24 * 3600 * 1000L;
+    private static final long clockSkewMillis = 5 * 60 * 1000L;
 
     private ProcessorConfig config;
     private boolean compress;
@@ -87,6 +89,8 @@ public class BillingFileProcessor extends Poller {
     protected void poll() throws Exception {
         TreeMap<DateTime, List<MonthlyReport>> reportsToProcess = dbrProcessor.getReportsToProcess();
         reportsToProcess.putAll(cauProcessor.getReportsToProcess());
+        
+        prefetchPrices(reportsToProcess);
                 
         for (DateTime dataTime: reportsToProcess.keySet()) {
             startMilli = endMilli = dataTime.getMillis();
@@ -146,23 +150,30 @@ public class BillingFileProcessor extends Poller {
         	reservationProcessor.process(config.reservationService, costAndUsageData, config.productService.getProductByName(Product.redshift), dataTime);
             
             logger.info("adding savings data for " + dataTime + "...");
-            addSavingsData(dataTime, costAndUsageData.getUsage(null), costAndUsageData.getCost(null));
+            costAndUsageData.putSpotSavings();
 
             /***** Debugging */
 //            used = costMap.get(redshiftHeavyTagGroup);
 //            logger.info("First hour cost is " + used + " for " + redshiftHeavyTagGroup + " after reservation processing");
 
-            if (hasTags && config.resourceService != null)
+            if (hasTags && config.resourceService != null) {
+            	if (config.resourceGroupCardinalityLimit > 0)
+            		rollupResourceGroups(dataTime);
                 config.resourceService.commit();
+            }
 
             logger.info("archiving results for " + dataTime + "...");
-            costAndUsageData.archive(startMilli, config.startDate, compress, config.writeJsonFiles);
+            long archiveMillis = System.currentTimeMillis();
+            costAndUsageData.archive(startMilli, config.startDate, compress, config.writeJsonFiles, config.cubes);
             
             logger.info("archiving instance data...");
             archiveInstances();
             
             logger.info("done archiving " + dataTime);
 
+            // Readers look for the changes when the process time moves, so publish them first
+            publishChanges(archiveMillis, processTime);
+
             updateProcessTime(AwsUtils.monthDateFormat.print(dataTime), processTime);
             if (dataTime.equals(reportsToProcess.lastKey())) {
                 sendOndemandCostAlert();
@@ -191,35 +202,74 @@ public class BillingFileProcessor extends Poller {
         }
     }
     
-    private void addSavingsData(DateTime month, ReadWriteData usageData, ReadWriteData costData) throws Exception {
-        // Get price list
-    	InstancePrices ec2Prices = config.priceListService.getPrices(month, ServiceCode.AmazonEC2);
+    /**
+     * Start loading the price lists for all the months with new reports in the background
+     * so that each month doesn't stall waiting on them when we get to it.
+     */
+    private void prefetchPrices(TreeMap<DateTime, List<MonthlyReport>> reportsToProcess) {
+        List<DateTime> months = Lists.newArrayList();
+        for (DateTime dataTime: reportsToProcess.keySet()) {
+            long lastProcessed = lastProcessTime(AwsUtils.monthDateFormat.print(dataTime));
+            for (MonthlyReport report: reportsToProcess.get(dataTime)) {
+                if (report.getLastModifiedMillis() >= lastProcessed) {
+                    months.add(dataTime);
+                    break;
+                }
+            }
+        }
+        if (months.isEmpty())
+        	return;
+        
+        List<ServiceCode> serviceCodes = Lists.newArrayList(ServiceCode.AmazonEC2);
+        if (config.reservationService.hasRdsReservations())
+        	serviceCodes.add(ServiceCode.AmazonRDS);
+        if (config.reservationService.hasRedshiftReservations())
+        	serviceCodes.add(ServiceCode.AmazonRedshift);
         
-    	/*
-    	 * Run through all the spot instance usage and add savings data
-    	 */
-    	for (TagGroup tg: usageData.getTagGroups()) {
-    		if (tg.operation == ReservationOperation.spotInstances) {
-    			TagGroup savingsTag = TagGroup.getTagGroup(tg.account, tg.region, tg.zone, tg.product, ReservationOperation.spotInstanceSavings, tg.usageType, tg.resourceGroup);
-    			for (int i = 0; i < usageData.getNum(); i++) {
-    				// For each hour of usage...
-    				Double usage = usageData.getData(i).get(tg);
-    				Double cost = costData.getData(i).get(tg);
-    				if (usage != null && cost != null) {
-    					double onDemandRate = ec2Prices.getOnDemandRate(tg.region, tg.usageType);
-    					costData.getData(i).put(savingsTag, onDemandRate * usage - cost);
-    				}
-    			}
-    		}
-    	}
+        config.priceListService.prefetch(months, serviceCodes);
     }
     
-
     void init() {
     	costAndUsageData = new CostAndUsageData(config.resourceService == null ? null : config.resourceService.getUserTags());
         instances = new Instances(config.localDir, config.workS3BucketName, config.workS3BucketPrefix);
     }
 
+    private void rollupResourceGroups(DateTime dataTime) throws IOException {
+        logger.info("rolling up resource groups for " + dataTime + "...");
+        ResourceGroupRollup rollup = new ResourceGroupRollup(config.resourceService.getUserTags(), config.resourceGroupCardinalityLimit);
+        costAndUsageData.rollupResourceGroups(rollup);
+        if (rollup.getFolded().size() > 0) {
+            File file = new File(config.localDir, "resource_rollup_" + AwsUtils.monthDateFormat.print(dataTime) + ".csv");
+            rollup.writeReport(file);
+            AwsUtils.upload(config.workS3BucketName, config.workS3BucketPrefix, file);
+            logger.info("folded " + rollup.getFolded().size() + " tag values, see " + file.getName());
+        }
+    }
+
+    /**
+     * Add the files written to the work bucket since archiving started to the change manifest
+     * so that the readers only refresh those.
+     */
+    private void publishChanges(long archiveMillis, long processTime) throws IOException {
+        ChangeManifest manifest = ChangeManifest.download(config.workS3BucketName, config.workS3BucketPrefix);
+        if (manifest == null)
+            manifest = new ChangeManifest(processTime);
+        manifest.prune(processTime - changeRetentionMillis);
+
+        int numChanges = 0;
+        for (S3ObjectSummary objectSummary: AwsUtils.listAllObjects(config.workS3BucketName, config.workS3BucketPrefix)) {
+            String name = objectSummary.getKey().substring(config.workS3BucketPrefix.length());
+            long version = objectSummary.getLastModified().getTime();
+            // Allow for the clock of S3 being behind ours, listing a file that didn't change only costs a check
+            if (version < archiveMillis - clockSkewMillis || name.equals(ChangeManifest.FILE_NAME) || name.contains("/"))
+                continue;
+            manifest.add(name, version, processTime);
+            numChanges++;
+        }
+        manifest.upload(config.workS3BucketName, config.workS3BucketPrefix);
+        logger.info("published " + numChanges + " changed files");
+    }
+
     private void archiveInstances() throws Exception {
         instances.archive(startMilli); 	
     }
@@ -227,10 +277,9 @@ public class BillingFileProcessor extends Poller {
 
     private Map<Long, Map<InstancePrices.Key, Double>> getOndemandCosts(long fromMillis) {
         Map<Long, Map<InstancePrices.Key, Double>> ondemandCostsByHour = Maps.newHashMap();
-        ReadWriteData costs = costAndUsageData.getCost(null);
+        HourlyTotals<InstancePrices.Key> totals = costAndUsageData.getOndemandCosts();
 
-        Collection<TagGroup> tagGroups = costs.getTagGroups();
-        for (int i = 0; i < costs.getNum(); i++) {
+        for (int i = 0; i < totals.getNum(); i++) {
             Long millis = startMilli + i * AwsUtils.hourMillis;
             if (millis < fromMillis)
                 continue;
@@ -238,16 +287,10 @@ public class BillingFileProcessor extends Poller {
             Map<InstancePrices.Key, Double> ondemandCosts = Maps.newHashMap();
             ondemandCostsByHour.put(millis, ondemandCosts);
 
-            Map<TagGroup, Double> data = costs.getData(i);
-            for (TagGroup tagGroup : tagGroups) {
-                if (tagGroup.product.isEc2Instance() && tagGroup.operation == Operation.ondemandInstances &&
-                    data.get(tagGroup) != null) {
-                	InstancePrices.Key key = new InstancePrices.Key(tagGroup.region, tagGroup.usageType);
-                    if (ondemandCosts.get(key) != null)
-                        ondemandCosts.put(key, data.get(tagGroup) + ondemandCosts.get(key));
-                    else
-                        ondemandCosts.put(key, data.get(tagGroup));
-                }
+            for (InstancePrices.Key key: totals.keySet()) {
+                double cost = totals.get(key)[i];
+                if (!Double.isNaN(cost))
+                    ondemandCosts.put(key, cost);
             }
         }
 
@@ -15,9 +15,10 @@ import org.slf4j.LoggerFactory;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.AwsUtils;
-import com.netflix.ice.common.TagCoverageRatio;
+import com.netflix.ice.common.Cube;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.processor.ProcessorConfig.JsonFiles;
+import com.netflix.ice.processor.pricelist.InstancePrices;
 import com.netflix.ice.tag.Product;
 
 public class CostAndUsageData {
@@ -25,13 +26,18 @@ public class CostAndUsageData {
 
     private Map<Product, ReadWriteData> usageDataByProduct;
     private Map<Product, ReadWriteData> costDataByProduct;
-    private Map<String, ReadWriteData> tagCoverage;
+    private TagCoverageData tagCoverage;
     private List<String> userTags;
+    // Accumulated as line items are added so we don't need to rescan the data afterwards
+    private HourlyTotals<TagGroup> spotSavings; // Keyed by spot savings tag group
+    private HourlyTotals<InstancePrices.Key> ondemandCosts; // EC2 on-demand instance costs
 
 	public CostAndUsageData(List<String> userTags) {
 		usageDataByProduct = Maps.newHashMap();
 		costDataByProduct = Maps.newHashMap();
-		tagCoverage = Maps.newHashMap();
+		tagCoverage = userTags == null ? null : new TagCoverageData(userTags);
+		spotSavings = new HourlyTotals<TagGroup>();
+		ondemandCosts = new HourlyTotals<InstancePrices.Key>();
         usageDataByProduct.put(null, new ReadWriteData());
         costDataByProduct.put(null, new ReadWriteData());
         this.userTags = userTags;
@@ -74,15 +80,13 @@ public class CostAndUsageData {
 				cost.putAll(entry.getValue());
 			}
 		}
-		for (Entry<String, ReadWriteData> entry: data.tagCoverage.entrySet()) {
-			ReadWriteData coverage = getCoverage(entry.getKey());
-			if (coverage == null) {
-				tagCoverage.put(entry.getKey(), entry.getValue());
-			}
-			else {
-				coverage.putAll(entry.getValue());
-			}
+		if (data.tagCoverage != null) {
+			if (tagCoverage == null)
+				tagCoverage = new TagCoverageData(data.tagCoverage.getUserTags());
+			tagCoverage.putAll(data.tagCoverage);
 		}
+		spotSavings.putAll(data.spotSavings);
+		ondemandCosts.putAll(data.ondemandCosts);
 	}
 	
     public void cutData(int hours) {
@@ -92,26 +96,80 @@ public class CostAndUsageData {
         for (ReadWriteData data: costDataByProduct.values()) {
             data.cutData(hours);
         }
+        if (tagCoverage != null)
+        	tagCoverage.cut(hours);
+        spotSavings.cut(hours);
+        ondemandCosts.cut(hours);
+    }
+    
+    /**
+     * Add the savings of a spot instance line item over its on-demand price for the given hour
+     */
+    public void addSpotSavings(TagGroup savingsTagGroup, int index, double savings) {
+    	spotSavings.add(savingsTagGroup, index, savings);
     }
     
+    /**
+     * Write the accumulated spot savings into the aggregated cost data
+     */
+    public void putSpotSavings() {
+    	ReadWriteData costData = getCost(null);
+    	for (TagGroup tg: spotSavings.keySet()) {
+    		double[] savings = spotSavings.get(tg);
+    		for (int i = 0; i < spotSavings.getNum(); i++) {
+    			if (!Double.isNaN(savings[i]))
+    				costData.getData(i).put(tg, savings[i]);
+    		}
+    	}
+    }
+    
+    /**
+     * Add the cost of an EC2 on-demand instance line item for the given hour
+     */
+    public void addOndemandCost(InstancePrices.Key key, int index, double cost) {
+    	ondemandCosts.add(key, index, cost);
+    }
+    
+    public HourlyTotals<InstancePrices.Key> getOndemandCosts() {
+    	return ondemandCosts;
+    }
+    
+    /**
+     * Get the tag coverage statistics for a user tag encoded as TagCoverageRatio values.
+     * Returns null if there are no statistics for the tag.
+     */
     public ReadWriteData getCoverage(String tag) {
-    	return tagCoverage.get(tag);
+    	if (tagCoverage == null || tagCoverage.getNum() == 0)
+    		return null;
+    	int tagIndex = tagCoverage.getUserTags().indexOf(tag);
+    	return tagIndex < 0 ? null : tagCoverage.getData(tagIndex);
     }
     
     /**
      * Add an entry to the tag coverage statistics for the given TagGroup
+     * 
+     * @param hasTag for each of the user tags, whether the line item has a value for it
      */
-    public void addTagCoverage(String tag, int index, TagGroup tagGroup, boolean hasTag) {
-    	ReadWriteData coverage = getCoverage(tag);
-    	if (coverage == null) {
-    		coverage = new ReadWriteData();
-    		tagCoverage.put(tag, coverage);
+    public void addTagCoverage(int index, TagGroup tagGroup, boolean[] hasTag) {
+    	// Nothing to collect without user tags
+    	if (tagCoverage == null)
+    		return;
+    	tagCoverage.add(index, tagGroup, hasTag);
+    }
+
+    /**
+     * Fold the long tail of user tag values in the resource based data of each product
+     */
+    public void rollupResourceGroups(ResourceGroupRollup rollup) {
+    	for (Product product: costDataByProduct.keySet()) {
+    		if (product == null)
+    			continue;
+    		ReadWriteData usage = usageDataByProduct.get(product);
+    		rollup.rollup(product, costDataByProduct.get(product), usage == null ? new ReadWriteData() : usage);
     	}
-    	Map<TagGroup, Double> hourData = coverage.getData(index);
-    	hourData.put(tagGroup, TagCoverageRatio.add(hourData.get(tagGroup), hasTag));
     }
 
-    public void archive(long startMilli, DateTime startDate, boolean compress, JsonFiles writeJsonFiles) throws Exception {
+    public void archive(long startMilli, DateTime startDate, boolean compress, JsonFiles writeJsonFiles, List<Cube> cubes) throws Exception {
 
         logger.info("archiving tag data...");
 
@@ -122,8 +180,8 @@ public class CostAndUsageData {
 
         logger.info("archiving summary data...");
 
-        archiveSummary(startMilli, startDate, usageDataByProduct, "usage_", compress);
-        archiveSummary(startMilli, startDate, costDataByProduct, "cost_", compress);
+        archiveSummary(startMilli, startDate, usageDataByProduct, "usage_", compress, cubes);
+        archiveSummary(startMilli, startDate, costDataByProduct, "cost_", compress, cubes);
 
         logger.info("archiving hourly data...");
 
@@ -155,10 +213,13 @@ public class CostAndUsageData {
     }
 
     private void archiveHourlyTagCoverage(long startMilli, boolean compress) throws Exception {
-    	logger.info("archiving tag coverage data... " + tagCoverage.size());
+    	if (tagCoverage == null || tagCoverage.getNum() == 0)
+    		return;
+    	List<String> tags = tagCoverage.getUserTags();
+    	logger.info("archiving tag coverage data... " + tags.size());
         DateTime monthDateTime = new DateTime(startMilli, DateTimeZone.UTC);
-        for (String tag: tagCoverage.keySet()) {
-            DataWriter writer = new DataWriter("coverage_hourly_" + tag + "_" + AwsUtils.monthDateFormat.print(monthDateTime), tagCoverage.get(tag), compress);
+        for (int i = 0; i < tags.size(); i++) {
+            DataWriter writer = new DataWriter("coverage_hourly_" + tags.get(i) + "_" + AwsUtils.monthDateFormat.print(monthDateTime), tagCoverage.getData(i), compress);
             writer.archive();
         }
     }
@@ -170,7 +231,7 @@ public class CostAndUsageData {
     }
 
 
-    private void archiveSummary(long startMilli, DateTime startDate, Map<Product, ReadWriteData> dataMap, String prefix, boolean compress) throws Exception {
+    private void archiveSummary(long startMilli, DateTime startDate, Map<Product, ReadWriteData> dataMap, String prefix, boolean compress, List<Cube> cubes) throws Exception {
 
         DateTime monthDateTime = new DateTime(startMilli, DateTimeZone.UTC);
 
@@ -232,6 +293,15 @@ public class CostAndUsageData {
             monthlyData.setData(monthly, numMonths, false);            
             writer.archive();
 
+            // archive the cubes of the daily and monthly data across all products. The cubes are rebuilt
+            // from the whole year or the whole monthly file so they always match the summary data.
+            if (product == null && cubes != null) {
+                for (Cube cube: cubes) {
+                    new CubeWriter(cube.getDbName(prefix + "daily_" + prodName) + "_" + year, cube, dailyData, compress).archive();
+                    new CubeWriter(cube.getDbName(prefix + "monthly_" + prodName), cube, monthlyData, compress).archive();
+                }
+            }
+
             // archive weekly
             writer = new DataWriter(prefix + "weekly_" + prodName, compress);
             ReadWriteData weeklyData = writer.getData();
@@ -0,0 +1,72 @@
+package com.netflix.ice.processor;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import com.netflix.ice.common.Cube;
+import com.netflix.ice.common.TagGroup;
+
+/**
+ * CubeWriter sums summary data into the columns of a pre-aggregated cube and writes it out.
+ * The file has the same layout as a data file, except that each key only has the tags of the
+ * cube's dimensions.
+ */
+public class CubeWriter extends DataFile {
+	private final Cube cube;
+	private final Set<TagGroup> keys = Sets.newLinkedHashSet();
+	private final ReadWriteData data = new ReadWriteData();
+
+	CubeWriter(String name, Cube cube, ReadWriteData summary, boolean compress) throws Exception {
+		super(name, compress);
+		this.cube = cube;
+		aggregate(summary);
+	}
+
+	// For unit testing
+	CubeWriter(Cube cube, ReadWriteData summary) {
+		super();
+		this.cube = cube;
+		aggregate(summary);
+	}
+
+	private void aggregate(ReadWriteData summary) {
+		for (int i = 0; i < summary.getNum(); i++) {
+			Map<TagGroup, Double> cubeData = data.getData(i);
+			for (Entry<TagGroup, Double> entry: summary.getData(i).entrySet()) {
+				if (entry.getValue() == null || entry.getValue() == 0)
+					continue;
+				TagGroup key = cube.getKey(entry.getKey());
+				keys.add(key);
+				Double existing = cubeData.get(key);
+				cubeData.put(key, existing == null ? entry.getValue() : existing + entry.getValue());
+			}
+		}
+	}
+
+	Set<TagGroup> getKeys() {
+		return keys;
+	}
+
+	ReadWriteData getData() {
+		return data;
+	}
+
+	@Override
+	protected void write() throws IOException {
+		DataOutputStream out = new DataOutputStream(os);
+		try {
+			out.writeInt(keys.size());
+			for (TagGroup key: keys)
+				cube.serialize(out, key);
+			ReadWriteData.Serializer.serializeData(out, keys, data);
+			out.flush();
+		}
+		finally {
+			out.close();
+		}
+	}
+}
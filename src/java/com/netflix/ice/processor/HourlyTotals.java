@@ -0,0 +1,72 @@
+package com.netflix.ice.processor;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.google.common.collect.Maps;
+
+/**
+ * HourlyTotals accumulates a value per key for each hour of the month in primitive arrays.
+ * It's used to total up values as line items are processed so that they don't have
+ * to be derived afterwards by rescanning every tag group and hour of the ReadWriteData.
+ * Hours that have never had anything added to them hold NaN.
+ */
+public class HourlyTotals<K> {
+    private Map<K, double[]> totals = Maps.newHashMap();
+    private int num = 0;
+
+    public void add(K key, int hour, double value) {
+        double[] values = totals.get(key);
+        if (values == null || hour >= values.length) {
+            values = grow(values, hour + 1);
+            totals.put(key, values);
+        }
+        values[hour] = Double.isNaN(values[hour]) ? value : values[hour] + value;
+        num = Math.max(num, hour + 1);
+    }
+
+    private double[] grow(double[] values, int minLength) {
+        int oldLength = values == null ? 0 : values.length;
+        // Most keys show up in every hour, so size for a full month on the first add
+        double[] grown = new double[Math.max(minLength, Math.max(oldLength * 2, 31 * 24))];
+        Arrays.fill(grown, Double.NaN);
+        if (values != null)
+            System.arraycopy(values, 0, grown, 0, oldLength);
+        return grown;
+    }
+
+    /**
+     * Returns the values for the key. The array may be longer than getNum().
+     */
+    public double[] get(K key) {
+        return totals.get(key);
+    }
+
+    public Set<K> keySet() {
+        return totals.keySet();
+    }
+
+    public int getNum() {
+        return num;
+    }
+
+    void cut(int hours) {
+        for (double[] values: totals.values()) {
+            if (values.length > hours)
+                Arrays.fill(values, hours, values.length, Double.NaN);
+        }
+        num = Math.min(num, hours);
+    }
+
+    void putAll(HourlyTotals<K> other) {
+        for (Entry<K, double[]> entry: other.totals.entrySet()) {
+            double[] values = entry.getValue();
+            for (int i = 0; i < values.length; i++) {
+                if (!Double.isNaN(values[i]))
+                    add(entry.getKey(), i, values[i]);
+            }
+        }
+    }
+}
@@ -10,6 +10,8 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 import java.util.zip.GZIPInputStream;
@@ -20,6 +22,7 @@ import org.joda.time.DateTimeZone;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.amazonaws.services.s3.model.AmazonS3Exception;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.AwsUtils;
@@ -35,6 +38,8 @@ public class Instances {
 	private final String workS3BucketName;
 	private final String workS3BucketPrefix;
 	private ConcurrentMap<String, Instance> data;
+	// Memory-mapped binary form of the instances retrieved by the reader
+	private volatile InstancesFile instancesFile;
 
 	public Instances(String localDir, String workS3BucketName, String workS3BucketPrefix) {
     	this.localDir = localDir;
@@ -51,13 +56,24 @@ public class Instances {
 	}
 	
 	public Instance get(String id) {
-		return data.get(id);
+		Instance instance = data.get(id);
+		if (instance == null) {
+			InstancesFile f = instancesFile;
+			if (f != null)
+				instance = f.get(id);
+		}
+		return instance;
 	}
 	
 	private String getFilename(long timeMillis) {
         DateTime monthDateTime = new DateTime(timeMillis, DateTimeZone.UTC);
 		return "instances_" + AwsUtils.monthDateFormat.print(monthDateTime) + ".csv.gz";
 	}
+	
+	private String getBinaryFilename(long timeMillis) {
+        DateTime monthDateTime = new DateTime(timeMillis, DateTimeZone.UTC);
+		return "instances_" + AwsUtils.monthDateFormat.print(monthDateTime) + ".bin";
+	}
 
     public void archive(long timeMillis) throws IOException {
         
@@ -83,9 +99,19 @@ public class Instances {
         logger.info("uploading " + file + "...");
         AwsUtils.upload(workS3BucketName, workS3BucketPrefix, localDir, file.getName());
         logger.info("uploaded " + file);
+        
+        // Binary form used by the reader
+        file = new File(localDir, getBinaryFilename(timeMillis));
+        InstancesFile.write(file, data.values());
+        logger.info("uploading " + file + "...");
+        AwsUtils.upload(workS3BucketName, workS3BucketPrefix, localDir, file.getName());
+        logger.info("uploaded " + file);
     }
     
     public void retrieve(long timeMillis, AccountService accountService) {
+    	if (retrieveBinary(timeMillis, accountService))
+    		return;
+    	
         File file = new File(localDir, getFilename(timeMillis));
     	
         // read from s3 if not exists
@@ -116,6 +142,7 @@ public class Instances {
                 	dataMap.put(instance.id, instance);
                 }
                 data = dataMap;
+                instancesFile = null;
             }
             catch (Exception e) {
             	Logger logger = LoggerFactory.getLogger(ReservationService.class);
@@ -127,4 +154,47 @@ public class Instances {
             }
         }        
     }
+    
+    /**
+     * Retrieve the binary instances file and memory-map it.
+     * Returns false if there is no binary file, in which case the CSV file should be used.
+     */
+    private boolean retrieveBinary(long timeMillis, AccountService accountService) {
+        File file = new File(localDir, getBinaryFilename(timeMillis));
+        boolean downloaded = false;
+        try {
+            downloaded = AwsUtils.downloadFileIfChanged(workS3BucketName, workS3BucketPrefix, file, 0);
+        }
+        catch (AmazonS3Exception e) {
+        	if (e.getStatusCode() != 404)
+        		logger.error("error downloading " + file, e);
+        	else
+        		logger.info("no binary instances file " + file + ", using csv");
+        	return false;
+        }
+        catch (Exception e) {
+            logger.error("error downloading " + file, e);
+            return false;
+        }
+        
+        if (downloaded || instancesFile == null) {
+            try {
+            	// Map a copy so that the next download doesn't truncate the file out from under the mapping.
+            	// Moving the copy into place leaves any existing mapping on the old file intact.
+            	File mapped = new File(localDir, file.getName() + ".mapped");
+            	File tmp = new File(localDir, file.getName() + ".tmp");
+            	Files.copy(file.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            	Files.move(tmp.toPath(), mapped.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            	InstancesFile f = new InstancesFile(mapped, accountService);
+            	instancesFile = f;
+            	data = Maps.newConcurrentMap();
+            	logger.info("mapped " + f.size() + " instances from " + file);
+            }
+            catch (IOException e) {
+            	logger.error("error in reading " + file, e);
+            	return false;
+            }
+        }
+        return true;
+    }
 }
@@ -0,0 +1,248 @@
+package com.netflix.ice.processor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.Instance;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.Zone;
+
+/**
+ * Binary instance inventory that can be memory-mapped and searched without loading it into the heap.
+ *
+ * All strings are stored once in a dictionary and referenced by index. The fixed size instance
+ * records are sorted by the UTF-8 bytes of the instance ID so that get() is a binary search over
+ * the mapped file.
+ *
+ * Layout (big-endian):
+ *   header:     magic, version, numStrings, numInstances, recordsOffset, tagsOffset
+ *   dictionary: numStrings string offsets followed by the strings as length + UTF-8 bytes
+ *   records:    numInstances of id, type, accountId, region, zone (-1 if none), first tag, numTags
+ *   tags:       key, value string index pairs
+ */
+public class InstancesFile {
+	private static final int MAGIC = 0x49434549; // "ICEI"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 6 * 4;
+	private static final int RECORD_SIZE = 7 * 4;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final ByteBuffer buffer;
+	private final AccountService accountService;
+	private final int numInstances;
+	private final int recordsOffset;
+	private final int tagsOffset;
+
+	/**
+	 * Memory-map an instances file
+	 */
+	public InstancesFile(File file, AccountService accountService) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			this.buffer = mapped;
+		}
+		finally {
+			// The mapping stays valid after the file is closed
+			raf.close();
+		}
+		this.accountService = accountService;
+
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+			throw new IOException("Not a version " + VERSION + " instances file: " + file);
+		numInstances = buffer.getInt(12);
+		recordsOffset = buffer.getInt(16);
+		tagsOffset = buffer.getInt(20);
+	}
+
+	public int size() {
+		return numInstances;
+	}
+
+	/**
+	 * Look up an instance. Returns null if the instance isn't in the file.
+	 */
+	public Instance get(String id) {
+		byte[] key = id.getBytes(UTF8);
+		int low = 0;
+		int high = numInstances - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int cmp = compare(getInt(mid, 0), key);
+			if (cmp < 0)
+				low = mid + 1;
+			else if (cmp > 0)
+				high = mid - 1;
+			else
+				return getInstance(mid);
+		}
+		return null;
+	}
+
+	private int getInt(int record, int field) {
+		return buffer.getInt(recordsOffset + record * RECORD_SIZE + field * 4);
+	}
+
+	private Instance getInstance(int record) {
+		int zone = getInt(record, 4);
+		int firstTag = getInt(record, 5);
+		int numTags = getInt(record, 6);
+		Map<String, String> tags = Maps.newHashMap();
+		for (int i = 0; i < numTags; i++) {
+			int pos = tagsOffset + (firstTag + i) * 8;
+			tags.put(getString(buffer.getInt(pos)), getString(buffer.getInt(pos + 4)));
+		}
+		return new Instance(
+				getString(getInt(record, 0)),
+				getString(getInt(record, 1)),
+				accountService.getAccountById(getString(getInt(record, 2))),
+				Region.getRegionByName(getString(getInt(record, 3))),
+				zone < 0 ? null : Zone.getZone(getString(zone)),
+				tags);
+	}
+
+	private String getString(int index) {
+		int pos = buffer.getInt(HEADER_SIZE + index * 4);
+		int length = buffer.getInt(pos);
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++)
+			bytes[i] = buffer.get(pos + 4 + i);
+		return new String(bytes, UTF8);
+	}
+
+	/**
+	 * Compare a dictionary string with the UTF-8 bytes of a key as unsigned bytes
+	 */
+	private int compare(int index, byte[] key) {
+		int pos = buffer.getInt(HEADER_SIZE + index * 4);
+		int length = buffer.getInt(pos);
+		int n = Math.min(length, key.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (buffer.get(pos + 4 + i) & 0xff) - (key[i] & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return length - key.length;
+	}
+
+	private static int compareBytes(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		for (int i = 0; i < n; i++) {
+			int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+			if (cmp != 0)
+				return cmp;
+		}
+		return a.length - b.length;
+	}
+
+	/**
+	 * Write instances to a file
+	 */
+	public static void write(File file, Collection<Instance> instances) throws IOException {
+		// Build the dictionary
+		final Map<String, Integer> dictionary = Maps.newLinkedHashMap();
+		final List<byte[]> strings = Lists.newArrayList();
+		List<Instance> sorted = Lists.newArrayList(instances);
+		final Map<Instance, byte[]> ids = Maps.newIdentityHashMap();
+		int numTags = 0;
+		for (Instance instance: sorted) {
+			ids.put(instance, instance.id.getBytes(UTF8));
+			add(dictionary, strings, instance.id);
+			add(dictionary, strings, instance.type);
+			add(dictionary, strings, instance.account.id);
+			add(dictionary, strings, instance.region.name);
+			if (instance.zone != null)
+				add(dictionary, strings, instance.zone.name);
+			for (Entry<String, String> tag: instance.tags.entrySet()) {
+				add(dictionary, strings, tagKey(tag.getKey()));
+				add(dictionary, strings, tag.getValue());
+			}
+			numTags += instance.tags.size();
+		}
+		Collections.sort(sorted, new Comparator<Instance>() {
+			@Override
+			public int compare(Instance a, Instance b) {
+				return compareBytes(ids.get(a), ids.get(b));
+			}
+		});
+
+		int stringsOffset = HEADER_SIZE + strings.size() * 4;
+		int recordsOffset = stringsOffset;
+		for (byte[] s: strings)
+			recordsOffset += 4 + s.length;
+		int tagsOffset = recordsOffset + sorted.size() * RECORD_SIZE;
+		if ((long) tagsOffset + numTags * 8L > Integer.MAX_VALUE)
+			throw new IOException("Too much instance data for file " + file);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(strings.size());
+			out.writeInt(sorted.size());
+			out.writeInt(recordsOffset);
+			out.writeInt(tagsOffset);
+
+			int pos = stringsOffset;
+			for (byte[] s: strings) {
+				out.writeInt(pos);
+				pos += 4 + s.length;
+			}
+			for (byte[] s: strings) {
+				out.writeInt(s.length);
+				out.write(s);
+			}
+
+			int firstTag = 0;
+			for (Instance instance: sorted) {
+				out.writeInt(dictionary.get(instance.id));
+				out.writeInt(dictionary.get(instance.type));
+				out.writeInt(dictionary.get(instance.account.id));
+				out.writeInt(dictionary.get(instance.region.name));
+				out.writeInt(instance.zone == null ? -1 : dictionary.get(instance.zone.name));
+				out.writeInt(firstTag);
+				out.writeInt(instance.tags.size());
+				firstTag += instance.tags.size();
+			}
+
+			for (Instance instance: sorted) {
+				for (Entry<String, String> tag: instance.tags.entrySet()) {
+					out.writeInt(dictionary.get(tagKey(tag.getKey())));
+					out.writeInt(dictionary.get(tag.getValue()));
+				}
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	private static void add(Map<String, Integer> dictionary, List<byte[]> strings, String s) {
+		if (!dictionary.containsKey(s)) {
+			dictionary.put(s, strings.size());
+			strings.add(s.getBytes(UTF8));
+		}
+	}
+
+	// Drop the user: prefix the same way the CSV form of the instances file does
+	private static String tagKey(String key) {
+		return key.startsWith("user:") ? key.substring("user:".length()) : key;
+	}
+}
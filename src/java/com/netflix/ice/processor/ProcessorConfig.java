@@ -51,6 +51,7 @@ public class ProcessorConfig extends Config {
 
     public final String useCostForResourceGroup;
     public final JsonFiles writeJsonFiles;
+    public final int resourceGroupCardinalityLimit;
     
     public enum JsonFiles {
     	no,
@@ -106,6 +107,7 @@ public class ProcessorConfig extends Config {
         //useCostForResourceGroup = properties.getProperty(IceOptions.RESOURCE_GROUP_COST, "modeled");
         useCostForResourceGroup = properties.getProperty(IceOptions.RESOURCE_GROUP_COST, "");
         writeJsonFiles = properties.getProperty(IceOptions.WRITE_JSON_FILES) == null ? JsonFiles.no : JsonFiles.valueOf(properties.getProperty(IceOptions.WRITE_JSON_FILES));
+        resourceGroupCardinalityLimit = Integer.parseInt(properties.getProperty(IceOptions.RESOURCE_GROUP_CARDINALITY_LIMIT, "0"));
         
         processOnce = properties.getProperty(IceOptions.PROCESS_ONCE) == null ? false : Boolean.parseBoolean(properties.getProperty(IceOptions.PROCESS_ONCE));
         processorRegion = properties.getProperty(IceOptions.PROCESSOR_REGION);
@@ -125,6 +125,13 @@ public class ReadWriteData {
                 TagGroup.Serializer.serialize(out, tagGroup);
             }
 
+            serializeData(out, keys, data);
+        }
+
+        /**
+         * Write the values of each hour, day, week or month in the order of the keys
+         */
+        static void serializeData(DataOutput out, Collection<TagGroup> keys, ReadWriteData data) throws IOException {
             out.writeInt(data.data.size());
             for (int i = 0; i < data.data.size(); i++) {
                 Map<TagGroup, Double> map = data.getData(i);
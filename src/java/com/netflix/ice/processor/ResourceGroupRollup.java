@@ -0,0 +1,184 @@
+package com.netflix.ice.processor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.UserTag;
+
+/**
+ * ResourceGroupRollup bounds the number of distinct values of each user tag in the resource
+ * based data of a product. Only the maxValues values with the highest cost are kept, the
+ * remaining values are folded into a single "(other)" value. Untagged resources don't count
+ * against the limit.
+ *
+ * The rollup is applied to the data of a month after reservation processing, so the data only
+ * holds TagGroups, not TagGroupRIs.
+ */
+public class ResourceGroupRollup {
+    private final static Logger logger = LoggerFactory.getLogger(ResourceGroupRollup.class);
+	public static final String other = "(other)";
+
+	private final List<String> userTags;
+	private final int maxValues;
+	private final List<Folded> folded = Lists.newArrayList();
+
+	/**
+	 * A user tag value that was folded into the other value
+	 */
+	public static class Folded {
+		public final Product product;
+		public final String tag;
+		public final String value;
+		public final double cost;
+
+		Folded(Product product, String tag, String value, double cost) {
+			this.product = product;
+			this.tag = tag;
+			this.value = value;
+			this.cost = cost;
+		}
+	}
+
+	public ResourceGroupRollup(List<String> userTags, int maxValues) {
+		this.userTags = userTags;
+		this.maxValues = maxValues;
+	}
+
+	public List<Folded> getFolded() {
+		return folded;
+	}
+
+	/**
+	 * Fold the long tail of user tag values in the cost and usage data of a product.
+	 */
+	public void rollup(Product product, ReadWriteData cost, ReadWriteData usage) {
+		// Total the cost of each value of each user tag
+		List<Map<UserTag, Double>> costByValue = Lists.newArrayList();
+		for (int i = 0; i < userTags.size(); i++)
+			costByValue.add(Maps.<UserTag, Double>newHashMap());
+		for (int hour = 0; hour < cost.getNum(); hour++) {
+			for (Entry<TagGroup, Double> entry: cost.getData(hour).entrySet()) {
+				ResourceGroup rg = entry.getKey().resourceGroup;
+				if (rg == null || rg.isProductName())
+					continue;
+				for (int i = 0; i < userTags.size(); i++) {
+					UserTag value = rg.getUserTag(i);
+					if (value.name.isEmpty())
+						continue;
+					Double total = costByValue.get(i).get(value);
+					costByValue.get(i).put(value, total == null ? entry.getValue() : total + entry.getValue());
+				}
+			}
+		}
+
+		// Pick the values to fold for each tag
+		List<Map<UserTag, Double>> foldedByTag = Lists.newArrayList();
+		boolean hasFolded = false;
+		for (int i = 0; i < userTags.size(); i++) {
+			Map<UserTag, Double> values = costByValue.get(i);
+			Map<UserTag, Double> fold = Maps.newHashMap();
+			if (values.size() > maxValues) {
+				List<Entry<UserTag, Double>> sorted = Lists.newArrayList(values.entrySet());
+				Collections.sort(sorted, new Comparator<Entry<UserTag, Double>>() {
+					@Override
+					public int compare(Entry<UserTag, Double> a, Entry<UserTag, Double> b) {
+						return Double.compare(b.getValue(), a.getValue());
+					}
+				});
+				for (Entry<UserTag, Double> entry: sorted.subList(maxValues, sorted.size())) {
+					fold.put(entry.getKey(), entry.getValue());
+					folded.add(new Folded(product, userTags.get(i), entry.getKey().name, entry.getValue()));
+				}
+				logger.info("folding " + fold.size() + " of " + values.size() + " values of tag " + userTags.get(i) + " for " + product);
+				hasFolded = true;
+			}
+			foldedByTag.add(fold);
+		}
+		if (!hasFolded)
+			return;
+
+		Map<TagGroup, TagGroup> remapped = Maps.newHashMap();
+		fold(cost, foldedByTag, remapped);
+		fold(usage, foldedByTag, remapped);
+	}
+
+	private void fold(ReadWriteData data, List<Map<UserTag, Double>> foldedByTag, Map<TagGroup, TagGroup> remapped) {
+		for (int hour = 0; hour < data.getNum(); hour++) {
+			Map<TagGroup, Double> map = data.getData(hour);
+			Map<TagGroup, Double> moved = null;
+			for (Entry<TagGroup, Double> entry: map.entrySet()) {
+				TagGroup to = getRemapped(entry.getKey(), foldedByTag, remapped);
+				if (to == entry.getKey())
+					continue;
+				if (moved == null)
+					moved = Maps.newHashMap();
+				moved.put(entry.getKey(), entry.getValue());
+			}
+			if (moved == null)
+				continue;
+			for (Entry<TagGroup, Double> entry: moved.entrySet()) {
+				map.remove(entry.getKey());
+				TagGroup to = remapped.get(entry.getKey());
+				Double existing = map.get(to);
+				map.put(to, existing == null ? entry.getValue() : existing + entry.getValue());
+			}
+		}
+	}
+
+	private TagGroup getRemapped(TagGroup tagGroup, List<Map<UserTag, Double>> foldedByTag, Map<TagGroup, TagGroup> remapped) {
+		TagGroup to = remapped.get(tagGroup);
+		if (to != null)
+			return to;
+
+		to = tagGroup;
+		ResourceGroup rg = tagGroup.resourceGroup;
+		if (rg != null && !rg.isProductName()) {
+			String[] tags = null;
+			for (int i = 0; i < userTags.size(); i++) {
+				UserTag value = rg.getUserTag(i);
+				if (foldedByTag.get(i).containsKey(value)) {
+					if (tags == null) {
+						tags = new String[userTags.size()];
+						for (int j = 0; j < tags.length; j++)
+							tags[j] = rg.getUserTag(j).name;
+					}
+					tags[i] = other;
+				}
+			}
+			if (tags != null)
+				to = TagGroup.getTagGroup(tagGroup.account, tagGroup.region, tagGroup.zone, tagGroup.product, tagGroup.operation, tagGroup.usageType, ResourceGroup.getResourceGroup(tags));
+		}
+		remapped.put(tagGroup, to);
+		return to;
+	}
+
+	/**
+	 * Write the report of the folded values as CSV
+	 */
+	public void writeReport(File file) throws IOException {
+		OutputStreamWriter out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			out.write("Product,Tag,Value,Cost\n");
+			for (Folded f: folded)
+				out.write(f.product.name + "," + f.tag + ",\"" + f.value.replace("\"", "\"\"") + "\"," + f.cost + "\n");
+		}
+		finally {
+			out.close();
+		}
+	}
+}
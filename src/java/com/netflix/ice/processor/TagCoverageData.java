@@ -0,0 +1,162 @@
+package com.netflix.ice.processor;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.TagCoverageRatio;
+import com.netflix.ice.common.TagGroup;
+
+/**
+ * TagCoverageData accumulates the tag coverage statistics for all the user tags in primitive
+ * arrays. For each tag group and hour it keeps the number of line items seen and, for each user tag,
+ * the number of those line items that had a value for the tag.
+ *
+ * The statistics are only converted to the encoded TagCoverageRatio values used in the
+ * coverage_hourly_* data files when they're archived.
+ */
+public class TagCoverageData {
+	private final List<String> userTags;
+	private final Map<TagGroup, Counts> data = Maps.newHashMap();
+	private int num = 0;
+
+	/**
+	 * Counts for the range of hours a tag group has been seen in, most tag groups only show up in some of them
+	 */
+	private static class Counts {
+		int start; // First hour held in the arrays
+		int[] totals;
+		int[] counts; // Indexed by (hour - start) * number of user tags + user tag index
+
+		Counts(int hour, int numTags) {
+			start = hour;
+			totals = new int[1];
+			counts = new int[numTags];
+		}
+
+		int end() {
+			return start + totals.length;
+		}
+
+		/**
+		 * Make room for the hour. Growing towards later hours doubles the arrays since
+		 * line items mostly come in hour order.
+		 */
+		void ensure(int hour, int numTags) {
+			if (hour >= start && hour < end())
+				return;
+			int newStart = Math.min(start, hour);
+			int newEnd = hour < start ? end() : Math.max(hour + 1, start + totals.length * 2);
+			int[] newTotals = new int[newEnd - newStart];
+			int[] newCounts = new int[(newEnd - newStart) * numTags];
+			System.arraycopy(totals, 0, newTotals, start - newStart, totals.length);
+			System.arraycopy(counts, 0, newCounts, (start - newStart) * numTags, counts.length);
+			start = newStart;
+			totals = newTotals;
+			counts = newCounts;
+		}
+
+		int getTotal(int hour) {
+			return hour >= start && hour < end() ? totals[hour - start] : 0;
+		}
+
+		int getCount(int hour, int numTags, int tagIndex) {
+			return hour >= start && hour < end() ? counts[(hour - start) * numTags + tagIndex] : 0;
+		}
+	}
+
+	public TagCoverageData(List<String> userTags) {
+		this.userTags = userTags;
+	}
+
+	public List<String> getUserTags() {
+		return userTags;
+	}
+
+	public int getNum() {
+		return num;
+	}
+
+	/**
+	 * Add one line item to the statistics.
+	 *
+	 * @param hour index of the hour in the month
+	 * @param tagGroup tag group of the line item
+	 * @param hasTag for each user tag, whether the line item had a value for it
+	 */
+	public void add(int hour, TagGroup tagGroup, boolean[] hasTag) {
+		int numTags = userTags.size();
+		Counts c = getCounts(tagGroup, hour);
+		c.totals[hour - c.start]++;
+		int offset = (hour - c.start) * numTags;
+		for (int i = 0; i < hasTag.length && i < numTags; i++) {
+			if (hasTag[i])
+				c.counts[offset + i]++;
+		}
+		num = Math.max(num, hour + 1);
+	}
+
+	private Counts getCounts(TagGroup tagGroup, int hour) {
+		Counts c = data.get(tagGroup);
+		if (c == null) {
+			c = new Counts(hour, userTags.size());
+			data.put(tagGroup, c);
+		}
+		else {
+			c.ensure(hour, userTags.size());
+		}
+		return c;
+	}
+
+	void putAll(TagCoverageData other) {
+		int numTags = userTags.size();
+		for (Entry<TagGroup, Counts> entry: other.data.entrySet()) {
+			Counts from = entry.getValue();
+			Counts to = getCounts(entry.getKey(), from.start);
+			to.ensure(from.end() - 1, numTags);
+			int offset = from.start - to.start;
+			for (int i = 0; i < from.totals.length; i++)
+				to.totals[offset + i] += from.totals[i];
+			for (int i = 0; i < from.counts.length; i++)
+				to.counts[offset * numTags + i] += from.counts[i];
+		}
+		num = Math.max(num, other.num);
+	}
+
+	void cut(int hours) {
+		for (Counts c: data.values()) {
+			if (c.end() > hours) {
+				int from = Math.max(0, hours - c.start);
+				Arrays.fill(c.totals, from, c.totals.length, 0);
+				Arrays.fill(c.counts, from * userTags.size(), c.counts.length, 0);
+			}
+		}
+		num = Math.min(num, hours);
+	}
+
+	/**
+	 * Get the coverage of a user tag as ReadWriteData holding encoded TagCoverageRatio values
+	 */
+	ReadWriteData getData(int tagIndex) {
+		int numTags = userTags.size();
+		List<Map<TagGroup, Double>> hours = Lists.newArrayListWithCapacity(num);
+		for (int hour = 0; hour < num; hour++)
+			hours.add(Maps.<TagGroup, Double>newHashMap());
+
+		for (Entry<TagGroup, Counts> entry: data.entrySet()) {
+			Counts c = entry.getValue();
+			for (int hour = c.start; hour < num && hour < c.end(); hour++) {
+				int total = c.getTotal(hour);
+				if (total > 0)
+					hours.get(hour).put(entry.getKey(), new TagCoverageRatio(c.getCount(hour, numTags, tagIndex), total).toDouble());
+			}
+		}
+
+		ReadWriteData rwd = new ReadWriteData();
+		rwd.setData(hours, 0, false);
+		return rwd;
+	}
+}
@@ -3,6 +3,7 @@ package com.netflix.ice.processor.pricelist;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -27,6 +28,8 @@ public class InstancePrices implements Comparable<InstancePrices> {
 	private final DateTime effectiveBeginDate;
 	private final DateTime effectiveEndDate;
 	private Map<Key, Product> prices = Maps.newHashMap();
+	// Built on first rate lookup and dropped whenever the prices map is reloaded
+	private volatile RateTable rateTable = null;
 
 	public enum ServiceCode {
 		AmazonEC2,
@@ -89,11 +92,23 @@ public class InstancePrices implements Comparable<InstancePrices> {
 	}
 	
 	public double getOnDemandRate(Region region, UsageType usageType) {
-		return getProduct(region, usageType).getOnDemandRate();
+		double rate = getRateTable().getOnDemandRate(region, usageType);
+		// Not in the table, go through the product map so a missing product fails the same way it always has
+		return Double.isNaN(rate) ? getProduct(region, usageType).getOnDemandRate() : rate;
 	}
 	
 	public Rate getReservationRate(Region region, UsageType usageType, LeaseContractLength lcl, PurchaseOption po, OfferingClass oc) {
-		return getReservationRate(new Key(region, usageType), new RateKey(lcl, po, oc));
+		Rate rate = getRateTable().getReservationRate(region, usageType, RateKey.index(lcl, po, oc));
+		return rate != null ? rate : getReservationRate(new Key(region, usageType), new RateKey(lcl, po, oc));
+	}
+	
+	private RateTable getRateTable() {
+		RateTable table = rateTable;
+		if (table == null) {
+			table = new RateTable(prices);
+			rateTable = table;
+		}
+		return table;
 	}
 	
 	public Rate getReservationRate(Key productKey, RateKey rateKey) {
@@ -104,27 +119,8 @@ public class InstancePrices implements Comparable<InstancePrices> {
         Map<String, PriceList.Product> products = priceList.getProducts();
         for (String sku: products.keySet()) {
         	PriceList.Product p = products.get(sku);
-        	String location = p.getAttribute(Attributes.location);
-        	// There is one entry for RDS db.t1.micro with location of "Any". We'll ignore that one.
-        	// Also skip GovCloud and non-instance SKUs.
-        	if (p.productFamily == null || !p.productFamily.contains("Instance") || location.contains("GovCloud") || location.equals("Any"))
+        	if (!isImported(p, serviceCode, tenancies))
         		continue;
-        	String t = p.getAttribute(Attributes.tenancy);
-        	if (p.productFamily.equals("Compute Instance") && !t.isEmpty()) {
-	        	Tenancy tenancy = Tenancy.valueOf(t);
-	        	if (!tenancies.contains(tenancy))
-	        		continue;
-        	}
-        	switch (serviceCode) {
-	        	case AmazonEC2:
-	        		if (!p.getAttribute(Attributes.operation).startsWith("RunInstances") ||
-	        				p.getAttribute(Attributes.operatingSystem).equals("NA")) {
-	        			continue;
-	        		}
-        			break;
-        		default:
-        			break;
-        	}
         
         	String usageTypeStr = p.getAttribute(Attributes.usagetype);
         	Region region = Region.US_EAST_1;
@@ -162,6 +158,36 @@ public class InstancePrices implements Comparable<InstancePrices> {
         	
         	prices.put(key, product);
         }
+        rateTable = null;
+    }
+    
+    /**
+     * Returns true if the price list product is one that importPriceList() keeps.
+     * Also used by the streaming PriceList parser to drop everything else while reading.
+     */
+    static boolean isImported(PriceList.Product p, ServiceCode serviceCode, Set<Tenancy> tenancies) {
+    	String location = p.getAttribute(Attributes.location);
+    	// There is one entry for RDS db.t1.micro with location of "Any". We'll ignore that one.
+    	// Also skip GovCloud and non-instance SKUs.
+    	if (p.productFamily == null || !p.productFamily.contains("Instance") || location.contains("GovCloud") || location.equals("Any"))
+    		return false;
+    	String t = p.getAttribute(Attributes.tenancy);
+    	if (p.productFamily.equals("Compute Instance") && !t.isEmpty()) {
+        	Tenancy tenancy = Tenancy.valueOf(t);
+        	if (!tenancies.contains(tenancy))
+        		return false;
+    	}
+    	switch (serviceCode) {
+        	case AmazonEC2:
+        		if (!p.getAttribute(Attributes.operation).startsWith("RunInstances") ||
+        				p.getAttribute(Attributes.operatingSystem).equals("NA")) {
+        			return false;
+        		}
+    			break;
+    		default:
+    			break;
+    	}
+    	return true;
     }
     
     private UsageType getUsageType(String instanceType, String operation, String deploymentOption) {
@@ -226,6 +252,7 @@ public class InstancePrices implements Comparable<InstancePrices> {
 	        	Product product = Product.Serializer.deserialize(in);
 	        	ip.prices.put(key, product);
         	}
+        	ip.rateTable = null;
         	
         	return ip;
         }
@@ -260,20 +287,29 @@ public class InstancePrices implements Comparable<InstancePrices> {
     }
     
     public static class RateKey {
+    	public static final int numKeys = LeaseContractLength.values().length * PurchaseOption.values().length * OfferingClass.values().length;
+    	
     	public final LeaseContractLength leaseContractLength;
     	public final PurchaseOption purchaseOption;
     	public final OfferingClass offeringClass;
+    	public final int index;
     	
     	public RateKey(LeaseContractLength leaseContractLength, PurchaseOption purchaseOption, OfferingClass offeringClass) {
     		this.leaseContractLength = leaseContractLength;
     		this.purchaseOption = purchaseOption;
     		this.offeringClass = offeringClass;
+    		this.index = index(leaseContractLength, purchaseOption, offeringClass);
     	}
     	
     	public RateKey(String leaseContractLength, String purchaseOption, String offeringClass) {
-    		this.leaseContractLength = LeaseContractLength.getByName(leaseContractLength);
-    		this.purchaseOption = PurchaseOption.getByName(purchaseOption);
-    		this.offeringClass = OfferingClass.valueOf(offeringClass);
+    		this(LeaseContractLength.getByName(leaseContractLength), PurchaseOption.getByName(purchaseOption), OfferingClass.valueOf(offeringClass));
+    	}
+    	
+    	/**
+    	 * Dense index in the range [0, numKeys) for the key permutation
+    	 */
+    	public static int index(LeaseContractLength lcl, PurchaseOption po, OfferingClass oc) {
+    		return (lcl.ordinal() * PurchaseOption.values().length + po.ordinal()) * OfferingClass.values().length + oc.ordinal();
     	}
     	
     	public String toString() {
@@ -435,6 +471,58 @@ public class InstancePrices implements Comparable<InstancePrices> {
         }
 	}
 
+	/**
+	 * Dense copy of the rates indexed by Region.index and UsageType.index so that rate
+	 * lookups in the hourly processing loops are array reads rather than allocating a Key
+	 * and hashing it. Reservation rates for each product are indexed by RateKey.index.
+	 */
+	private static class RateTable {
+		private final double[][] onDemandRates; // NaN where there is no product
+		private final Rate[][][] reservationRates;
+		
+		RateTable(Map<Key, Product> prices) {
+			int numRegions = 0;
+			int numUsageTypes = 0;
+			for (Key key: prices.keySet()) {
+				numRegions = Math.max(numRegions, key.region.index + 1);
+				numUsageTypes = Math.max(numUsageTypes, key.usageType.index + 1);
+			}
+			onDemandRates = new double[numRegions][];
+			reservationRates = new Rate[numRegions][][];
+			
+			for (Entry<Key, Product> entry: prices.entrySet()) {
+				int r = entry.getKey().region.index;
+				int u = entry.getKey().usageType.index;
+				if (onDemandRates[r] == null) {
+					onDemandRates[r] = new double[numUsageTypes];
+					Arrays.fill(onDemandRates[r], Double.NaN);
+					reservationRates[r] = new Rate[numUsageTypes][];
+				}
+				Product product = entry.getValue();
+				onDemandRates[r][u] = product.onDemandRate;
+				
+				Rate[] rates = new Rate[RateKey.numKeys];
+				for (Entry<RateKey, Rate> rate: product.reservationRates.entrySet())
+					rates[rate.getKey().index] = rate.getValue();
+				reservationRates[r][u] = rates;
+			}
+		}
+		
+		double getOnDemandRate(Region region, UsageType usageType) {
+			double[] rates = region.index < onDemandRates.length ? onDemandRates[region.index] : null;
+			if (rates == null || usageType.index >= rates.length)
+				return Double.NaN;
+			return rates[usageType.index];
+		}
+		
+		Rate getReservationRate(Region region, UsageType usageType, int rateKeyIndex) {
+			Rate[][] rates = region.index < reservationRates.length ? reservationRates[region.index] : null;
+			if (rates == null || usageType.index >= rates.length || rates[usageType.index] == null)
+				return null;
+			return rates[usageType.index][rateKeyIndex];
+		}
+	}
+
 	public static class Key implements Comparable<Key> {
         public final Region region;
         public final UsageType usageType;
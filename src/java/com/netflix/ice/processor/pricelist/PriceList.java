@@ -5,10 +5,17 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.lang.reflect.Type;
 import java.util.Map;
+import java.util.Set;
 
+import com.google.common.collect.Maps;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.netflix.ice.processor.pricelist.InstancePrices.ServiceCode;
+import com.netflix.ice.processor.pricelist.InstancePrices.Tenancy;
 /**
  * PriceList holds the data imported from an AWS price list:
  *   http://docs.aws.amazon.com/awsaccountbilling/latest/aboutv2/price-changes.html
@@ -24,6 +31,89 @@ public class PriceList {
 		reader.close();
 	}
 	
+	/**
+	 * Streaming parser for large offer files. Only the products that InstancePrices.importPriceList()
+	 * will use are kept along with their OnDemand and Reserved terms. Everything else is skipped
+	 * while reading so the full document is never held in memory.
+	 */
+	public PriceList(InputStream in, ServiceCode serviceCode, Set<Tenancy> tenancies) throws IOException {
+		JsonReader reader = new JsonReader(new BufferedReader(new InputStreamReader(in)));
+        Gson gson = new GsonBuilder().create();
+        
+        priceList = new Root();
+        priceList.products = Maps.newHashMap();
+        priceList.terms = new Terms();
+        priceList.terms.OnDemand = Maps.newHashMap();
+        priceList.terms.Reserved = Maps.newHashMap();
+        
+        try {
+	        // Offer files list the products before the terms, but if they ever show up
+	        // in the other order we can't filter the terms, so keep them all.
+	        boolean haveProducts = false;
+	        reader.beginObject();
+	        while (reader.hasNext()) {
+	        	String name = reader.nextName();
+	        	if (name.equals("version")) {
+	        		priceList.version = reader.nextString();
+	        	}
+	        	else if (name.equals("products")) {
+	        		readProducts(reader, gson, serviceCode, tenancies);
+	        		haveProducts = true;
+	        	}
+	        	else if (name.equals("terms")) {
+	        		readTerms(reader, gson, haveProducts);
+	        	}
+	        	else {
+	        		reader.skipValue();
+	        	}
+	        }
+	        reader.endObject();
+        }
+        finally {
+        	reader.close();
+        }
+	}
+	
+	private void readProducts(JsonReader reader, Gson gson, ServiceCode serviceCode, Set<Tenancy> tenancies) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String sku = reader.nextName();
+			Product p = gson.fromJson(reader, Product.class);
+			if (InstancePrices.isImported(p, serviceCode, tenancies))
+				priceList.products.put(sku, p);
+		}
+		reader.endObject();
+	}
+	
+	private void readTerms(JsonReader reader, Gson gson, boolean filter) throws IOException {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals("OnDemand"))
+				readOfferTerms(reader, gson, filter, priceList.terms.OnDemand);
+			else if (name.equals("Reserved"))
+				readOfferTerms(reader, gson, filter, priceList.terms.Reserved);
+			else
+				reader.skipValue();
+		}
+		reader.endObject();
+	}
+	
+	private void readOfferTerms(JsonReader reader, Gson gson, boolean filter, Map<String, Map<String, Term>> offerTerms) throws IOException {
+		Type type = new TypeToken<Map<String, Term>>(){}.getType();
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String sku = reader.nextName();
+			if (filter && !priceList.products.containsKey(sku)) {
+				reader.skipValue();
+				continue;
+			}
+			Map<String, Term> terms = gson.fromJson(reader, type);
+			offerTerms.put(sku, terms);
+		}
+		reader.endObject();
+	}
+	
 	public Map<String, Product> getProducts() {
 		return priceList.products;
 	}
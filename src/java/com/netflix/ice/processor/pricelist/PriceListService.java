@@ -9,8 +9,13 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URL;
+import java.util.Collection;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -19,8 +24,13 @@ import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.netflix.ice.common.AwsUtils;
 import com.netflix.ice.processor.pricelist.Index.Offer;
 import com.netflix.ice.processor.pricelist.InstancePrices.OperatingSystem;
@@ -38,6 +48,9 @@ public class PriceListService {
 	// Add other Tenancy values when needed - must also add to Key if more than one
 	public static Set<Tenancy> tenancies = Sets.newHashSet(Tenancy.Shared);
 	
+	public static final int defaultCacheSizeMB = 512;
+	private static final int prefetchThreads = 3;
+	
 	private final String localDir;
 	private final String workS3BucketName;
 	private final String workS3BucketPrefix;
@@ -65,24 +78,45 @@ public class PriceListService {
 	
 	private Map<String, CachedItem<VersionIndex>> versionIndecies; // Key is URL to version Index
 	
-	private Map<ServiceCode, Map<String, InstancePrices>> versionedPriceLists; // Keyed by service code. Second key is version ID
+	// Imported price lists keyed by file name (service code and version ID). Least recently used
+	// versions are evicted when the cache exceeds its memory budget and get reloaded from the archive.
+	private final Cache<String, InstancePrices> versionedPriceLists;
+	private final ExecutorService prefetchPool;
 	protected InstanceMetrics instanceMetrics;
 	
 	
 	public PriceListService(String localDir, String workS3BucketName, String workS3BucketPrefix) throws Exception {
+		this(localDir, workS3BucketName, workS3BucketPrefix, defaultCacheSizeMB);
+	}
+	
+	public PriceListService(String localDir, String workS3BucketName, String workS3BucketPrefix, int cacheSizeMB) throws Exception {
 		this.localDir = localDir;
 		this.workS3BucketName = workS3BucketName;
 		this.workS3BucketPrefix = workS3BucketPrefix;
 		
 		versionIndecies = Maps.newHashMap();
-		versionedPriceLists = Maps.newHashMap();
-		for (ServiceCode code: ServiceCode.values()) {
-			Map<String, InstancePrices> versionedPrices = Maps.newHashMap();
-			versionedPriceLists.put(code, versionedPrices);
-		}
+		versionedPriceLists = CacheBuilder.newBuilder()
+				.maximumWeight(cacheSizeMB * 1024L)
+				.weigher(new Weigher<String, InstancePrices>() {
+					public int weigh(String name, InstancePrices prices) {
+						return estimatedSizeKB(prices);
+					}
+				})
+				.build();
+		prefetchPool = Executors.newFixedThreadPool(prefetchThreads, new ThreadFactoryBuilder().setNameFormat("PriceListPrefetch-%d").setDaemon(true).build());
 		instanceMetrics = null;
 	}
 	
+	/**
+	 * Rough in-memory size of an imported price list used to weigh the cache entries.
+	 */
+	private static int estimatedSizeKB(InstancePrices prices) {
+		long bytes = 0;
+		for (Product p: prices.getPrices().values())
+			bytes += 256 + p.reservationRates.size() * 96;
+		return (int) (bytes / 1024) + 1;
+	}
+	
 	public void init() throws Exception {
 		// Build the instance metrics from the latest price lists for EC2 and Redshift.
 		// (RDS doesn't contribute anything that EC2 doesn't have)
@@ -130,7 +164,7 @@ public class PriceListService {
 		return instanceMetrics;
 	}
 	
-	private Index getIndex() throws Exception {
+	private synchronized Index getIndex() throws Exception {
 		if (index != null && index.isCurrent() ) {
 			// Current cached copy is less than an hour old, so use it.
 			return index.item;
@@ -142,7 +176,7 @@ public class PriceListService {
         return index.item;
 	}
 	
-	private VersionIndex getVersionIndex(Index index, ServiceCode serviceCode) throws Exception {
+	private synchronized VersionIndex getVersionIndex(Index index, ServiceCode serviceCode) throws Exception {
         Offer offer = index.getOffer(serviceCode.name());
         
         // See if we can use the one in the cache
@@ -163,16 +197,69 @@ public class PriceListService {
         VersionIndex versionIndex = getVersionIndex(getIndex(), serviceCode);
 	       
         String id = versionIndex.getVersionId(start);
-        Version version = versionIndex.getVersion(id);
-        
-        // Is the current version in our cache?
-        InstancePrices prices = versionedPriceLists.get(serviceCode).get(id);
-        if (prices == null) {        
-	        // See if we've already processed the current version
-	        prices = load(serviceCode, id, version);
-        }
-        
-       	return prices;
+        return getPrices(serviceCode, id, versionIndex.getVersion(id));
+    }
+    
+    private InstancePrices getPrices(final ServiceCode serviceCode, final String versionId, final Version version) throws Exception {
+        // Use the cached copy if we have it, otherwise load it. If another thread (such as the prefetcher)
+        // is already loading this version, wait for it rather than loading it a second time.
+    	try {
+	        return versionedPriceLists.get(getFilename(serviceCode, versionId), new Callable<InstancePrices>() {
+	        	public InstancePrices call() throws Exception {
+	        		return load(serviceCode, versionId, version);
+	        	}
+	        });
+    	}
+    	catch (ExecutionException e) {
+    		throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    	}
+    	catch (UncheckedExecutionException e) {
+    		throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+    	}
+    }
+    
+    /**
+     * Resolve and load in the background all the price list versions needed to process the
+     * given months so the processor doesn't stall on them when it gets to each month.
+     * Failures are only logged, getPrices() will try again when the prices are actually needed.
+     */
+    public void prefetch(final Collection<DateTime> months, final Collection<ServiceCode> serviceCodes) {
+    	prefetchPool.submit(new Runnable() {
+    		public void run() {
+    			for (ServiceCode sc: serviceCodes) {
+    				// Several months usually share a version, so only queue each version once
+    				Set<String> versionIds = Sets.newHashSet();
+    				try {
+	    				VersionIndex versionIndex = getVersionIndex(getIndex(), sc);
+	    				for (DateTime month: months) {
+	    					String id = versionIndex.getVersionId(month);
+	    					if (versionIds.add(id))
+	    						prefetch(sc, id, versionIndex.getVersion(id));
+	    				}
+    				}
+    				catch (Exception e) {
+    					logger.error("failed to resolve " + sc + " price list versions for prefetch", e);
+    				}
+    			}
+    		}
+    	});
+    }
+    
+    private void prefetch(final ServiceCode serviceCode, final String versionId, final Version version) {
+    	if (versionedPriceLists.getIfPresent(getFilename(serviceCode, versionId)) != null)
+    		return;
+    	
+    	logger.info("prefetching " + serviceCode + " price list version " + versionId);
+    	prefetchPool.submit(new Runnable() {
+    		public void run() {
+    			try {
+    				getPrices(serviceCode, versionId, version);
+    			}
+    			catch (Exception e) {
+    				logger.error("failed to prefetch " + serviceCode + " price list version " + versionId, e);
+    			}
+    		}
+    	});
     }
     
     private String getFilename(ServiceCode serviceCode, String versionId) {
@@ -203,20 +290,18 @@ public class PriceListService {
 	                if (in != null)
 	                    in.close();
 	            }
-	           	versionedPriceLists.get(serviceCode).put(versionId, ip);
 	            return ip;
 	        }
     	}
 
-        ip = fetch(serviceCode, versionId, version);
-       	versionedPriceLists.get(serviceCode).put(versionId, ip);
-        return ip;
+        return fetch(serviceCode, versionId, version);
     }
     
     protected InstancePrices fetch(ServiceCode serviceCode, String versionId, Version version) throws Exception {
         logger.info("fetching price list for " + serviceCode + " from " + domain + version.offerVersionUrl + "...");
         InputStream stream = new URL(domain + version.offerVersionUrl).openStream();
-        PriceList priceList = new PriceList(stream);
+        PriceList priceList = new PriceList(stream, serviceCode, tenancies);
+        stream.close();
         
        	InstancePrices prices = new InstancePrices(serviceCode, versionId, version.getBeginDate(), version.getEndDate());
        	prices.importPriceList(priceList, tenancies);
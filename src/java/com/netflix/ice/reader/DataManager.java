@@ -24,6 +24,7 @@ import org.joda.time.DateTime;
 import org.joda.time.Interval;
 
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Interface to feed data to UI.
@@ -58,4 +59,11 @@ public interface DataManager {
      * @return
      */
     int getDataLength(DateTime start);
+
+    /**
+     * Load the data files that hold the interval, e.g. to warm up the cache.
+     * @param interval
+     * @throws ExecutionException if a file fails to load
+     */
+    void load(Interval interval) throws ExecutionException;
 }
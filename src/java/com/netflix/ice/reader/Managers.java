@@ -83,6 +83,30 @@ public interface Managers {
      * 
      */
     Instances getInstances();
+
+    /**
+     *
+     * @return cache of query results for the current data version
+     */
+    QueryCache getQueryCache();
+
+    /**
+     *
+     * @return version of the data being served, changes with each processing run
+     */
+    long getDataVersion();
+
+    /**
+     *
+     * @return number of data files that failed to load, results computed while it changes are incomplete
+     */
+    long getLoadFailures();
+
+    /**
+     *
+     * @return shared executor for the sub-queries of a query
+     */
+    QueryExecutor getQueryExecutor();
     
     /**
      * shutdown all manager instances
@@ -0,0 +1,189 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.Lists;
+
+/**
+ * Cache of dashboard query results. Entries are keyed by a canonical form of the query
+ * together with the data version the result was computed from, and are weighed by their
+ * approximate size in memory.
+ *
+ * The data managers reload their files some time after they are marked stale, so results
+ * computed within the settle period following invalidateAll() are not cached because they
+ * may still come from the previous version of the data.
+ */
+public class QueryCache {
+    private static final Logger logger = LoggerFactory.getLogger(QueryCache.class);
+
+    private final Cache<String, Map<String, Object>> cache;
+    private final long settleMillis;
+    private volatile long invalidatedMillis;
+
+    /**
+     * @param cacheSizeMB memory budget for cached results. Zero disables caching.
+     * @param settleMillis time after invalidation during which results are not cached
+     */
+    public QueryCache(int cacheSizeMB, long settleMillis) {
+        this.settleMillis = settleMillis;
+        this.invalidatedMillis = 0;
+        cache = cacheSizeMB <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumWeight(cacheSizeMB * 1024L)
+                .weigher(new Weigher<String, Map<String, Object>>() {
+                    public int weigh(String key, Map<String, Object> result) {
+                        return (int) ((key.length() * 2 + estimatedSize(result)) / 1024) + 1;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Get a canonical form of the query with the keys of all objects sorted so
+     * that the same query always produces the same cache key.
+     */
+    public static String getKey(Object query, long version) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(version).append(':');
+        appendCanonical(sb, query);
+        return sb.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void appendCanonical(StringBuilder sb, Object value) {
+        if (value instanceof JSONObject) {
+            JSONObject o = (JSONObject) value;
+            List<String> keys = Lists.newArrayList();
+            for (Iterator<String> it = o.keys(); it.hasNext(); )
+                keys.add(it.next());
+            Collections.sort(keys);
+            sb.append('{');
+            for (String key: keys) {
+                sb.append(JSONObject.quote(key)).append(':');
+                appendCanonical(sb, o.opt(key));
+                sb.append(',');
+            }
+            sb.append('}');
+        }
+        else if (value instanceof Map) {
+            Map<Object, Object> map = (Map<Object, Object>) value;
+            List<String> keys = Lists.newArrayList();
+            for (Object key: map.keySet())
+                keys.add(key.toString());
+            Collections.sort(keys);
+            sb.append('{');
+            for (String key: keys) {
+                sb.append(JSONObject.quote(key)).append(':');
+                appendCanonical(sb, map.get(key));
+                sb.append(',');
+            }
+            sb.append('}');
+        }
+        else if (value instanceof JSONArray) {
+            JSONArray a = (JSONArray) value;
+            sb.append('[');
+            for (int i = 0; i < a.length(); i++) {
+                appendCanonical(sb, a.opt(i));
+                sb.append(',');
+            }
+            sb.append(']');
+        }
+        else if (value instanceof Collection) {
+            sb.append('[');
+            for (Object o: (Collection<Object>) value) {
+                appendCanonical(sb, o);
+                sb.append(',');
+            }
+            sb.append(']');
+        }
+        else if (value instanceof Object[]) {
+            appendCanonical(sb, Arrays.asList((Object[]) value));
+        }
+        else {
+            // Request parameters arrive as strings, posted queries as typed JSON values
+            sb.append(JSONObject.quote(value == null || value == JSONObject.NULL ? "" : value.toString()));
+        }
+    }
+
+    /**
+     * Rough in-memory size of a query result
+     */
+    static long estimatedSize(Object value) {
+        if (value instanceof double[])
+            return 16 + ((double[]) value).length * 8;
+        if (value instanceof Map) {
+            long bytes = 48;
+            for (Map.Entry<?, ?> entry: ((Map<?, ?>) value).entrySet()) {
+                // Tags and strings used as keys are shared, so only count the entry
+                bytes += 32 + estimatedSize(entry.getValue());
+            }
+            return bytes;
+        }
+        if (value instanceof Collection) {
+            long bytes = 32;
+            for (Object o: (Collection<?>) value)
+                bytes += 8 + estimatedSize(o);
+            return bytes;
+        }
+        if (value instanceof String)
+            return 40 + ((String) value).length() * 2;
+        return 16;
+    }
+
+    public Map<String, Object> getIfPresent(String key) {
+        return cache == null ? null : cache.getIfPresent(key);
+    }
+
+    /**
+     * Add a result to the cache. Results must not be modified once they're cached.
+     */
+    public void put(String key, Map<String, Object> result) {
+        if (cache == null || System.currentTimeMillis() - invalidatedMillis < settleMillis)
+            return;
+        cache.put(key, result);
+    }
+
+    /**
+     * Drop all cached results. Called when a new processing run is detected.
+     */
+    public void invalidateAll() {
+        invalidatedMillis = System.currentTimeMillis();
+        if (cache == null)
+            return;
+        logger.info("invalidating " + cache.size() + " cached query results");
+        cache.invalidateAll();
+    }
+
+    public long size() {
+        return cache == null ? 0 : cache.size();
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Shared pool for the independent sub-queries of a dashboard query, such as the query for each
+ * product of a resource group query or for each tag of a tag coverage query. The number of threads
+ * bounds the sub-queries running at once across all requests, others wait in the queue.
+ */
+public class QueryExecutor {
+    private final ExecutorService pool;
+
+    public QueryExecutor(int numThreads) {
+        pool = numThreads <= 0 ? null : Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder().setNameFormat("QueryExecutor-%d").setDaemon(true).build());
+    }
+
+    /**
+     * Run the sub-queries and return their results in the same order. A single sub-query
+     * is run on the calling thread, as are all of them if the pool is disabled.
+     */
+    public <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        List<T> results = Lists.newArrayListWithCapacity(tasks.size());
+        try {
+            if (pool == null || tasks.size() <= 1) {
+                for (Callable<T> task: tasks)
+                    results.add(task.call());
+                return results;
+            }
+
+            List<Future<T>> futures = Lists.newArrayListWithCapacity(tasks.size());
+            try {
+                for (Callable<T> task: tasks)
+                    futures.add(pool.submit(task));
+                for (Future<T> future: futures)
+                    results.add(future.get());
+            }
+            finally {
+                // Don't leave sub-queries running for a request that failed
+                for (Future<T> future: futures)
+                    future.cancel(true);
+            }
+            return results;
+        }
+        catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : new RuntimeException(cause);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+        catch (RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void shutdown() {
+        if (pool != null)
+            pool.shutdownNow();
+    }
+}
@@ -48,6 +48,16 @@ public class ReadOnlyData {
         return tagGroups;
     }
 
+    /**
+     * Rough in-memory size in bytes. Tag groups are shared, so only the references to them are counted.
+     */
+    public long getEstimatedSize() {
+        long bytes = 64 + tagGroups.size() * 8L;
+        for (double[] values: data)
+            bytes += 16 + (values == null ? 0 : values.length * 8L);
+        return bytes;
+    }
+
     public static class Serializer {
 
         public static ReadOnlyData deserialize(AccountService accountService, ProductService productService, DataInput in) throws IOException {
@@ -58,6 +68,13 @@ public class ReadOnlyData {
                 keys.add(TagGroup.Serializer.deserialize(accountService, productService, in));
             }
 
+            return deserialize(keys, in);
+        }
+
+        /**
+         * Read the values that follow the keys
+         */
+        public static ReadOnlyData deserialize(List<TagGroup> keys, DataInput in) throws IOException {
             int num = in.readInt();
             double[][] data = new double[num][];
             for (int i = 0; i < num; i++)  {
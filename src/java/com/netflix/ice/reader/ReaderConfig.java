@@ -20,17 +20,10 @@ package com.netflix.ice.reader;
 import com.amazonaws.auth.AWSCredentialsProvider;
 import com.netflix.ice.basic.BasicWeeklyCostEmailService;
 import com.netflix.ice.common.*;
-import com.netflix.ice.tag.Product;
-import com.netflix.ice.tag.TagType;
-import com.netflix.ice.tag.UserTag;
 
-import org.joda.time.DateTime;
-import org.joda.time.DateTimeZone;
-import org.joda.time.Interval;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Collection;
 import java.util.Properties;
 
 /**
@@ -49,6 +42,11 @@ public class ReaderConfig extends Config {
     public final BasicWeeklyCostEmailService costEmailService;
     public final Managers managers;
     public final int monthlyCacheSize;
+    public final int dataCacheSizeMB;
+    public final int queryCacheSizeMB;
+    public final int queryThreads;
+    public final int pollThreads;
+    public final WarmUp warmUp;
 
     /**
      *
@@ -82,6 +80,11 @@ public class ReaderConfig extends Config {
         this.throughputMetricService = throughputMetricService;
         this.costEmailService = costEmailService;
         this.monthlyCacheSize = Integer.parseInt(properties.getProperty(IceOptions.MONTHLY_CACHE_SIZE, "12"));
+        this.dataCacheSizeMB = Integer.parseInt(properties.getProperty(IceOptions.DATA_CACHE_SIZE_MB, "2048"));
+        this.queryCacheSizeMB = Integer.parseInt(properties.getProperty(IceOptions.QUERY_CACHE_SIZE_MB, "64"));
+        this.queryThreads = Integer.parseInt(properties.getProperty(IceOptions.QUERY_THREADS, "8"));
+        this.pollThreads = Integer.parseInt(properties.getProperty(IceOptions.POLL_THREADS, "4"));
+        this.warmUp = new WarmUp(managers, monthlyCacheSize, Integer.parseInt(properties.getProperty(IceOptions.WARM_UP_THREADS, "4")));
 
         ReaderConfig.instance = this;
 
@@ -117,28 +120,8 @@ public class ReaderConfig extends Config {
 
     public void start() {
 
-    	// Prime the data caches
-        Managers managers = ReaderConfig.getInstance().managers;
-        Collection<Product> products = managers.getProducts();
-        for (Product product: products) {
-            TagGroupManager tagGroupManager = managers.getTagGroupManager(product);
-            Interval interval = tagGroupManager.getOverlapInterval(new Interval(new DateTime(DateTimeZone.UTC).minusMonths(monthlyCacheSize), new DateTime(DateTimeZone.UTC)));
-            if (interval == null)
-                continue;
-            for (ConsolidateType consolidateType: ConsolidateType.values()) {
-                readData(product, managers.getCostManager(product, consolidateType), interval, consolidateType, UsageUnit.Dollar);
-                readData(product, managers.getUsageManager(product, consolidateType), interval, consolidateType, UsageUnit.Native);
-            }
-        }
-        
-        // Prime the tag coverage caches
-        for (UserTag tag: managers.getTags()) {
-            TagGroupManager tagGroupManager = managers.getTagGroupManager(null);
-            Interval interval = tagGroupManager.getOverlapInterval(new Interval(new DateTime(DateTimeZone.UTC).minusMonths(monthlyCacheSize), new DateTime(DateTimeZone.UTC)));
-            if (interval == null)
-                continue;
-            readData(null, managers.getTagCoverageManager(tag), interval, ConsolidateType.hourly, UsageUnit.Native);
-        }
+    	// Load the recent data in the background, the status page tells when it's done
+        warmUp.start();
 
         if (costEmailService != null)
             costEmailService.start();
@@ -147,31 +130,9 @@ public class ReaderConfig extends Config {
     public void shutdown() {
         logger.info("Shutting down...");
 
+        instance.warmUp.shutdown();
         instance.managers.shutdown();
         if (instance.costEmailService != null)
             instance.costEmailService.shutdown();
     }
-
-    private void readData(Product product, DataManager dataManager, Interval interval, ConsolidateType consolidateType, UsageUnit usageUnit) {
-        if (consolidateType == ConsolidateType.hourly) {
-            DateTime start = interval.getStart().withDayOfMonth(1).withMillisOfDay(0);
-            do {
-                int hours = dataManager.getDataLength(start);
-                logger.info("found " + hours + " hours data for " + product + " "  + interval);
-                start = start.plusMonths(1);
-            }
-            while (start.isBefore(interval.getEnd()));
-        }
-        else if (consolidateType == ConsolidateType.daily) {
-            DateTime start = interval.getStart().withDayOfYear(1).withMillisOfDay(0);
-            do {
-                dataManager.getDataLength(start);
-                start = start.plusYears(1);
-            }
-            while (start.isBefore(interval.getEnd()));
-        }
-        else {
-            dataManager.getData(interval, new TagLists(), TagType.Account, AggregateType.both, false, usageUnit, 0);
-        }
-    }
 }
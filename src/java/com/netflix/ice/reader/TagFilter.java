@@ -0,0 +1,105 @@
+package com.netflix.ice.reader;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.UserTag;
+
+/**
+ * TagFilter is a TagLists compiled into hash sets so that checking a TagGroup against it
+ * takes constant time for each tag rather than a scan of each list. A filter is built once
+ * for a query with TagLists.getFilter() and then used for all the tag groups of every month
+ * the query covers.
+ *
+ * The filter is a snapshot of the lists at the time it's built, so later changes to the lists
+ * aren't reflected in it.
+ */
+public class TagFilter {
+	// A null set means the tag isn't filtered
+	private final Set<?> accounts;
+	private final Set<?> regions;
+	private final Set<?> zones;
+	private final Set<?> products;
+	private final Set<?> operations;
+	private final Set<?> usageTypes;
+	private final Set<?> resourceGroups;
+	private final List<Set<UserTag>> resourceUserTags;
+	// True if tag groups without user tags pass the user tag filters
+	private final boolean emptyUserTagsMatch;
+
+	TagFilter(TagLists tagLists) {
+		this(tagLists, null);
+	}
+
+	TagFilter(TagLists tagLists, List<List<UserTag>> resourceUserTagLists) {
+		accounts = compile(tagLists.accounts);
+		regions = compile(tagLists.regions);
+		zones = compile(tagLists.zones);
+		products = compile(tagLists.products);
+		operations = compile(tagLists.operations);
+		usageTypes = compile(tagLists.usageTypes);
+		resourceGroups = compile(tagLists.resourceGroups);
+
+		boolean emptyMatch = true;
+		if (resourceUserTagLists == null) {
+			resourceUserTags = null;
+		}
+		else {
+			resourceUserTags = Lists.newArrayList();
+			for (int i = 0; i < resourceUserTagLists.size(); i++) {
+				Set<UserTag> set = compile(resourceUserTagLists.get(i));
+				if (set != null) {
+					resourceUserTags.add(set);
+					emptyMatch &= set.contains(TagListsWithUserTags.emptyTag);
+				}
+				else {
+					resourceUserTags.add(null);
+				}
+			}
+		}
+		emptyUserTagsMatch = emptyMatch;
+	}
+
+	private static <T> Set<T> compile(List<T> list) {
+		return list == null || list.size() == 0 ? null : Sets.newHashSet(list);
+	}
+
+	/**
+	 * Same as TagLists.contains(TagGroup)
+	 */
+	public boolean contains(TagGroup tagGroup) {
+		return contains(tagGroup, false);
+	}
+
+	/**
+	 * Same as TagLists.contains(TagGroup, boolean)
+	 */
+	public boolean contains(TagGroup tagGroup, boolean useResource) {
+		if ((accounts != null && !accounts.contains(tagGroup.account)) ||
+			(regions != null && !regions.contains(tagGroup.region)) ||
+			(zones != null && !zones.contains(tagGroup.zone)) ||
+			(products != null && !products.contains(tagGroup.product)) ||
+			(operations != null && !operations.contains(tagGroup.operation)) ||
+			(usageTypes != null && !usageTypes.contains(tagGroup.usageType)) ||
+			(resourceGroups != null && !resourceGroups.contains(tagGroup.resourceGroup)))
+			return false;
+
+		if (resourceUserTags == null)
+			return true;
+
+		ResourceGroup rg = tagGroup.resourceGroup;
+		if (rg == null || rg.isProductName())
+			return !useResource || emptyUserTagsMatch;
+
+		for (int i = 0; i < resourceUserTags.size(); i++) {
+			Set<UserTag> set = resourceUserTags.get(i);
+			if (set != null && !set.contains(rg.getUserTag(i)))
+				return false;
+		}
+		return true;
+	}
+}
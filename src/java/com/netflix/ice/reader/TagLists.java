@@ -157,6 +157,13 @@ public class TagLists {
     	return contains(tagGroup);
     }
 
+    /**
+     * Compile the lists into a filter for checking many tag groups
+     */
+    public TagFilter getFilter() {
+    	return new TagFilter(this);
+    }
+
     public boolean contains(Tag tag, TagType groupBy, int userTagGroupByIndex) {
         boolean result = true;
 
@@ -66,12 +66,10 @@ public class TagListsWithUserTags extends TagLists {
         	}        	
         }
         else {
-	        UserTag[] userTags = tagGroup.resourceGroup.getUserTags();
-	        
 	        for (int i = 0; i < resourceUserTagLists.size(); i++) {
 	        	List<UserTag> resourceTags = resourceUserTagLists.get(i);
 	            if (resourceTags != null && resourceTags.size() > 0) {
-	                if (!resourceTags.contains(userTags.length > i ? userTags[i] : emptyTag))
+	                if (!resourceTags.contains(tagGroup.resourceGroup.getUserTag(i)))
 	                	return false;
 	            }
 	        }
@@ -84,6 +82,11 @@ public class TagListsWithUserTags extends TagLists {
     	return contains(tagGroup, false);
     }
 
+    @Override
+    public TagFilter getFilter() {
+    	return new TagFilter(this, resourceUserTagLists);
+    }
+
     
     /*
      * When groupBy is Tag, tag will be a UserTag.
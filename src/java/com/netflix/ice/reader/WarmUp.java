@@ -0,0 +1,264 @@
+/*
+ *
+ *  Copyright 2013 Netflix, Inc.
+ *
+ *     Licensed under the Apache License, Version 2.0 (the "License");
+ *     you may not use this file except in compliance with the License.
+ *     You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *     Unless required by applicable law or agreed to in writing, software
+ *     distributed under the License is distributed on an "AS IS" BASIS,
+ *     WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *     See the License for the specific language governing permissions and
+ *     limitations under the License.
+ *
+ */
+package com.netflix.ice.reader;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.UserTag;
+
+/**
+ * Loads the recent data of all the data managers when the reader starts. The files are loaded
+ * concurrently, the data across all products first followed by the tag coverage and the
+ * individual products, and the most recent months of each first. The reader is ready once
+ * all of them have been loaded or have failed to load.
+ *
+ * All the files share one least recently used data cache, so when the recent months don't fit
+ * in its budget the products loaded last push out the data across all products loaded first.
+ * Once everything is loaded, the data across all products is read again so that it's the most
+ * recently used and the products are evicted before it.
+ */
+public class WarmUp {
+    private static final Logger logger = LoggerFactory.getLogger(WarmUp.class);
+
+    public enum State {
+        pending,
+        warming,
+        ready
+    }
+
+    private final Managers managers;
+    private final int numMonths;
+    private final int numThreads;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicInteger finished = new AtomicInteger();
+    private volatile int total = 0;
+    private volatile long startMillis = 0;
+    private volatile long endMillis = 0;
+    private ExecutorService pool;
+    private final List<Task> first = Lists.newArrayList();
+
+    /**
+     * @param managers managers to load the data of
+     * @param numMonths number of recent months to load
+     * @param numThreads number of files to load at the same time
+     */
+    public WarmUp(Managers managers, int numMonths, int numThreads) {
+        this.managers = managers;
+        this.numMonths = numMonths;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * Start loading in the background
+     */
+    public synchronized void start() {
+        if (pool != null)
+            return;
+        List<Task> tasks = getTasks(new DateTime(DateTimeZone.UTC));
+        Collections.sort(tasks);
+        for (Task task: tasks) {
+            if (task.priority == 0)
+                first.add(task);
+        }
+        total = tasks.size();
+        startMillis = System.currentTimeMillis();
+        logger.info("warming up " + total + " data files with " + numThreads + " threads...");
+        if (total == 0)
+            endMillis = System.currentTimeMillis();
+
+        // Tasks are queued in priority order
+        pool = Executors.newFixedThreadPool(numThreads, new ThreadFactoryBuilder().setNameFormat("WarmUp-%d").setDaemon(true).build());
+        for (Task task: tasks)
+            pool.submit(task);
+        pool.shutdown();
+    }
+
+    public synchronized void shutdown() {
+        if (pool != null)
+            pool.shutdownNow();
+    }
+
+    public State getState() {
+        if (startMillis == 0)
+            return State.pending;
+        return isReady() ? State.ready : State.warming;
+    }
+
+    public boolean isReady() {
+        return startMillis > 0 && finished.get() >= total;
+    }
+
+    /**
+     * Progress of the warm-up for the status page
+     */
+    public Map<String, Object> getStatus() {
+        long end = endMillis > 0 ? endMillis : System.currentTimeMillis();
+        Map<String, Object> status = Maps.newLinkedHashMap();
+        status.put("state", getState().name());
+        status.put("ready", isReady());
+        status.put("total", total);
+        status.put("completed", completed.get());
+        status.put("failed", failed.get());
+        status.put("percent", total == 0 ? (startMillis > 0 ? 100 : 0) : finished.get() * 100 / total);
+        status.put("elapsedSecs", startMillis == 0 ? 0 : (end - startMillis) / 1000);
+        return status;
+    }
+
+    /**
+     * Read the highest priority data again, oldest first, so the cache evicts the other data before it
+     */
+    private void touchFirst() {
+        for (Task task: Lists.reverse(first)) {
+            try {
+                task.load();
+            }
+            catch (Exception e) {
+                logger.error("failed to load " + task.name, e);
+            }
+        }
+    }
+
+    List<Task> getTasks(DateTime now) {
+        List<Task> tasks = Lists.newArrayList();
+        Interval recent = new Interval(now.minusMonths(numMonths), now);
+
+        for (Product product: managers.getProducts()) {
+            TagGroupManager tagGroupManager = managers.getTagGroupManager(product);
+            Interval interval = tagGroupManager == null ? null : tagGroupManager.getOverlapInterval(recent);
+            if (interval == null)
+                continue;
+            int priority = product == null ? 0 : 2;
+            String name = product == null ? "all" : product.name;
+            for (ConsolidateType consolidateType: ConsolidateType.values()) {
+                addTasks(tasks, priority, "cost " + name, managers.getCostManager(product, consolidateType), interval, consolidateType);
+                addTasks(tasks, priority, "usage " + name, managers.getUsageManager(product, consolidateType), interval, consolidateType);
+            }
+        }
+
+        TagGroupManager tagGroupManager = managers.getTagGroupManager(null);
+        Interval interval = tagGroupManager == null ? null : tagGroupManager.getOverlapInterval(recent);
+        if (interval != null) {
+            for (UserTag tag: managers.getTags())
+                addTasks(tasks, 1, "coverage " + tag.name, managers.getTagCoverageManager(tag), interval, ConsolidateType.hourly);
+        }
+        return tasks;
+    }
+
+    private void addTasks(List<Task> tasks, int priority, String name, final DataManager dataManager, final Interval interval,
+            ConsolidateType consolidateType) {
+        if (dataManager == null)
+            return;
+
+        if (consolidateType == ConsolidateType.hourly || consolidateType == ConsolidateType.daily) {
+            // One file per month or year
+            DateTime start = consolidateType == ConsolidateType.hourly ?
+                    interval.getStart().withDayOfMonth(1).withMillisOfDay(0) :
+                    interval.getStart().withDayOfYear(1).withMillisOfDay(0);
+            do {
+                final DateTime key = start;
+                start = consolidateType == ConsolidateType.hourly ? start.plusMonths(1) : start.plusYears(1);
+                final Interval file = new Interval(key, start);
+                tasks.add(new Task(priority, key, name + " " + consolidateType + " " + key.toString("yyyy-MM")) {
+                    void load() throws ExecutionException {
+                        dataManager.load(file);
+                    }
+                });
+            }
+            while (start.isBefore(interval.getEnd()));
+        }
+        else {
+            tasks.add(new Task(priority, interval.getEnd(), name + " " + consolidateType) {
+                void load() throws ExecutionException {
+                    dataManager.load(interval);
+                }
+            });
+        }
+    }
+
+    abstract class Task implements Runnable, Comparable<Task> {
+        final int priority;
+        final DateTime date;
+        final String name;
+
+        Task(int priority, DateTime date, String name) {
+            this.priority = priority;
+            this.date = date;
+            this.name = name;
+        }
+
+        /**
+         * Load the files through the data manager so that failures are reported rather than served as empty data
+         */
+        abstract void load() throws ExecutionException;
+
+        public void run() {
+            boolean loaded = false;
+            try {
+                load();
+                loaded = true;
+                logger.info("loaded " + name);
+                completed.incrementAndGet();
+            }
+            catch (Exception e) {
+                logger.error("failed to load " + name, e);
+            }
+            finally {
+                // Count errors such as running out of memory too, or the reader would never be ready
+                if (!loaded)
+                    failed.incrementAndGet();
+                if (finished.incrementAndGet() == total) {
+                    endMillis = System.currentTimeMillis();
+                    logger.info("warm-up done in " + (endMillis - startMillis) / 1000 + " seconds, " + failed.get() + " failed");
+                    touchFirst();
+                }
+            }
+        }
+
+        /**
+         * Lower priority values first, then the most recent data first
+         */
+        public int compareTo(Task t) {
+            if (priority != t.priority)
+                return priority < t.priority ? -1 : 1;
+            return t.date.compareTo(date);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
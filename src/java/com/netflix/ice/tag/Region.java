@@ -26,6 +26,9 @@ import java.util.concurrent.ConcurrentMap;
 public class Region extends Tag {
 	private static final long serialVersionUID = 1L;
 	
+	// Must be declared ahead of the region constants since their constructors assign the indices
+	private static int numRegions;
+	
 	public static final Region US_EAST_1 = new Region("us-east-1", "USE1", "US", "US East (N. Virginia)");
     public static final Region US_EAST_2 = new Region("us-east-2", "USE2", "US", "US East (Ohio)");
     public static final Region US_WEST_1 = new Region("us-west-1", "USW1", "US", "US West (N. California)");
@@ -91,10 +94,13 @@ public class Region extends Tag {
     public final String shortName;
     public final String cloudFrontName;
     public final String priceListName;
+    /** Dense index of the region for use in array-based lookup tables */
+    public final int index;
     List<Zone> zones = Lists.newArrayList();
 
     private Region(String name, String shortName, String cloudFrontName, String priceListName) {
         super(name);
+        this.index = numRegions++;
         this.shortName = shortName;
         this.cloudFrontName = cloudFrontName;
         this.priceListName = priceListName;
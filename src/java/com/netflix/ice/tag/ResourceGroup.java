@@ -18,7 +18,7 @@
 package com.netflix.ice.tag;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.MapMaker;
 
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
@@ -30,25 +30,34 @@ public class ResourceGroup extends Tag {
 	
 	public static final String separator = "|";
 	private static final String splitRegex = "\\|";
+	private static final UserTag emptyTag = UserTag.get("");
 	
-	private UserTag[] resourceTags;
 	/**
-	 * isProductName indicates that the resourceTags is simply the product name.
+	 * Interned user tag values, one for each of the custom tags the resource group was built from.
+	 * Resource groups that hold a single value have a one element tuple. Resource groups that only hold
+	 * a product name have none, their tuple is built when asked for.
+	 */
+	private final UserTag[] resourceTags;
+	/**
+	 * isProductName indicates that the resource group is simply the product name.
 	 */
 	private final boolean isProductName;
-    private static ConcurrentMap<String, ResourceGroup> resourceGroups = Maps.newConcurrentMap();
+    // Weak values so that resource groups no longer referenced by any tag group can be collected
+    private static ConcurrentMap<String, ResourceGroup> resourceGroups = new MapMaker().weakValues().makeMap();
 
 	protected ResourceGroup(String name, boolean isProductName) {
         super(name);
         this.isProductName = isProductName;
+        this.resourceTags = isProductName ? null : new UserTag[]{ UserTag.get(name) };
     }
 	
-	protected ResourceGroup(String[] tags) {
-		super(StringUtils.join(tags, separator));
+	protected ResourceGroup(String name, String[] tags) {
+		super(name);
 		this.isProductName = false;
 		resourceTags = new UserTag[tags.length];
+		// Missing tag values are held as the empty tag so that filters and group by see ""
 		for (int i = 0; i < tags.length; i++)
-			resourceTags[i] = UserTag.get(tags[i]);
+			resourceTags[i] = tags[i] == null ? emptyTag : UserTag.get(tags[i]);
 	}
 	
 	public boolean isProductName() {
@@ -56,33 +65,50 @@ public class ResourceGroup extends Tag {
 	}
 	
 	public UserTag[] getUserTags() {
-		if (resourceTags == null) {
-			String[] tags = name.split(splitRegex, -1);
-			resourceTags = new UserTag[tags.length];
-			for (int i = 0; i < tags.length; i++)
-				resourceTags[i] = UserTag.get(tags[i]);
-		}
-		return resourceTags;
+		return isProductName ? new UserTag[]{ UserTag.get(name) } : resourceTags;
+	}
+	
+	/**
+	 * Number of user tag values in the resource group
+	 */
+	public int getNumUserTags() {
+		return isProductName ? 1 : resourceTags.length;
+	}
+	
+	/**
+	 * Get the value of the user tag at index. Resource groups built before a custom tag
+	 * was added have fewer values, so the empty tag is returned for any index past the end.
+	 */
+	public UserTag getUserTag(int index) {
+		if (isProductName)
+			return index == 0 ? UserTag.get(name) : emptyTag;
+		return index < resourceTags.length ? resourceTags[index] : emptyTag;
 	}
 	
     public static ResourceGroup getResourceGroup(String name, boolean isProductName) {
-    	if (name.contains(separator)) {
-    		return getResourceGroup(name.split(splitRegex, -1));
-    	}
         ResourceGroup resourceGroup = resourceGroups.get(name);
         if (resourceGroup == null) {
-            resourceGroups.putIfAbsent(name, new ResourceGroup(name, isProductName));
-            resourceGroup = resourceGroups.get(name);
+        	if (name.contains(separator))
+        		return getResourceGroup(name, name.split(splitRegex, -1));
+            resourceGroup = new ResourceGroup(name, isProductName);
+            ResourceGroup oldOne = resourceGroups.putIfAbsent(name, resourceGroup);
+            if (oldOne != null)
+            	resourceGroup = oldOne;
         }
         return resourceGroup;
     }
 
     public static ResourceGroup getResourceGroup(String[] tags) {
-    	String name = StringUtils.join(tags, separator);
+    	return getResourceGroup(StringUtils.join(tags, separator), tags);
+    }
+
+    private static ResourceGroup getResourceGroup(String name, String[] tags) {
         ResourceGroup resourceGroup = resourceGroups.get(name);
         if (resourceGroup == null) {
-            resourceGroups.putIfAbsent(name, new ResourceGroup(tags));
-            resourceGroup = resourceGroups.get(name);
+            resourceGroup = new ResourceGroup(name, tags);
+            ResourceGroup oldOne = resourceGroups.putIfAbsent(name, resourceGroup);
+            if (oldOne != null)
+            	resourceGroup = oldOne;
         }
         return resourceGroup;
     }
@@ -18,7 +18,7 @@
 package com.netflix.ice.tag;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.MapMaker;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -28,17 +28,23 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.util.List;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class UsageType extends Tag {
 	private static final long serialVersionUID = 1L;
 	private static final Logger logger = LoggerFactory.getLogger(UsageType.class);
     public final String unit;
+    /** Dense index of the usage type for use in array-based lookup tables */
+    public final int index;
+
+    private static final AtomicInteger numUsageTypes = new AtomicInteger();
 
     private UsageType (String name, String unit) {
         super(name);
         this.unit = unit;
+        this.index = numUsageTypes.getAndIncrement();
     }
-    private static ConcurrentMap<String, UsageType> usageTypes = Maps.newConcurrentMap();
+    private static ConcurrentMap<String, UsageType> usageTypes = new MapMaker().weakValues().makeMap();
 
     public static void serialize(DataOutput out, UsageType usageType) throws IOException {
         out.writeUTF(usageType.name);
@@ -64,8 +70,10 @@ public class UsageType extends Tag {
     public static UsageType getUsageType(String name, String unit) {
         UsageType usageType = usageTypes.get(name);
         if (usageType == null) {
-            usageTypes.putIfAbsent(name, new UsageType(name, unit));
-            usageType = usageTypes.get(name);
+            usageType = new UsageType(name, unit);
+            UsageType oldOne = usageTypes.putIfAbsent(name, usageType);
+            if (oldOne != null)
+            	usageType = oldOne;
         }
         else if (!usageType.unit.equals(unit)) {
             logger.error("found different units for " + usageType + ", " + usageType.unit + ", " + unit);
@@ -75,8 +83,11 @@ public class UsageType extends Tag {
 
     public static List<UsageType> getUsageTypes(List<String> names) {
         List<UsageType> result = Lists.newArrayList();
-        for (String name: names)
-            result.add(usageTypes.get(name));
+        for (String name: names) {
+            UsageType usageType = usageTypes.get(name);
+            if (usageType != null)
+                result.add(usageType);
+        }
         return result;
     }
 }
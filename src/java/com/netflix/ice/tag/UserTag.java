@@ -4,13 +4,13 @@ import java.util.List;
 import java.util.concurrent.ConcurrentMap;
 
 import com.google.common.collect.Lists;
-import com.google.common.collect.Maps;
+import com.google.common.collect.MapMaker;
 
 public class UserTag extends Tag {
 	private static final long serialVersionUID = 1L;
 	public static final String none = "(none)";
 
-    private static ConcurrentMap<String, UserTag> tagsByName = Maps.newConcurrentMap();
+    private static ConcurrentMap<String, UserTag> tagsByName = new MapMaker().weakValues().makeMap();
 
 	private UserTag(String name) {
 		super(name);
@@ -22,8 +22,10 @@ public class UserTag extends Tag {
 		String key = name.toLowerCase();
         UserTag tag = tagsByName.get(key);
         if (tag == null) {
-        	tagsByName.putIfAbsent(key, new UserTag(name));
-        	tag = tagsByName.get(key);
+        	tag = new UserTag(name);
+        	UserTag oldOne = tagsByName.putIfAbsent(key, tag);
+        	if (oldOne != null)
+        		tag = oldOne;
         }
         return tag;
 	}
@@ -0,0 +1,206 @@
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.Cube;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.AggregateType;
+import com.netflix.ice.reader.ReadOnlyData;
+import com.netflix.ice.reader.TagLists;
+import com.netflix.ice.reader.TagListsWithUserTags;
+import com.netflix.ice.reader.UsageUnit;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+import com.netflix.ice.tag.UserTag;
+
+public class BasicDataManagerTest {
+	private static ProductService productService = new BasicProductService(null);
+	private static AccountService accountService = new BasicAccountService(new Properties());
+	private final static DateTime testMonth = new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC);
+	private final static Interval interval = new Interval(testMonth, testMonth.plusMonths(1));
+
+	private static TagGroup[] tagGroups;
+	private static double[][] values;
+	private static BasicTagGroupManager tagGroupManager;
+	private static DataCache dataCache = new DataCache(64);
+	private static BasicDataManager dataManager;
+
+	@BeforeClass
+	public static void init() {
+		tagGroups = new TagGroup[]{
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "ProductA", accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "TagA|", 	accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationB", "UsageTypeA", "", "TagB|", 	accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1b", "ProductA", "OperationA", "UsageTypeB", "", "|TagX", 	accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-west-2", "us-west-2a", "ProductA", "OperationA", "UsageTypeA", "", "|TagY", 	accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "|", 		accountService, productService),
+				TagGroup.getTagGroup("Account2", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "ProductA", accountService, productService),
+				TagGroup.getTagGroup("Account2", "us-east-1", "us-east-1a", "ProductA", "OperationB", "UsageTypeA", "", "TagA|TagX", accountService, productService),
+				TagGroup.getTagGroup("Account2", "us-west-2", null, 		 "ProductA", "OperationA", "UsageTypeB", "", "|TagX", 	accountService, productService),
+				// Grouped queries leave out the lent operations
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", Operation.lentInstancesHeavy.name, "UsageTypeA", "", "ProductA", accountService, productService),
+		};
+		values = new double[][]{
+				{ 1, 2, 4, 8, 16, 32, 64, 128, 256, 512 },
+		};
+
+		TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups = Maps.newTreeMap();
+		tagGroupsWithResourceGroups.put(testMonth.getMillis(), Lists.newArrayList(tagGroups));
+		tagGroupManager = new BasicTagGroupManager(tagGroupsWithResourceGroups);
+
+		dataManager = new BasicDataManager(testMonth, "cost_monthly_all", ConsolidateType.monthly, tagGroupManager, false, dataCache, accountService, productService, null);
+		dataManager.fileCache.put(testMonth, new File("cost_monthly_all"));
+		dataCache.put(dataManager, testMonth, new ReadOnlyData(values, Lists.newArrayList(tagGroups)));
+	}
+
+	@AfterClass
+	public static void shutdown() {
+		dataManager.shutdown();
+	}
+
+	/**
+	 * Compute the expected results by scanning all the tag groups for each group
+	 */
+	private Map<Tag, Double> getExpected(TagLists tagLists, TagType groupBy, int userTagGroupByIndex) {
+		Map<Tag, Double> expected = Maps.newTreeMap();
+		Map<Tag, TagLists> tagListsMap = tagGroupManager.getTagListsMap(interval, tagLists, groupBy, false, userTagGroupByIndex);
+		for (Tag tag: tagListsMap.keySet()) {
+			double total = 0;
+			for (int i = 0; i < tagGroups.length; i++) {
+				if (tagListsMap.get(tag).contains(tagGroups[i], true))
+					total += values[0][i];
+			}
+			Tag key = groupBy == TagType.Tag && tag.name.isEmpty() ? UserTag.get(UserTag.none) : tag;
+			Double existing = expected.get(key);
+			expected.put(key, existing == null ? total : existing + total);
+		}
+		return expected;
+	}
+
+	private void check(TagLists tagLists, TagType groupBy, int userTagGroupByIndex) {
+		Map<Tag, Double> expected = getExpected(tagLists, groupBy, userTagGroupByIndex);
+		Map<Tag, double[]> result = dataManager.getData(interval, tagLists, groupBy, AggregateType.none, false, UsageUnit.Instances, userTagGroupByIndex);
+		assertEquals("wrong groups for " + groupBy, expected.keySet(), result.keySet());
+		for (Tag tag: expected.keySet())
+			assertEquals("wrong value for " + tag + " grouped by " + groupBy, expected.get(tag), result.get(tag)[0], 0.001);
+	}
+
+	@Test
+	public void testGroupBy() {
+		TagLists tagLists = new TagLists();
+		for (TagType groupBy: new TagType[]{ TagType.Account, TagType.Region, TagType.Zone, TagType.Product, TagType.Operation, TagType.UsageType, TagType.ResourceGroup })
+			check(tagLists, groupBy, 0);
+
+		tagLists = new TagLists(Lists.newArrayList(accountService.getAccountByName("Account1")));
+		for (TagType groupBy: new TagType[]{ TagType.Region, TagType.Operation, TagType.ResourceGroup })
+			check(tagLists, groupBy, 0);
+	}
+
+	@Test
+	public void testGroupByUserTag() {
+    	List<List<UserTag>> resourceTagLists = Lists.newArrayList();
+    	resourceTagLists.add(null);
+    	resourceTagLists.add(null);
+		TagLists tagLists = new TagListsWithUserTags(null, null, null, null, null, null, resourceTagLists);
+		check(tagLists, TagType.Tag, 0);
+		check(tagLists, TagType.Tag, 1);
+		check(tagLists, TagType.Account, 0);
+
+		resourceTagLists = Lists.newArrayList();
+		resourceTagLists.add(Lists.newArrayList(UserTag.get(""), UserTag.get("TagA")));
+		resourceTagLists.add(Lists.newArrayList(UserTag.get("TagX")));
+		tagLists = new TagListsWithUserTags(null, null, null, null, null, null, resourceTagLists);
+		check(tagLists, TagType.Tag, 0);
+		check(tagLists, TagType.Tag, 1);
+	}
+
+	@Test
+	public void testAggregate() {
+		Map<Tag, double[]> result = dataManager.getData(interval, new TagLists(), null, AggregateType.none, false, UsageUnit.Instances, 0);
+		assertEquals("wrong number of groups", 1, result.size());
+		double total = 0;
+		for (double v: values[0])
+			total += v;
+		assertEquals("wrong aggregated value", total, result.get(Tag.aggregated)[0], 0.001);
+	}
+
+	@Test
+	public void testCube() throws Exception {
+		Cube cube = new Cube(Lists.newArrayList(TagType.Account, TagType.Region, TagType.Operation));
+
+		// Sum the columns into the cube's keys the same way the processor does
+		Map<TagGroup, Integer> keyIndex = Maps.newLinkedHashMap();
+		for (TagGroup tagGroup: tagGroups) {
+			TagGroup key = cube.getKey(tagGroup);
+			if (!keyIndex.containsKey(key))
+				keyIndex.put(key, keyIndex.size());
+		}
+		double[][] cubeValues = new double[][]{ new double[keyIndex.size()] };
+		for (int i = 0; i < tagGroups.length; i++)
+			cubeValues[0][keyIndex.get(cube.getKey(tagGroups[i]))] += values[0][i];
+
+		BasicDataManager manager = new BasicDataManager(testMonth, "cost_monthly_all", ConsolidateType.monthly, tagGroupManager, false, dataCache, accountService, productService, null);
+		CubeDataManager cubeManager = new CubeDataManager(testMonth, "cost_monthly_all", ConsolidateType.monthly, cube, false, dataCache, accountService, productService);
+		try {
+			manager.fileCache.put(testMonth, new File("cost_monthly_all"));
+			dataCache.put(manager, testMonth, new ReadOnlyData(values, Lists.newArrayList(tagGroups)));
+			cubeManager.fileCache.put(testMonth, new File("cost_monthly_all_cube_account_region_operation"));
+			dataCache.put(cubeManager, testMonth, new ReadOnlyData(cubeValues, Lists.newArrayList(keyIndex.keySet())));
+			manager.addCube(cubeManager);
+
+			TagLists accountFilter = new TagLists(Lists.newArrayList(accountService.getAccountByName("Account1")));
+			assertSame("should use cube", cubeManager, getSource(manager, accountFilter, TagType.Region));
+			assertSame("should use cube", cubeManager, getSource(manager, new TagLists(), null));
+			assertSame("should use cube for group by operation", cubeManager, getSource(manager, new TagLists(), TagType.Operation));
+			assertSame("should not use cube for group by usage type", manager, getSource(manager, new TagLists(), TagType.UsageType));
+			TagLists productFilter = new TagLists(null, null, null, Lists.newArrayList(productService.getProductByName("ProductA")));
+			assertSame("should not use cube for product filter", manager, getSource(manager, productFilter, TagType.Account));
+			assertSame("should not use cube for ECUs", manager, manager.getSource(interval, Lists.newArrayList(new TagLists()), null, UsageUnit.ECUs));
+
+			// Check the grouped results against the full data with the operations filled in for each group
+			Map<Tag, double[]> byAccount = manager.getData(interval, new TagLists(), TagType.Account, AggregateType.none, false, UsageUnit.Dollar, 0);
+			assertEquals("wrong value for Account1 from cube", 1.0 + 2 + 4 + 8 + 16 + 32, byAccount.get(accountService.getAccountByName("Account1"))[0], 0.001);
+
+			for (TagType groupBy: new TagType[]{ TagType.Account, TagType.Region, TagType.Operation, null }) {
+				for (TagLists tagLists: new TagLists[]{ new TagLists(), accountFilter }) {
+					Map<Tag, double[]> expected = dataManager.getData(interval, tagLists, groupBy, AggregateType.both, false, UsageUnit.Dollar, 0);
+					Map<Tag, double[]> result = manager.getData(interval, tagLists, groupBy, AggregateType.both, false, UsageUnit.Dollar, 0);
+					assertEquals("wrong groups for " + groupBy, expected.keySet(), result.keySet());
+					for (Tag tag: expected.keySet())
+						assertEquals("wrong value for " + tag + " grouped by " + groupBy, expected.get(tag)[0], result.get(tag)[0], 0.001);
+				}
+			}
+		}
+		finally {
+			manager.shutdown();
+		}
+	}
+
+	private DataFilePoller getSource(BasicDataManager manager, TagLists tagLists, TagType groupBy) throws Exception {
+		Map<Tag, TagLists> tagListsMap = groupBy == null ?
+				Collections.<Tag, TagLists>singletonMap(Tag.aggregated, tagLists) :
+				tagGroupManager.getTagListsMap(interval, tagLists, groupBy, false, 0);
+		return manager.getSource(interval, tagListsMap.values(), groupBy, UsageUnit.Dollar);
+	}
+}
@@ -8,6 +8,7 @@ import java.util.Map;
 
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.netflix.ice.common.LineItem;
 import com.netflix.ice.common.ProductService;
@@ -46,6 +47,37 @@ public class BasicResourceServiceTest {
 		assertEquals("Resource name doesn't match", "Prod" + ResourceGroup.separator + "serviceAPI", resource.name);
 	}
 	
+	@Test
+	public void testGetResourceWithAliasedValue() {
+		CostAndUsageReport caur = new CostAndUsageReport(new File(resourcesDir, "ResourceTest-Manifest.json"), null);
+		LineItem li = new CostAndUsageReportLineItem(false, caur);		
+		Map<String, List<String>> tagKeys = Maps.newHashMap();
+		Map<String, List<String>> tagValues = Maps.newHashMap();
+		tagValues.put("Prod", Lists.newArrayList("production"));
+		ProductService ps = new BasicProductService(null);
+		String[] customTags = new String[]{
+				"Environment", "Product"
+			};
+		ResourceService rs = new BasicResourceService(ps, customTags, new String[]{}, tagKeys, tagValues);
+		rs.initHeader(li.getResourceTagsHeader());
+		Product ec2Instance = ps.getProductByName(Product.ec2Instance);
+		
+		li.setItems(item);
+		ResourceGroup resource = rs.getResourceGroup(null, null, ec2Instance, li, 0);
+		
+		// Value in the alternate case tag column that maps to the canonical value
+		String[] aliased = new String[]{ "DiscountedUsage", "foobar@example.com", "", "PRODUCTION", "serviceAPI" };
+		li.setItems(aliased);
+		assertEquals("Tag value doesn't match", "Prod", rs.getUserTagValue(li, "Environment"));
+		assertSame("Resource should be the same", resource, rs.getResourceGroup(null, null, ec2Instance, li, 0));
+		
+		// No values for any of the custom tags
+		String[] untagged = new String[]{ "DiscountedUsage", "foobar@example.com", "", "", "" };
+		li.setItems(untagged);
+		assertNull("Tag value should be null", rs.getUserTagValue(li, "Environment"));
+		assertEquals("Resource should be product name", ec2Instance.name, rs.getResourceGroup(null, null, ec2Instance, li, 0).name);
+	}
+	
 	@Test
 	public void testUserTags() {
 		Map<String, List<String>> tagKeys = Maps.newHashMap();
@@ -6,6 +6,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
 
 import org.joda.time.DateTime;
@@ -16,11 +17,15 @@ import org.junit.Test;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.netflix.ice.common.AccountService;
 import com.netflix.ice.common.ProductService;
 import com.netflix.ice.common.TagGroup;
 import com.netflix.ice.reader.TagLists;
 import com.netflix.ice.reader.TagListsWithUserTags;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
 import com.netflix.ice.tag.Tag;
 import com.netflix.ice.tag.TagType;
 import com.netflix.ice.tag.UserTag;
@@ -158,4 +163,86 @@ public class BasicTagGroupManagerTest {
 		}
 	}
 
+	private void checkFacets(BasicTagGroupManager manager, Interval interval, TagGroup[] tagGroups, TagLists tagLists) {
+		Set<Tag> accounts = Sets.newTreeSet();
+		Set<Tag> zones = Sets.newTreeSet();
+		Set<Tag> operations = Sets.newTreeSet();
+		Set<Tag> resourceGroups = Sets.newTreeSet();
+		Set<Tag> userTags = Sets.newTreeSet();
+		for (TagGroup tagGroup: tagGroups) {
+			TagGroup withoutResourceGroup = TagGroup.getTagGroup(tagGroup.account, tagGroup.region, tagGroup.zone, tagGroup.product, tagGroup.operation, tagGroup.usageType, null);
+			if (tagLists.contains(withoutResourceGroup)) {
+				accounts.add(tagGroup.account);
+				if (tagGroup.zone != null)
+					zones.add(tagGroup.zone);
+				operations.add(tagGroup.operation);
+			}
+			if (tagLists.contains(tagGroup) && tagGroup.resourceGroup != null) {
+				resourceGroups.add(tagGroup.resourceGroup);
+				userTags.add(tagGroup.resourceGroup.isProductName() ? UserTag.get("") : tagGroup.resourceGroup.getUserTag(1));
+			}
+		}
+		assertEquals("wrong accounts for " + tagLists, accounts, Sets.newTreeSet(manager.getAccounts(interval, tagLists)));
+		assertEquals("wrong zones for " + tagLists, zones, Sets.newTreeSet(manager.getZones(interval, tagLists)));
+		assertEquals("wrong operations for " + tagLists, operations, Sets.newTreeSet(manager.getOperations(interval, tagLists)));
+		assertEquals("wrong resource groups for " + tagLists, resourceGroups, Sets.newTreeSet(manager.getResourceGroups(interval, tagLists)));
+		assertEquals("wrong user tags for " + tagLists, userTags, Sets.newTreeSet(manager.getResourceGroupTags(interval, tagLists, 1)));
+	}
+
+	@Test
+	public void testFacets() {
+		TagGroup[] tagGroups = new TagGroup[]{
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "ProductA", accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "TagA|", 	accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1b", "ProductA", "OperationB", "UsageTypeA", "", "TagB|TagY", accountService, productService),
+				TagGroup.getTagGroup("Account2", "us-west-2", null, 		"ProductA", "OperationA", "UsageTypeB", "", "|TagX", 	accountService, productService),
+				TagGroup.getTagGroup("Account2", "us-west-2", "us-west-2a", "ProductA", "OperationC", "UsageTypeB", "", null, 		accountService, productService),
+		};
+		TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups = Maps.newTreeMap();
+		tagGroupsWithResourceGroups.put(testMonth.getMillis(), Lists.newArrayList(tagGroups));
+		BasicTagGroupManager manager = new BasicTagGroupManager(tagGroupsWithResourceGroups);
+		Interval interval = new Interval(testMonth.getMillis(), testMonth.plusMonths(1).getMillis());
+
+		checkFacets(manager, interval, tagGroups, new TagLists());
+		checkFacets(manager, interval, tagGroups, new TagLists(Lists.newArrayList(accountService.getAccountByName("Account2"))));
+		checkFacets(manager, interval, tagGroups, new TagLists(null, Lists.newArrayList(Region.US_EAST_1), null, null, Lists.newArrayList(Operation.getOperation("OperationB"), Operation.getOperation("OperationC"))));
+		checkFacets(manager, interval, tagGroups, new TagLists(null, null, null, null, null, null, Lists.newArrayList(ResourceGroup.getResourceGroup("TagA|", false))));
+
+		List<List<UserTag>> resourceTagLists = Lists.newArrayList();
+		resourceTagLists.add(Lists.newArrayList(UserTag.get(""), UserTag.get("TagB")));
+		resourceTagLists.add(null);
+		checkFacets(manager, interval, tagGroups, new TagListsWithUserTags(null, null, null, null, null, null, resourceTagLists));
+	}
+
+	@Test
+	public void testMonthsNotCached() {
+		TagGroup[] tagGroups = new TagGroup[]{
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "TagA|", 	accountService, productService),
+				TagGroup.getTagGroup("Account2", "us-west-2", null, 		"ProductA", "OperationB", "UsageTypeB", "", "|TagX", 	accountService, productService),
+				TagGroup.getTagGroup("Account2", "us-west-2", "us-west-2a", "ProductA", "OperationC", "UsageTypeB", "", null, 		accountService, productService),
+		};
+		TreeMap<Long, Collection<TagGroup>> tagGroupsWithResourceGroups = Maps.newTreeMap();
+		tagGroupsWithResourceGroups.put(testMonth.getMillis(), Lists.newArrayList(tagGroups[0], tagGroups[1]));
+		tagGroupsWithResourceGroups.put(testMonth.plusMonths(1).getMillis(), Lists.newArrayList(tagGroups[2]));
+		tagGroupsWithResourceGroups.put(testMonth.plusMonths(2).getMillis(), Lists.newArrayList(tagGroups[0]));
+		// Only index one month at a time
+		BasicTagGroupManager manager = new BasicTagGroupManager(tagGroupsWithResourceGroups, 1);
+
+		for (int i = 0; i < 2; i++) {
+			for (Long monthMilli: tagGroupsWithResourceGroups.keySet()) {
+				Interval interval = new Interval(monthMilli, new DateTime(monthMilli, DateTimeZone.UTC).plusMonths(1).getMillis());
+				TagGroup[] month = tagGroupsWithResourceGroups.get(monthMilli).toArray(new TagGroup[0]);
+				checkFacets(manager, interval, month, new TagLists());
+				checkFacets(manager, interval, month, new TagLists(Lists.newArrayList(accountService.getAccountByName("Account2"))));
+			}
+		}
+
+		// Queries over several months, and over all of them
+		Interval interval = new Interval(testMonth.plusMonths(1).getMillis(), testMonth.plusMonths(3).getMillis());
+		checkFacets(manager, interval, new TagGroup[]{ tagGroups[0], tagGroups[2] }, new TagLists());
+		interval = new Interval(testMonth.getMillis(), testMonth.plusMonths(3).getMillis());
+		checkFacets(manager, interval, tagGroups, new TagLists());
+		assertEquals("wrong accounts", 2, manager.getAccounts(new TagLists()).size());
+		assertEquals("wrong operations", 3, manager.getOperations(new TagLists()).size());
+	}
 }
@@ -0,0 +1,90 @@
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.Properties;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.ReadOnlyData;
+
+public class DataCacheTest {
+	private final static DateTime testMonth = new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC);
+
+	private DataFilePoller getPoller(String dbName, DataCache dataCache) {
+		return new DataFilePoller(testMonth, dbName, ConsolidateType.hourly, false, dataCache,
+				new BasicAccountService(new Properties()), new BasicProductService(null));
+	}
+
+	private ReadOnlyData getData(int numHours, int numTagGroups) {
+		return new ReadOnlyData(new double[numHours][numTagGroups], Lists.<TagGroup>newArrayList());
+	}
+
+	@Test
+	public void testEstimatedSize() {
+		ReadOnlyData small = getData(1, 10);
+		ReadOnlyData large = getData(744, 1000);
+		assertTrue("hourly data should weigh more than monthly", large.getEstimatedSize() > 1000 * small.getEstimatedSize());
+		assertTrue("wrong size", large.getEstimatedSize() >= 744 * 1000 * 8);
+	}
+
+	@Test
+	public void testSharedBudget() {
+		DataCache dataCache = new DataCache(1);
+		DataFilePoller hourly = getPoller("cost_hourly_all", dataCache);
+		DataFilePoller monthly = getPoller("cost_monthly_all", dataCache);
+		try {
+			monthly.fileCache.put(testMonth, new File("cost_monthly_all"));
+			dataCache.put(monthly, testMonth, getData(1, 10));
+			dataCache.put(hourly, testMonth, getData(744, 100));
+			assertNotNull("small data should fit with other manager's data", dataCache.getIfPresent(monthly, testMonth));
+			assertNotNull("data should fit in budget", dataCache.getIfPresent(hourly, testMonth));
+
+			// Over the budget, the least recently used file goes first whichever manager it belongs to
+			dataCache.getIfPresent(hourly, testMonth);
+			DateTime nextMonth = testMonth.plusMonths(1);
+			dataCache.put(hourly, nextMonth, getData(672, 100));
+			assertNull("least recently used data should be evicted", dataCache.getIfPresent(monthly, testMonth));
+			assertNull("evicted file should be removed from file cache", monthly.fileCache.get(testMonth));
+			assertNotNull("most recent data should be kept", dataCache.getIfPresent(hourly, nextMonth));
+
+			dataCache.invalidateAll(hourly);
+			assertEquals("manager's data should be removed", 0, dataCache.size());
+		}
+		finally {
+			hourly.shutdown();
+			monthly.shutdown();
+		}
+	}
+
+	@Test
+	public void testLoadFailure() {
+		DataCache dataCache = new DataCache(1);
+		DataFilePoller poller = new DataFilePoller(testMonth, "cost_hourly_all", ConsolidateType.hourly, false, dataCache,
+				new BasicAccountService(new Properties()), new BasicProductService(null)) {
+			@Override
+			ReadOnlyData loadData(DateTime monthDate) throws IOException {
+				throw new IOException("corrupted");
+			}
+		};
+		try {
+			dataCache.get(poller, testMonth);
+			fail("load should fail");
+		}
+		catch (ExecutionException e) {
+			assertNull("failed load should not be cached", dataCache.getIfPresent(poller, testMonth));
+			assertEquals("wrong number of load failures", 1, dataCache.getLoadFailures());
+		}
+		finally {
+			poller.shutdown();
+		}
+	}
+}
@@ -0,0 +1,243 @@
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.netflix.ice.common.AwsUtils;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.ReadOnlyData;
+
+public class DataFilePollerTest {
+	private final static DateTime startDate = new DateTime(2017, 1, 1, 0, 0, DateTimeZone.UTC);
+	private final static int marker = 0x1ce;
+	private final File dir = Files.createTempDir();
+	private final List<DataFilePoller> pollers = Lists.newArrayList();
+
+	/**
+	 * Poller that reads local files holding a single value instead of the work bucket. Files that
+	 * don't start with the marker fail to load. The processor writing a new version of a file is
+	 * simulated by setting staged.
+	 */
+	class TestPoller extends DataFilePoller {
+		byte[] staged;
+		int downloads = 0;
+
+		TestPoller(ConsolidateType consolidateType) {
+			super(DataFilePollerTest.startDate, "cost_" + consolidateType + "_all", consolidateType, false, new DataCache(1),
+					new BasicAccountService(new Properties()), new BasicProductService(null));
+			pollers.add(this);
+		}
+
+		@Override
+		protected File getFile(DateTime monthDate) {
+			return new File(dir, dbName + "_" + AwsUtils.monthDateFormat.print(monthDate));
+		}
+
+		@Override
+		protected boolean downloadFile(File file) {
+			return false;
+		}
+
+		@Override
+		protected boolean downloadFile(File file, File staging) {
+			downloads++;
+			if (staged == null)
+				return false;
+			try {
+				Files.write(staged, staging);
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return true;
+		}
+
+		@Override
+		protected ReadOnlyData deserialize(DataInput in) throws IOException {
+			if (in.readInt() != marker)
+				throw new IOException("corrupt file");
+			return new ReadOnlyData(new double[][]{ new double[]{ in.readDouble() } }, Lists.<TagGroup>newArrayList());
+		}
+
+		double getValue(DateTime key) throws Exception {
+			return getReadOnlyData(key).getData(0)[0];
+		}
+	}
+
+	private static byte[] getBytes(double value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(marker);
+		out.writeDouble(value);
+		out.close();
+		return bytes.toByteArray();
+	}
+
+	@After
+	public void cleanUp() throws IOException {
+		for (DataFilePoller poller: pollers)
+			poller.shutdown();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	private List<DateTime> getKeys(ConsolidateType consolidateType, Interval interval) {
+		DataFilePoller poller = new DataFilePoller(startDate, "cost_" + consolidateType + "_all", consolidateType, false, new DataCache(1),
+				new BasicAccountService(new Properties()), new BasicProductService(null));
+		try {
+			return poller.getKeys(interval);
+		}
+		finally {
+			poller.shutdown();
+		}
+	}
+
+	@Test
+	public void testGetKeys() {
+		Interval interval = new Interval(new DateTime(2017, 11, 15, 0, 0, DateTimeZone.UTC), new DateTime(2018, 2, 10, 0, 0, DateTimeZone.UTC));
+
+		List<DateTime> keys = getKeys(ConsolidateType.hourly, interval);
+		assertEquals("wrong number of hourly files", 4, keys.size());
+		assertEquals("wrong first month", new DateTime(2017, 11, 1, 0, 0, DateTimeZone.UTC), keys.get(0));
+		assertEquals("wrong last month", new DateTime(2018, 2, 1, 0, 0, DateTimeZone.UTC), keys.get(3));
+
+		keys = getKeys(ConsolidateType.daily, interval);
+		assertEquals("wrong number of daily files", 2, keys.size());
+		assertEquals("wrong first year", new DateTime(2017, 1, 1, 0, 0, DateTimeZone.UTC), keys.get(0));
+
+		keys = getKeys(ConsolidateType.monthly, interval);
+		assertEquals("monthly data should be in one file", 1, keys.size());
+		assertEquals("wrong monthly key", startDate, keys.get(0));
+	}
+
+	@Test
+	public void testRefresh() throws Exception {
+		TestPoller poller = new TestPoller(ConsolidateType.hourly);
+		DateTime month = new DateTime(2018, 1, 1, 0, 0, DateTimeZone.UTC);
+		File file = poller.getFile(month);
+		Files.write(getBytes(1), file);
+		assertEquals("wrong value loaded", 1, poller.getValue(month), 0.001);
+
+		// No new version of the file
+		poller.stale();
+		assertFalse("unchanged file should not stay stale", poller.stalePoll());
+		assertEquals("wrong number of downloads", 1, poller.downloads);
+
+		// The new version is corrupt, keep the cached data and the file and try again on the next poll
+		poller.staged = new byte[]{ 1, 2, 3, 4, 5 };
+		poller.stale();
+		assertTrue("month should stay stale after a failed load", poller.stalePoll());
+		assertEquals("old data should be kept", 1, poller.getValue(month), 0.001);
+		assertArrayEquals("old file should be kept", getBytes(1), Files.toByteArray(file));
+		assertFalse("staged file should be deleted", new File(file.getPath() + ".new").exists());
+
+		// The next poll gets a valid version and swaps it in
+		poller.staged = getBytes(2);
+		assertFalse("month should not stay stale after a successful load", poller.stalePoll());
+		assertEquals("wrong number of downloads", 3, poller.downloads);
+		assertEquals("new data should replace the old data", 2, poller.getValue(month), 0.001);
+		assertArrayEquals("new file should replace the old file", getBytes(2), Files.toByteArray(file));
+
+		// Nothing left to refresh
+		poller.staged = null;
+		assertFalse("no month should be stale", poller.stalePoll());
+		assertEquals("wrong number of downloads", 3, poller.downloads);
+	}
+
+	/**
+	 * Poller that counts the loads of each month and records the threads that made them
+	 */
+	class CountingPoller extends TestPoller {
+		final ConcurrentMap<DateTime, AtomicInteger> loads = Maps.newConcurrentMap();
+		final Set<String> threads = Collections.newSetFromMap(Maps.<String, Boolean>newConcurrentMap());
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+
+		CountingPoller() {
+			super(ConsolidateType.hourly);
+		}
+
+		@Override
+		ReadOnlyData loadData(DateTime monthDate) throws IOException {
+			loads.putIfAbsent(monthDate, new AtomicInteger());
+			loads.get(monthDate).incrementAndGet();
+			threads.add(Thread.currentThread().getName());
+			int num = running.incrementAndGet();
+			while (true) {
+				int max = maxRunning.get();
+				if (num <= max || maxRunning.compareAndSet(max, num))
+					break;
+			}
+			try {
+				// Give the other loads time to start
+				Thread.sleep(200);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			finally {
+				running.decrementAndGet();
+			}
+			return getMissingData(monthDate);
+		}
+
+		int getLoads(DateTime monthDate) {
+			AtomicInteger num = loads.get(monthDate);
+			return num == null ? 0 : num.get();
+		}
+	}
+
+	@Test
+	public void testPreload() throws Exception {
+		CountingPoller poller = new CountingPoller();
+		DateTime first = new DateTime(2017, 11, 1, 0, 0, DateTimeZone.UTC);
+		DateTime last = new DateTime(2018, 2, 1, 0, 0, DateTimeZone.UTC);
+		Interval interval = new Interval(new DateTime(2017, 11, 15, 0, 0, DateTimeZone.UTC), new DateTime(2018, 2, 10, 0, 0, DateTimeZone.UTC));
+
+		// Cached months aren't loaded again
+		poller.getReadOnlyData(first);
+		poller.threads.clear();
+		poller.preload(interval);
+		for (DateTime month = first; !month.isAfter(last); month = month.plusMonths(1))
+			assertEquals("wrong number of loads for " + month, 1, poller.getLoads(month));
+		assertTrue("months should be loaded concurrently", poller.maxRunning.get() > 1);
+		for (String thread: poller.threads)
+			assertTrue("month loaded on wrong thread " + thread, thread.startsWith("DataFileLoader-"));
+
+		// The months before and after the interval are read ahead
+		DateTime before = first.minusMonths(1);
+		DateTime after = last.plusMonths(1);
+		for (int i = 0; i < 100 && (poller.dataCache.getIfPresent(poller, before) == null || poller.dataCache.getIfPresent(poller, after) == null); i++)
+			Thread.sleep(50);
+		assertEquals("month before should be read ahead", 1, poller.getLoads(before));
+		assertEquals("month after should be read ahead", 1, poller.getLoads(after));
+
+		// Everything is cached now
+		poller.preload(interval);
+		poller.load(interval);
+		assertEquals("wrong number of months loaded", 6, poller.loads.size());
+		for (DateTime month: poller.loads.keySet())
+			assertEquals("wrong number of loads for " + month, 1, poller.getLoads(month));
+	}
+}
@@ -2,98 +2,201 @@ package com.netflix.ice.basic;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Map;
 import java.util.Properties;
 
 import org.json.JSONArray;
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
+import com.google.common.collect.Maps;
 import com.netflix.ice.common.LineItem;
+import com.netflix.ice.common.ProductService;
 import com.netflix.ice.processor.DetailedBillingReportLineItem;
 import com.netflix.ice.tag.Product;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
 
 
 /**
- * Note: These tests require a running instance of Edda running at the url configured in ice.properties, so they 
- * strictly speaking not unit tests any more...
+ * Runs the EddaResourceService against a local HTTP server standing in for Edda.
  */
 public class EddaResourceServiceTest {
     static final String[] dbrHeader = {
-		"InvoiceID","PayerAccountId","LinkedAccountId","RecordType","RecordId","ProductName","RateId","SubscriptionId","PricingPlanId","UsageType","Operation","AvailabilityZone","ReservedInstance","ItemDescription","UsageStartDate","UsageEndDate","UsageQuantity","BlendedRate","BlendedCost","UnBlendedRate","UnBlendedCost"
+		"InvoiceID","PayerAccountId","LinkedAccountId","RecordType","RecordId","ProductName","RateId","SubscriptionId","PricingPlanId","UsageType","Operation","AvailabilityZone","ReservedInstance","ItemDescription","UsageStartDate","UsageEndDate","UsageQuantity","BlendedRate","BlendedCost","UnBlendedRate","UnBlendedCost","ResourceId"
     };
-    
+
+    static final String instances = "[\"i-1\",\"i-2\",\"i-3\"]";
+    static final String expandedInstances =
+    		"[{\"instanceId\":\"i-1\",\"tags\":[{\"key\":\"Name\",\"value\":\"one\"},{\"key\":\"Usage\",\"value\":\"web\"}]}," +
+    		"{\"instanceId\":\"i-2\",\"tags\":[{\"key\":\"Name\",\"value\":\"two\"}]}," +
+    		"{\"instanceId\":\"i-3\",\"tags\":[{\"key\":\"Usage\",\"value\":\"batch\"}]}]";
+    static final Map<String, String> instanceJson = Maps.newHashMap();
+    static {
+    	instanceJson.put("i-1", "{\"instanceId\":\"i-1\",\"tags\":[{\"key\":\"Name\",\"value\":\"one\"},{\"key\":\"Usage\",\"value\":\"web\"}]}");
+    	instanceJson.put("i-2", "{\"instanceId\":\"i-2\",\"tags\":[{\"key\":\"Name\",\"value\":\"two\"}]}");
+    	instanceJson.put("i-3", "{\"instanceId\":\"i-3\",\"tags\":[{\"key\":\"Usage\",\"value\":\"batch\"}]}");
+    }
+
+    private final ProductService productService = new BasicProductService(null);
+    private final Product ec2 = productService.getProductByName(Product.ec2);
+    private HttpServer server;
+    private int numRequests;
+    private int numFailures;
+
+    @Before
+    public void startServer() throws IOException {
+    	numRequests = 0;
+    	numFailures = 0;
+    	server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    	server.createContext("/edda/api/v2/view/instances", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				numRequests++;
+				String path = exchange.getRequestURI().getPath();
+				String body;
+				if (path.endsWith("/view/instances"))
+					body = instances;
+				else if (path.startsWith("/edda/api/v2/view/instances;_expand"))
+					body = expandedInstances;
+				else
+					body = instanceJson.get(path.substring(path.lastIndexOf("/") + 1));
+
+				if (numFailures > 0) {
+					numFailures--;
+					exchange.sendResponseHeaders(500, -1);
+				}
+				else if (body == null) {
+					exchange.sendResponseHeaders(404, -1);
+				}
+				else {
+					byte[] bytes = body.getBytes("UTF-8");
+					exchange.sendResponseHeaders(200, bytes.length);
+					OutputStream os = exchange.getResponseBody();
+					os.write(bytes);
+					os.close();
+				}
+				exchange.close();
+			}
+    	});
+    	server.start();
+    }
+
+    @After
+    public void stopServer() {
+    	server.stop(0);
+    }
+
+    private Properties getProperties(boolean snapshot) {
+    	Properties prop = new Properties();
+    	prop.setProperty("ice.eddaresourceservice.url", "http://localhost:" + server.getAddress().getPort() + "/edda/api/v2/");
+    	prop.setProperty("ice.eddaresourceservice.snapshot", "" + snapshot);
+    	return prop;
+    }
+
     private LineItem makeLineItem() {
 		LineItem lineItem = new DetailedBillingReportLineItem(false, true, dbrHeader);
 		String[] items = new String[dbrHeader.length];
 		for (int i = 0; i < items.length; i++)
 			items[i] = null;
 		lineItem.setItems(items);
-		
+
 		return lineItem;
     }
 
-	@Test
-	public void test() throws Exception {
-		EddaResourceService service = new EddaResourceService(new Properties());
-
-		service.init(null);
-
-		// does nothing really...
-		service.commit();
+    private String getResource(EddaResourceService service, Product product, LineItem lineItem) {
+    	return service.getResourceGroup(null, null, product, lineItem, 0).name;
+    }
 
-		assertNotNull(service.getProductsWithResources());
-		
+    private void checkResources(EddaResourceService service) {
 		LineItem lineItem = makeLineItem();
-		
-		assertEquals("Product-name for unsupported resource", "somename", service.getResource(null, null, new Product("somename"), lineItem, 0));
-		assertEquals("Error for empty resourceId", "Error", service.getResource(null, null, new Product(Product.ec2), lineItem, 0));
+
+		Product s3 = productService.getProductByName(Product.s3);
+		assertEquals("Product-name for unsupported resource", s3.name, getResource(service, s3, lineItem));
+		assertEquals("Error for empty resourceId", "Error", getResource(service, ec2, lineItem));
 		lineItem.setResource("");
-		assertEquals("Error for empty resourceId", "Error", service.getResource(null, null, new Product(Product.ec2), lineItem, 0));
+		assertEquals("Error for empty resourceId", "Error", getResource(service, ec2, lineItem));
 
 		lineItem.setResource("someunknowninstance");
-		assertEquals("Unknown for resourceIds that we do not find", "Unknown", service.getResource(null, null, new Product(Product.ec2), lineItem, 0));
+		assertEquals("Unknown for resourceIds that we do not find", "Unknown", getResource(service, ec2, lineItem));
+
+		lineItem.setResource("i-1");
+		assertEquals("Wrong usage tag", "web", getResource(service, ec2, lineItem));
+		lineItem.setResource("i-2");
+		assertEquals("Unknown for instance without usage tag", "Unknown", getResource(service, ec2, lineItem));
+		lineItem.setResource("i-3");
+		assertEquals("Wrong usage tag", "batch", getResource(service, ec2, lineItem));
+    }
+
+	@Test
+	public void testPerInstance() throws Exception {
+		EddaResourceService service = new EddaResourceService(getProperties(false), productService);
+		service.init();
+		assertNotNull(service.getProductsWithResources());
+
+		checkResources(service);
 
 		JSONArray instances = service.readInstanceArray();
+		assertEquals("Wrong number of instances", 3, instances.length());
+		assertTrue("Should make requests for every line item", numRequests > 6);
+	}
 
-		lineItem.setResource(instances.getString(0));
-		String resource = service.getResource(null, null, new Product(Product.ec2), lineItem, 0);
-		assertFalse("Not Error for an actual instance", "Error".equals(resource));
+	@Test
+	public void testSnapshot() throws Exception {
+		EddaResourceService service = new EddaResourceService(getProperties(true), productService);
+		service.init();
 
-		resource = service.getResource(null, null, new Product(Product.ec2), lineItem, 0);
-		assertFalse("Not Error for an actual instance", "Error".equals(resource));
+		checkResources(service);
+		assertEquals("Should only load the snapshot once", 1, numRequests);
 
-		for(int i = 0;i < instances.length();i++) {
-			lineItem.setResource(instances.getString(i));
-			resource = service.getResource(null, null, new Product(Product.ec2), lineItem, 0);
-			assertFalse("Not Error for an actual instance", "Error".equals(resource));
-		}
+		// Commit after each month drops the snapshot so it's reloaded for the next one
+		service.commit();
+		checkResources(service);
+		assertEquals("Should reload the snapshot after commit", 2, numRequests);
 	}
 
 	@Test
-	public void testWrongURL() throws Exception {
-		// use a normal setup for retrieving the instances
-		EddaResourceService service = new EddaResourceService(new Properties());
-		JSONArray instances = service.readInstanceArray();
+	public void testFailedSnapshot() throws Exception {
+		EddaResourceService service = new EddaResourceService(getProperties(true), productService);
+		LineItem lineItem = makeLineItem();
+		lineItem.setResource("i-1");
+
+		numFailures = 1;
+		assertEquals("Error when the snapshot can't be loaded", "Error", getResource(service, ec2, lineItem));
+		assertEquals("Error until the load is retried", "Error", getResource(service, ec2, lineItem));
+		assertEquals("Should not retry the load for every line item", 1, numRequests);
 
+		// A failed load isn't kept, so it's loaded again without waiting for commit
+		service.snapshotRetryMillis = 0;
+		assertEquals("Wrong usage tag after retry", "web", getResource(service, ec2, lineItem));
+		assertEquals("Should retry the load", 2, numRequests);
+	}
+
+	@Test
+	public void testWrongURL() throws Exception {
 		LineItem lineItem = makeLineItem();
-		
-
-		// overwrite config with an invalid hostname
-		Properties prop = new Properties();
-		prop.setProperty("ice.eddaresourceservice.url", "http://invalidhostname:18081/edda/api/v2/");
-		service = new EddaResourceService(prop);
-
-		// now the retrieved resources should return an error even for valid instances
-		lineItem.setResource(instances.getString(0));
-		String resource = service.getResource(null, null, new Product(Product.ec2), lineItem, 0);
-		assertTrue("Error even for an actual instance when using wrong URL", "Error".equals(resource));
-
-		// overwrite config with an invalid URL
-		prop.setProperty("ice.eddaresourceservice.url", "sasie://invalidhostname:18081/edda/api/v2/");
-		service = new EddaResourceService(prop);
-
-		// now the retrieved resources should return an error even for valid instances
-		lineItem.setResource(instances.getString(0));
-		resource = service.getResource(null, null, new Product(Product.ec2), lineItem, 0);
-		assertTrue("Error even for an actual instance when using wrong URL", "Error".equals(resource));
+		lineItem.setResource("i-1");
+
+		for (boolean snapshot: new boolean[]{ false, true }) {
+			// overwrite config with an invalid hostname
+			Properties prop = getProperties(snapshot);
+			prop.setProperty("ice.eddaresourceservice.url", "http://invalidhostname:18081/edda/api/v2/");
+			EddaResourceService service = new EddaResourceService(prop, productService);
+
+			// now the retrieved resources should return an error even for valid instances
+			assertEquals("Error even for an actual instance when using wrong URL", "Error", getResource(service, ec2, lineItem));
+
+			// overwrite config with an invalid URL
+			prop.setProperty("ice.eddaresourceservice.url", "sasie://invalidhostname:18081/edda/api/v2/");
+			service = new EddaResourceService(prop, productService);
+
+			// now the retrieved resources should return an error even for valid instances
+			assertEquals("Error even for an actual instance when using wrong URL", "Error", getResource(service, ec2, lineItem));
+		}
 	}
 }
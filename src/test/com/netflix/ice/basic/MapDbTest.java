@@ -0,0 +1,70 @@
+package com.netflix.ice.basic;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Region;
+
+public class MapDbTest {
+	private final Account account = new Account("123456789012", "Account1");
+
+	@Test
+	public void testWriteBehind() {
+		DB db = DBMaker.newMemoryDB().make();
+		// Small cache and queue so that reads fall through to the db and writes have to wait on the writer
+		MapDb mapDb = new MapDb("instances", db, 10, 5);
+
+		for (int i = 0; i < 100; i++)
+			mapDb.SetResource(account, Region.US_EAST_1, "i-" + i, "app" + i, 0);
+		for (int i = 0; i < 100; i++)
+			assertEquals("wrong resource before flush", "app" + i, mapDb.getResource(account, Region.US_EAST_1, "i-" + i));
+
+		mapDb.SetResource(account, Region.US_EAST_1, "i-0", "other", 0);
+		mapDb.flush();
+
+		Map<String, String> items = db.getHashMap("instances");
+		assertEquals("wrong number of items after flush", 100, items.size());
+		assertEquals("wrong resource in db", "app1", items.get("i-1|" + account + "|" + Region.US_EAST_1));
+		assertEquals("changed resource not written to db", "other", items.get("i-0|" + account + "|" + Region.US_EAST_1));
+		assertEquals("wrong changed resource", "other", mapDb.getResource(account, Region.US_EAST_1, "i-0"));
+		assertNull("should not find unknown resource", mapDb.getResource(account, Region.US_EAST_1, "i-1000"));
+	}
+
+	@Test
+	public void testFailedCommit() {
+		// A db whose commits fail until the disk is fixed
+		final AtomicBoolean diskFull = new AtomicBoolean();
+		DB db = new DB(DBMaker.newMemoryDB().make().getEngine()) {
+			@Override
+			public synchronized void commit() {
+				if (diskFull.get())
+					throw new RuntimeException("disk full");
+				super.commit();
+			}
+		};
+		MapDb mapDb = new MapDb("instances", db, 10, 5);
+
+		diskFull.set(true);
+		mapDb.SetResource(account, Region.US_EAST_1, "i-1", "app1", 0);
+		try {
+			mapDb.flush();
+			fail("flush should report the failed commit");
+		}
+		catch (RuntimeException e) {
+			assertEquals("wrong cause", "disk full", e.getCause().getMessage());
+		}
+		assertEquals("failed write should still be readable", "app1", mapDb.getResource(account, Region.US_EAST_1, "i-1"));
+
+		// The failed write is retried with the next batch
+		diskFull.set(false);
+		mapDb.flush();
+		assertEquals("failed write should be committed on retry", "app1", db.getHashMap("instances").get("i-1|" + account + "|" + Region.US_EAST_1));
+	}
+}
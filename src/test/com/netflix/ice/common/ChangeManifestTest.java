@@ -0,0 +1,59 @@
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ChangeManifestTest {
+
+	@Test
+	public void testChangesSince() {
+		ChangeManifest manifest = new ChangeManifest(1000);
+		manifest.add("cost_hourly_all_2018-01.gz", 1100, 1000);
+		manifest.add("cost_monthly_all.gz", 1200, 1000);
+		manifest.add("cost_hourly_all_2018-02.gz", 2100, 2000);
+		manifest.add("cost_monthly_all.gz", 2200, 2000);
+
+		assertEquals("wrong last run", 2000, manifest.getLastRun());
+		Map<String, Long> changes = manifest.getChangesSince(1000);
+		assertEquals("wrong number of changes", 2, changes.size());
+		assertEquals("should have latest version", 2200L, changes.get("cost_monthly_all.gz").longValue());
+		assertFalse("file of earlier run should not be listed", changes.containsKey("cost_hourly_all_2018-01.gz"));
+		assertEquals("all files should be listed", 3, manifest.getChangesSince(0).size());
+	}
+
+	@Test
+	public void testPrune() {
+		ChangeManifest manifest = new ChangeManifest(1000);
+		manifest.add("cost_hourly_all_2018-01.gz", 1100, 1000);
+		manifest.add("cost_hourly_all_2018-02.gz", 2100, 2000);
+		manifest.prune(1500);
+
+		assertEquals("wrong since", 1500, manifest.getSince());
+		assertEquals("old run should be dropped", 1, manifest.getChangesSince(0).size());
+
+		manifest.prune(1200);
+		assertEquals("since should not move back", 1500, manifest.getSince());
+	}
+
+	@Test
+	public void testSerialization() throws Exception {
+		ChangeManifest manifest = new ChangeManifest(1000);
+		manifest.add("cost_hourly_all_2018-01.gz", 1100, 1000);
+		manifest.add("tagdb_all", 2100, 2000);
+
+		StringWriter out = new StringWriter();
+		manifest.write(out);
+		ChangeManifest read = ChangeManifest.read(new BufferedReader(new StringReader(out.toString())));
+
+		assertEquals("wrong since", 1000, read.getSince());
+		assertEquals("wrong last run", 2000, read.getLastRun());
+		assertEquals("wrong changes", manifest.getChangesSince(0), read.getChangesSince(0));
+		assertEquals("wrong changes since first run", 1, read.getChangesSince(1000).size());
+	}
+}
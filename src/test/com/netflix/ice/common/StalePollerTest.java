@@ -0,0 +1,57 @@
+package com.netflix.ice.common;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class StalePollerTest {
+
+	class TestPoller extends StalePoller {
+		final CountDownLatch polled;
+		final AtomicInteger numPolls = new AtomicInteger();
+
+		TestPoller(CountDownLatch polled) {
+			this.polled = polled;
+		}
+
+		@Override
+		protected boolean stalePoll() throws Exception {
+			numPolls.incrementAndGet();
+			polled.countDown();
+			return false;
+		}
+	}
+
+	@Test
+	public void testSharedScheduler() throws InterruptedException {
+		int numPollers = 200;
+		int threadsBefore = Thread.activeCount();
+		CountDownLatch polled = new CountDownLatch(numPollers);
+		List<TestPoller> pollers = Lists.newArrayList();
+		try {
+			for (int i = 0; i < numPollers; i++) {
+				TestPoller poller = new TestPoller(polled);
+				poller.start(0, 1, false);
+				pollers.add(poller);
+			}
+			assertTrue("all pollers should have polled", polled.await(10, TimeUnit.SECONDS));
+			assertTrue("pollers should not start a thread each", Thread.activeCount() - threadsBefore <= StalePoller.DefaultPollThreads);
+
+			// Not stale any more, so the next polls don't reload
+			Thread.sleep(1500);
+			for (TestPoller poller: pollers)
+				assertEquals("should only reload when stale", 1, poller.numPolls.get());
+		}
+		finally {
+			for (TestPoller poller: pollers)
+				poller.shutdown();
+		}
+	}
+}
@@ -2,17 +2,29 @@ package com.netflix.ice.common;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Collection;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.netflix.ice.basic.BasicAccountService;
 import com.netflix.ice.basic.BasicProductService;
 import com.netflix.ice.tag.Operation;
 import com.netflix.ice.tag.Product;
 import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
 import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.Zone;
 
 public class TagGroupTest {
 	private static ProductService ps;
@@ -52,4 +64,27 @@ public class TagGroupTest {
 		assertEquals("Should be equal", tg1, tg2);
 	}
 
+	@Test
+	public void testDeserializeMonths() throws IOException {
+		AccountService as = new BasicAccountService(new Properties());
+		TagGroup tg1 = TagGroup.getTagGroup(as.getAccountById("111111111345"), Region.US_EAST_1, null, ps.getProductByAwsName("Amazon Relational Food Service"), Operation.getOperation("CreateDBInstance"), UsageType.getUsageType("RDS:GP2-Storage", "GB"), null);
+		TagGroup tg2 = TagGroup.getTagGroup(as.getAccountById("111111111345"), Region.US_EAST_1, Zone.getZone("us-east-1a", Region.US_EAST_1), ps.getProductByAwsName("Amazon Relational Food Service"), Operation.getOperation("CreateDBInstance"), UsageType.getUsageType("RDS:GP2-Storage", "GB"), ResourceGroup.getResourceGroup("TagA|TagB", false));
+		TagGroup tg3 = TagGroup.getTagGroup(as.getAccountById("111111111345"), Region.US_WEST_2, null, ps.getProductByAwsName("Amazon Relational Food Service"), Operation.getOperation("CreateDBInstance"), UsageType.getUsageType("RDS:GP2-Storage", "GB"), null);
+		TreeMap<Long, Collection<TagGroup>> tagGroups = Maps.newTreeMap();
+		tagGroups.put(1000L, Lists.newArrayList(tg1, tg2));
+		tagGroups.put(2000L, Lists.newArrayList(tg3));
+		tagGroups.put(3000L, Lists.newArrayList(tg1, tg2, tg3));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		TagGroup.Serializer.serializeTagGroups(new DataOutputStream(bytes), tagGroups);
+
+		// Skip the first month and stop before reading the last one
+		TreeMap<Long, Collection<TagGroup>> result = TagGroup.Serializer.deserializeTagGroups(as, ps, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), Sets.newHashSet(2000L));
+		assertEquals("wrong months", Sets.newHashSet(2000L), result.keySet());
+		assertEquals("wrong tag groups", Lists.newArrayList(tg3), result.get(2000L));
+
+		result = TagGroup.Serializer.deserializeTagGroups(as, ps, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), Sets.newHashSet(1000L, 3000L, 4000L));
+		assertEquals("wrong months", Sets.newHashSet(1000L, 3000L), result.keySet());
+		assertEquals("wrong tag groups", tagGroups.get(3000L), result.get(3000L));
+	}
 }
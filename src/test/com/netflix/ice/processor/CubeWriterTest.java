@@ -0,0 +1,87 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.Cube;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.reader.ReadOnlyData;
+import com.netflix.ice.tag.TagType;
+
+public class CubeWriterTest {
+	private static ProductService productService = new BasicProductService(null);
+	private static AccountService accountService = new BasicAccountService(new Properties());
+
+	@Test
+	public void testParse() {
+		List<Cube> cubes = Cube.parse("Account+Product+Operation, Operation+Product+Region");
+		assertEquals("wrong number of cubes", 2, cubes.size());
+		assertEquals("wrong cube name", "account_product_operation", cubes.get(0).getName());
+		assertEquals("dimensions should be in tag type order", "region_product_operation", cubes.get(1).getName());
+		assertEquals("wrong db name", "cost_daily_all_cube_region_product_operation", cubes.get(1).getDbName("cost_daily_all"));
+		assertEquals("empty spec should have no cubes", 0, Cube.parse("").size());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedDimension() {
+		Cube.parse("Account+UsageType+Operation");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingOperation() {
+		Cube.parse("Account+Product");
+	}
+
+	@Test
+	public void testWrite() throws Exception {
+		TagGroup[] tagGroups = new TagGroup[]{
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", null, accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1b", "ProductA", "OperationB", "UsageTypeB", "", null, accountService, productService),
+				TagGroup.getTagGroup("Account1", "us-west-2", "us-west-2a", "ProductA", "OperationA", "UsageTypeA", "", null, accountService, productService),
+				TagGroup.getTagGroup("Account2", "us-east-1", "us-east-1a", "ProductB", "OperationA", "UsageTypeA", "", null, accountService, productService),
+		};
+		ReadWriteData data = new ReadWriteData();
+		for (int i = 0; i < tagGroups.length; i++) {
+			data.getData(0).put(tagGroups[i], 1.0 + i);
+			data.getData(1).put(tagGroups[i], 10.0 * (i + 1));
+		}
+
+		Cube cube = new Cube(Lists.newArrayList(TagType.Account, TagType.Product, TagType.Operation));
+		CubeWriter writer = new CubeWriter(cube, data);
+		assertEquals("wrong number of keys", 3, writer.getKeys().size());
+		assertEquals("wrong sum for Account1 OperationA", 4.0, writer.getData().getData(0).get(cube.getKey(tagGroups[0])), 0.001);
+		assertEquals("wrong sum for Account1 OperationA", 40.0, writer.getData().getData(1).get(cube.getKey(tagGroups[2])), 0.001);
+		assertEquals("wrong sum for Account1 OperationB", 2.0, writer.getData().getData(0).get(cube.getKey(tagGroups[1])), 0.001);
+		assertEquals("wrong sum for Account2", 4.0, writer.getData().getData(0).get(cube.getKey(tagGroups[3])), 0.001);
+
+		// Read it back the way the reader does
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		writer.os = bytes;
+		writer.write();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		List<TagGroup> keys = Lists.newArrayList();
+		int numKeys = in.readInt();
+		for (int i = 0; i < numKeys; i++)
+			keys.add(cube.deserialize(accountService, productService, in));
+		ReadOnlyData readOnlyData = ReadOnlyData.Serializer.deserialize(keys, in);
+
+		assertEquals("wrong number of rows", 2, readOnlyData.getNum());
+		assertEquals("wrong number of keys read back", 3, keys.size());
+		int index = keys.indexOf(cube.getKey(tagGroups[3]));
+		assertTrue("missing key for Account2", index >= 0);
+		assertEquals("wrong value read back", 40.0, readOnlyData.getData(1)[index], 0.001);
+		assertNull("cube keys should not have a region", keys.get(index).region);
+	}
+}
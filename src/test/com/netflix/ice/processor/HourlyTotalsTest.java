@@ -0,0 +1,46 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HourlyTotalsTest {
+
+	@Test
+	public void testAdd() {
+		HourlyTotals<String> totals = new HourlyTotals<String>();
+		totals.add("a", 0, 1.0);
+		totals.add("a", 0, 2.0);
+		totals.add("a", 2, 4.0);
+
+		assertEquals("wrong number of hours", 3, totals.getNum());
+		assertEquals("wrong total for hour 0", 3.0, totals.get("a")[0], 0.001);
+		assertTrue("hour 1 should not have a value", Double.isNaN(totals.get("a")[1]));
+		assertEquals("wrong total for hour 2", 4.0, totals.get("a")[2], 0.001);
+		assertNull("b should not have any values", totals.get("b"));
+
+		// Add beyond the end of a month
+		totals.add("a", 1000, 1.0);
+		assertEquals("wrong number of hours after grow", 1001, totals.getNum());
+		assertEquals("lost value on grow", 3.0, totals.get("a")[0], 0.001);
+	}
+
+	@Test
+	public void testPutAllAndCut() {
+		HourlyTotals<String> totals = new HourlyTotals<String>();
+		totals.add("a", 0, 1.0);
+		totals.add("a", 5, 1.0);
+
+		HourlyTotals<String> other = new HourlyTotals<String>();
+		other.add("a", 0, 2.0);
+		other.add("b", 1, 3.0);
+
+		totals.putAll(other);
+		assertEquals("wrong total for a", 3.0, totals.get("a")[0], 0.001);
+		assertEquals("wrong total for b", 3.0, totals.get("b")[1], 0.001);
+
+		totals.cut(2);
+		assertEquals("wrong number of hours after cut", 2, totals.getNum());
+		assertTrue("hour 5 should have been cut", Double.isNaN(totals.get("a")[5]));
+	}
+}
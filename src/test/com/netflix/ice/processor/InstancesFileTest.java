@@ -0,0 +1,64 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.Instance;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.Zone;
+
+public class InstancesFileTest {
+
+	@Test
+	public void testWriteAndGet() throws Exception {
+		AccountService as = new BasicAccountService(new Properties());
+		Account account = as.getAccountById("123456789012");
+		Region.US_EAST_1.addZone("us-east-1a");
+		Zone zone = Zone.getZone("us-east-1a");
+
+		List<Instance> instances = Lists.newArrayList();
+		for (int i = 999; i >= 0; i--) {
+			Map<String, String> tags = Maps.newHashMap();
+			if (i % 2 == 0) {
+				tags.put("user:Environment", i % 4 == 0 ? "prod" : "test");
+				tags.put("Name", "instance, number " + i);
+			}
+			instances.add(new Instance(String.format("i-%08x", i), "m4.large", account, Region.US_EAST_1, i % 3 == 0 ? null : zone, tags));
+		}
+
+		File file = File.createTempFile("instances", ".bin");
+		file.deleteOnExit();
+		InstancesFile.write(file, instances);
+
+		InstancesFile instancesFile = new InstancesFile(file, as);
+		assertEquals("wrong number of instances", 1000, instancesFile.size());
+
+		for (Instance expected: instances) {
+			Instance got = instancesFile.get(expected.id);
+			assertNotNull("didn't find instance " + expected.id, got);
+			assertEquals("IDs don't match", expected.id, got.id);
+			assertEquals("types don't match", expected.type, got.type);
+			assertEquals("accounts don't match", expected.account, got.account);
+			assertEquals("regions don't match", expected.region, got.region);
+			assertEquals("zones don't match", expected.zone, got.zone);
+			assertEquals("tags size is wrong", expected.tags.size(), got.tags.size());
+			if (expected.tags.size() > 0) {
+				assertEquals("Environment tag is wrong", expected.tags.get("user:Environment"), got.tags.get("Environment"));
+				assertEquals("Name tag is wrong", expected.tags.get("Name"), got.tags.get("Name"));
+			}
+		}
+		assertNull("should not find unknown instance", instancesFile.get("i-unknown"));
+		assertNull("should not find instance before the first", instancesFile.get("a"));
+	}
+}
@@ -0,0 +1,104 @@
+package com.netflix.ice.processor;
+
+import java.util.concurrent.TimeUnit;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.processor.pricelist.PriceListService;
+
+/**
+ * JMH benchmark of the reservation processors over a synthetic consolidated billing family.
+ * Each operation is one hour of usage processed, so the throughput is hours/sec and the
+ * GC profiler's gc.alloc.rate.norm is bytes allocated per hour processed.
+ *
+ * Requires the JMH annotation processor on the test compile path. Run with:
+ *
+ *   java -cp <test classpath> com.netflix.ice.processor.ReservationProcessorBenchmark
+ *
+ * or with org.openjdk.jmh.Main to pass JMH options such as -p numTagGroups=50000.
+ * Like ReservationProcessorTest, the price lists are pulled from the AWS Price List API on the first run
+ * and cached in src/test/resources.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ReservationProcessorBenchmark {
+	private static final String resourceDir = "src/test/resources/";
+	private static final int hours = 24;
+	private static final long startMillis = new DateTime(2017, 6, 1, 0, 0, DateTimeZone.UTC).getMillis();
+
+	@Param({"CostAndUsage", "DetailedBilling"})
+	public String processor;
+
+	@Param({"10", "100"})
+	public int numAccounts;
+
+	@Param({"100", "1000"})
+	public int numReservations;
+
+	@Param({"1000", "10000"})
+	public int numTagGroups;
+
+	private ProductService productService;
+	private SyntheticBillingFamily family;
+	private ReservationService reservationService;
+	private ReservationProcessor reservationProcessor;
+	private CostAndUsageData data;
+
+	@Setup(Level.Trial)
+	public void setupTrial() throws Exception {
+		productService = new BasicProductService(null);
+		PriceListService priceListService = new PriceListService(resourceDir, null, null);
+		priceListService.init();
+
+		family = new SyntheticBillingFamily(startMillis, numAccounts, numReservations, 1);
+		reservationService = family.getReservationService(productService);
+
+		if (processor.equals("CostAndUsage"))
+			reservationProcessor = new CostAndUsageReservationProcessor(family.getPayerAccounts(), family.getReservationOwners(), productService, priceListService, true);
+		else
+			reservationProcessor = new DetailedBillingReservationProcessor(family.getPayerAccounts(), family.getReservationOwners(), productService, priceListService, true);
+	}
+
+	@Setup(Level.Invocation)
+	public void setupInvocation() {
+		// The processor rewrites the data in place, so every invocation needs a fresh copy
+		data = family.generateData(productService, numTagGroups, hours, processor.equals("CostAndUsage"));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(hours)
+	public CostAndUsageData process() throws Exception {
+		reservationProcessor.process(reservationService, data, null, new DateTime(startMillis, DateTimeZone.UTC));
+		return data;
+	}
+
+	public static void main(String[] args) throws Exception {
+		new Runner(new OptionsBuilder()
+				.include(ReservationProcessorBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.build()).run();
+	}
+}
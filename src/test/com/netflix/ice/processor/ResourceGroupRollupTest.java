@@ -0,0 +1,100 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.UsageType;
+
+public class ResourceGroupRollupTest {
+	private static final List<String> userTags = Lists.newArrayList("Environment", "Build");
+	private static final Account account = new Account("123456789012", "Account1");
+	private static final Product ec2Instance = new BasicProductService(null).getProductByName(Product.ec2Instance);
+
+	private TagGroup getTagGroup(String... tags) {
+		return TagGroup.getTagGroup(account, Region.US_EAST_1, null, ec2Instance, Operation.ondemandInstances,
+				UsageType.getUsageType("m1.large", "hours"), ResourceGroup.getResourceGroup(tags));
+	}
+
+	@Test
+	public void testRollup() {
+		ReadWriteData cost = new ReadWriteData();
+		ReadWriteData usage = new ReadWriteData();
+		String[] builds = new String[]{ "b1", "b2", "b3", "b4" };
+		for (int i = 0; i < builds.length; i++) {
+			TagGroup tg = getTagGroup("prod", builds[i]);
+			cost.getData(0).put(tg, 10.0 * (i + 1));
+			usage.getData(0).put(tg, 1.0);
+		}
+		// Untagged values don't count against the limit
+		TagGroup untagged = getTagGroup("", "");
+		cost.getData(0).put(untagged, 1.0);
+		usage.getData(0).put(untagged, 1.0);
+
+		ResourceGroupRollup rollup = new ResourceGroupRollup(userTags, 2);
+		rollup.rollup(ec2Instance, cost, usage);
+
+		Map<TagGroup, Double> costs = cost.getData(0);
+		assertEquals("wrong number of tag groups after rollup", 4, costs.size());
+		assertEquals("wrong cost for b4", 40.0, costs.get(getTagGroup("prod", "b4")), 0.001);
+		assertEquals("wrong cost for b3", 30.0, costs.get(getTagGroup("prod", "b3")), 0.001);
+		assertEquals("wrong cost for untagged", 1.0, costs.get(untagged), 0.001);
+		TagGroup other = getTagGroup("prod", ResourceGroupRollup.other);
+		assertEquals("wrong folded cost", 30.0, costs.get(other), 0.001);
+		assertEquals("wrong folded usage", 2.0, usage.getData(0).get(other), 0.001);
+
+		assertEquals("wrong number of folded values", 2, rollup.getFolded().size());
+		for (ResourceGroupRollup.Folded f: rollup.getFolded())
+			assertEquals("wrong folded tag", "Build", f.tag);
+	}
+
+	@Test
+	public void testUnderLimit() {
+		ReadWriteData cost = new ReadWriteData();
+		TagGroup tg = getTagGroup("prod", "b1");
+		cost.getData(0).put(tg, 1.0);
+
+		ResourceGroupRollup rollup = new ResourceGroupRollup(userTags, 2);
+		rollup.rollup(ec2Instance, cost, new ReadWriteData());
+		assertEquals("tag group should not be folded", 1.0, cost.getData(0).get(tg), 0.001);
+		assertEquals("nothing should be folded", 0, rollup.getFolded().size());
+	}
+
+	@Test
+	public void testMissingValues() {
+		ReadWriteData cost = new ReadWriteData();
+		ReadWriteData usage = new ReadWriteData();
+		String[] builds = new String[]{ "b1", "b2", "b3" };
+		for (int i = 0; i < builds.length; i++) {
+			TagGroup tg = getTagGroup(null, builds[i]);
+			cost.getData(0).put(tg, 10.0 * (i + 1));
+			usage.getData(0).put(tg, 1.0);
+		}
+		// Resource groups with missing values rather than empty ones
+		TagGroup missing = getTagGroup("prod", null);
+		cost.getData(0).put(missing, 5.0);
+		usage.getData(0).put(missing, 1.0);
+
+		ResourceGroupRollup rollup = new ResourceGroupRollup(userTags, 2);
+		rollup.rollup(ec2Instance, cost, usage);
+
+		Map<TagGroup, Double> costs = cost.getData(0);
+		assertEquals("wrong number of tag groups after rollup", 4, costs.size());
+		assertEquals("wrong cost for missing build", 5.0, costs.get(missing), 0.001);
+		TagGroup other = getTagGroup("", ResourceGroupRollup.other);
+		assertEquals("wrong folded cost", 10.0, costs.get(other), 0.001);
+		assertEquals("wrong folded usage", 1.0, usage.getData(0).get(other), 0.001);
+		assertEquals("wrong number of folded values", 1, rollup.getFolded().size());
+	}
+}
@@ -0,0 +1,177 @@
+package com.netflix.ice.processor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicReservationService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.LineItem;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.common.TagGroupRI;
+import com.netflix.ice.processor.ReservationService.ReservationKey;
+import com.netflix.ice.processor.ReservationService.ReservationPeriod;
+import com.netflix.ice.processor.ReservationService.ReservationUtilization;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+import com.netflix.ice.tag.Zone;
+
+/**
+ * Generates a synthetic consolidated billing family for exercising the reservation processors
+ * at fleet scale: one payer with linked accounts, EC2 reservations spread over AZ and regional
+ * scopes, offering types, and instance families, and a set of usage tag groups for each hour.
+ * A fixed seed makes every run generate the same data, and repeated calls to generateData()
+ * return identical data sets.
+ */
+public class SyntheticBillingFamily {
+	private static final Region[] regions = { Region.US_EAST_1, Region.US_WEST_2, Region.EU_WEST_1 };
+	private static final String[] families = { "m4", "c4", "r4" };
+	private static final String[] sizes = { "large", "xlarge", "2xlarge" };
+	private static final String[] offeringTypes = { "All Upfront", "Partial Upfront", "No Upfront" };
+	private static final String[] zoneSuffixes = { "a", "b", "c" };
+
+	static {
+		for (Region region: regions) {
+			// Looking up an unknown zone adds it to its region
+			for (String suffix: zoneSuffixes)
+				Zone.getZone(region.name + suffix);
+		}
+	}
+
+	private final long startMillis;
+	private final long seed;
+	private final List<Account> accounts = Lists.newArrayList();
+	private final Map<Account, List<Account>> payerAccounts = Maps.newHashMap();
+	private final Set<Account> reservationOwners = Sets.newHashSet();
+	private final Map<ReservationKey, CanonicalReservedInstances> reservations = Maps.newHashMap();
+	private final List<CanonicalReservedInstances> reservationList = Lists.newArrayList();
+	private final AccountService accountService;
+
+	/**
+	 * @param startMillis start of the month being processed
+	 * @param numAccounts number of accounts in the family including the payer
+	 * @param numReservations number of reservations spread across the accounts
+	 * @param seed random seed
+	 */
+	public SyntheticBillingFamily(long startMillis, int numAccounts, int numReservations, long seed) {
+		this.startMillis = startMillis;
+		this.seed = seed;
+		Random random = new Random(seed);
+
+		for (int i = 1; i <= numAccounts; i++)
+			accounts.add(new Account(String.format("%012d", i), "Account" + i));
+		payerAccounts.put(accounts.get(0), Lists.newArrayList(accounts.subList(1, accounts.size())));
+		reservationOwners.addAll(accounts);
+
+		Map<Account, Set<String>> owners = Maps.newHashMap();
+		for (Account account: accounts)
+			owners.put(account, Sets.newHashSet("ec2"));
+		accountService = new BasicAccountService(accounts, payerAccounts, owners, null, null);
+
+		long reservationStart = new DateTime(startMillis, DateTimeZone.UTC).minusMonths(1).getMillis();
+		long reservationEnd = new DateTime(reservationStart, DateTimeZone.UTC).plusYears(1).getMillis();
+		for (int i = 0; i < numReservations; i++) {
+			Account owner = accounts.get(random.nextInt(accounts.size()));
+			Region region = regions[random.nextInt(regions.length)];
+			boolean regional = random.nextBoolean();
+			String zone = regional ? "" : region.name + zoneSuffixes[random.nextInt(zoneSuffixes.length)];
+			String offeringType = offeringTypes[random.nextInt(offeringTypes.length)];
+			double fixedPrice = offeringType.equals("No Upfront") ? 0.0 : 100.0 + random.nextInt(900);
+			String recurring = offeringType.equals("All Upfront") ? "" : "Hourly:" + (0.01 + random.nextInt(10) / 100.0);
+			String reservationId = String.format("%08x-bbbb-cccc-dddd-%012d", i, i);
+
+			String csv = owner.id + ",EC2," + region.name + "," + reservationId + ",," +
+					families[random.nextInt(families.length)] + "." + sizes[random.nextInt(sizes.length)] + "," +
+					(regional ? "Region" : "Availability Zone") + "," + zone + ",false," +
+					LineItem.amazonBillingDateFormat.print(new DateTime(reservationStart)) + "," +
+					LineItem.amazonBillingDateFormat.print(new DateTime(reservationEnd)) + ",31536000,0.0," +
+					fixedPrice + "," + (1 + random.nextInt(10)) + ",Linux/UNIX (Amazon VPC),active,USD," + offeringType + "," + recurring;
+
+			CanonicalReservedInstances reservation = new CanonicalReservedInstances(csv);
+			reservations.put(new ReservationKey(owner.id, region.name, reservationId), reservation);
+			reservationList.add(reservation);
+		}
+	}
+
+	public Map<Account, List<Account>> getPayerAccounts() {
+		return payerAccounts;
+	}
+
+	public Set<Account> getReservationOwners() {
+		return reservationOwners;
+	}
+
+	public ReservationService getReservationService(ProductService productService) {
+		BasicReservationService reservationService = new BasicReservationService(ReservationPeriod.oneyear, ReservationUtilization.FIXED, false);
+		reservationService.updateReservations(reservations, accountService, startMillis, productService);
+		return reservationService;
+	}
+
+	/**
+	 * Generate usage and cost data for the non-resource (null product) data set.
+	 * About half of the tag groups are bonus reservation usage from the reservations
+	 * that will be matched by the processor, the rest are on-demand usage.
+	 *
+	 * @param numTagGroups number of usage tag groups in each hour
+	 * @param hours number of hours to generate
+	 * @param costAndUsageReport generate reservation ids on the usage tag groups as the Cost and Usage report does
+	 */
+	public CostAndUsageData generateData(ProductService productService, int numTagGroups, int hours, boolean costAndUsageReport) {
+		Product ec2Instance = productService.getProductByName(Product.ec2Instance);
+		Random random = new Random(seed);
+		List<TagGroup> tagGroups = Lists.newArrayListWithCapacity(numTagGroups);
+		for (int i = 0; i < numTagGroups; i++) {
+			Account account = accounts.get(random.nextInt(accounts.size()));
+			if (i % 2 == 0 && reservationList.size() > 0) {
+				CanonicalReservedInstances reservation = reservationList.get(random.nextInt(reservationList.size()));
+				Region region = Region.getRegionByName(reservation.getRegion());
+				Zone zone = reservation.getScope().equals("Region") ?
+						region.getZones().get(random.nextInt(region.getZones().size())) :
+						Zone.getZone(reservation.getAvailabilityZone());
+				Operation operation = Operation.getBonusReservedInstances(ReservationUtilization.get(reservation.getOfferingType()));
+				UsageType usageType = UsageType.getUsageType(reservation.getInstanceType(), "hours");
+				if (costAndUsageReport)
+					tagGroups.add(TagGroupRI.getTagGroup(account, region, zone, ec2Instance, operation, usageType, null, reservation.getReservationId()));
+				else
+					tagGroups.add(TagGroup.getTagGroup(account, region, zone, ec2Instance, operation, usageType, null));
+			}
+			else {
+				Region region = regions[random.nextInt(regions.length)];
+				Zone zone = region.getZones().get(random.nextInt(region.getZones().size()));
+				UsageType usageType = UsageType.getUsageType(families[random.nextInt(families.length)] + "." + sizes[random.nextInt(sizes.length)], "hours");
+				tagGroups.add(TagGroup.getTagGroup(account, region, zone, ec2Instance, Operation.ondemandInstances, usageType, null));
+			}
+		}
+
+		List<Map<TagGroup, Double>> usage = Lists.newArrayListWithCapacity(hours);
+		List<Map<TagGroup, Double>> cost = Lists.newArrayListWithCapacity(hours);
+		for (int hour = 0; hour < hours; hour++) {
+			Map<TagGroup, Double> usageMap = Maps.newHashMap();
+			Map<TagGroup, Double> costMap = Maps.newHashMap();
+			for (TagGroup tg: tagGroups) {
+				double count = 1 + random.nextInt(5);
+				usageMap.put(tg, count);
+				costMap.put(tg, tg.operation == Operation.ondemandInstances ? count * 0.1 : 0.0);
+			}
+			usage.add(usageMap);
+			cost.add(costMap);
+		}
+
+		CostAndUsageData data = new CostAndUsageData(null);
+		data.getUsage(null).setData(usage, 0, false);
+		data.getCost(null).setData(cost, 0, false);
+		return data;
+	}
+}
@@ -0,0 +1,90 @@
+package com.netflix.ice.processor;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.TagCoverageRatio;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Account;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.UsageType;
+
+public class TagCoverageDataTest {
+	private static final List<String> userTags = Lists.newArrayList("Environment", "Product");
+	private static final TagGroup tagGroup = TagGroup.getTagGroup(new Account("123456789012", "Account1"), Region.US_EAST_1, null,
+			new BasicProductService(null).getProductByName(Product.ec2Instance), Operation.ondemandInstances, UsageType.getUsageType("m1.large", "hours"), null);
+
+	@Test
+	public void testAddAndGetData() {
+		TagCoverageData coverage = new TagCoverageData(userTags);
+		coverage.add(1, tagGroup, new boolean[]{ true, false });
+		coverage.add(1, tagGroup, new boolean[]{ true, true });
+		coverage.add(1, tagGroup, new boolean[]{ false, false });
+		assertEquals("wrong number of hours", 2, coverage.getNum());
+
+		ReadWriteData environment = coverage.getData(0);
+		assertEquals("wrong number of hours in data", 2, environment.getNum());
+		assertNull("hour 0 should not have coverage", environment.getData(0).get(tagGroup));
+		TagCoverageRatio ratio = new TagCoverageRatio(environment.getData(1).get(tagGroup));
+		assertEquals("wrong Environment count", 2, ratio.count);
+		assertEquals("wrong Environment total", 3, ratio.total);
+
+		ratio = new TagCoverageRatio(coverage.getData(1).getData(1).get(tagGroup));
+		assertEquals("wrong Product count", 1, ratio.count);
+		assertEquals("wrong Product total", 3, ratio.total);
+	}
+
+	@Test
+	public void testPutAllAndCut() {
+		TagCoverageData coverage = new TagCoverageData(userTags);
+		coverage.add(0, tagGroup, new boolean[]{ true, false });
+
+		TagCoverageData other = new TagCoverageData(userTags);
+		other.add(0, tagGroup, new boolean[]{ true, true });
+		other.add(1000, tagGroup, new boolean[]{ true, true });
+
+		coverage.putAll(other);
+		assertEquals("wrong number of hours", 1001, coverage.getNum());
+		TagCoverageRatio ratio = new TagCoverageRatio(coverage.getData(1).getData(0).get(tagGroup));
+		assertEquals("wrong Product count", 1, ratio.count);
+		assertEquals("wrong Product total", 2, ratio.total);
+
+		coverage.cut(1);
+		assertEquals("wrong number of hours after cut", 1, coverage.getNum());
+		assertEquals("wrong number of hours in data after cut", 1, coverage.getData(0).getNum());
+	}
+
+	@Test
+	public void testSparseHours() {
+		// Counts only cover the hours seen, added in any order
+		TagCoverageData coverage = new TagCoverageData(userTags);
+		coverage.add(500, tagGroup, new boolean[]{ true, false });
+		coverage.add(10, tagGroup, new boolean[]{ false, true });
+		coverage.add(600, tagGroup, new boolean[]{ true, true });
+		coverage.add(500, tagGroup, new boolean[]{ false, false });
+		assertEquals("wrong number of hours", 601, coverage.getNum());
+
+		ReadWriteData environment = coverage.getData(0);
+		assertEquals("wrong Environment count at 10", 0, new TagCoverageRatio(environment.getData(10).get(tagGroup)).count);
+		TagCoverageRatio ratio = new TagCoverageRatio(environment.getData(500).get(tagGroup));
+		assertEquals("wrong Environment count at 500", 1, ratio.count);
+		assertEquals("wrong Environment total at 500", 2, ratio.total);
+		assertNull("hour 300 should not have coverage", environment.getData(300).get(tagGroup));
+		assertEquals("wrong Product count at 600", 1, new TagCoverageRatio(coverage.getData(1).getData(600).get(tagGroup)).count);
+	}
+
+	@Test
+	public void testWithoutUserTags() {
+		// Resource service configured without user tags, as in the line item processor tests
+		CostAndUsageData data = new CostAndUsageData(null);
+		data.addTagCoverage(0, tagGroup, new boolean[]{});
+		assertNull("should not collect coverage without user tags", data.getCoverage("Environment"));
+	}
+}
@@ -16,6 +16,8 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+
 import com.netflix.ice.processor.pricelist.InstancePrices.LeaseContractLength;
 import com.netflix.ice.processor.pricelist.InstancePrices.OfferingClass;
 import com.netflix.ice.processor.pricelist.InstancePrices.Product;
@@ -58,6 +60,14 @@ public class PriceListServiceTest {
        	prices.importPriceList(priceList, PriceListService.tenancies);
        	
        	verify(prices.getPrices().entrySet().iterator().next().getValue());
+       	
+       	// Lookups through the rate table should match the product
+       	UsageType usageType = UsageType.getUsageType("t2.small", "hours");
+       	assertEquals("OnDemand rate lookup doesn't match", 0.023, prices.getOnDemandRate(Region.US_EAST_1, usageType), 0.001);
+       	Rate rate = prices.getReservationRate(Region.US_EAST_1, usageType, LeaseContractLength.threeyear, PurchaseOption.partialUpfront, OfferingClass.convertible);
+       	assertEquals("Reservation fixed rate lookup doesn't match", 169, rate.fixed, 0.001);
+       	assertEquals("Reservation hourly rate lookup doesn't match", 0.0064, rate.hourly, 0.001);
+       	assertNull("Should have no rate for missing lease contract length", prices.getReservationRate(Region.US_EAST_1, usageType, LeaseContractLength.none, PurchaseOption.partialUpfront, OfferingClass.standard));
 
        	ByteArrayOutputStream buf = new ByteArrayOutputStream();
        	DataOutputStream out = new DataOutputStream(buf);
@@ -115,6 +125,16 @@ public class PriceListServiceTest {
 		priceListService.getPrices(DateTime.now(), ServiceCode.AmazonRedshift);
 	}
 	
+	@Test
+	public void testPrefetch() throws Exception {
+		DateTime month = DateTime.parse("2017-01-01T00:00:00Z");
+		priceListService.prefetch(Lists.newArrayList(month, month.plusMonths(1)), Lists.newArrayList(ServiceCode.AmazonEC2, ServiceCode.AmazonRedshift));
+		
+		// Should get the same copy the prefetcher loaded (or is still loading)
+		InstancePrices ip = priceListService.getPrices(month, ServiceCode.AmazonRedshift);
+		assertSame("Prefetched prices not shared", ip, priceListService.getPrices(month, ServiceCode.AmazonRedshift));
+	}
+	
 	@Test
 	public void testInit() throws Exception {
 		priceListService.init();
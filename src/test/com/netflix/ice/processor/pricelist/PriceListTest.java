@@ -8,10 +8,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
 import org.junit.Test;
 
+import com.google.common.collect.Sets;
+
+import com.netflix.ice.processor.pricelist.InstancePrices.ServiceCode;
+import com.netflix.ice.processor.pricelist.InstancePrices.Tenancy;
 import com.netflix.ice.processor.pricelist.PriceList.Product;
 import com.netflix.ice.processor.pricelist.PriceList.Rate;
 import com.netflix.ice.processor.pricelist.PriceList.Term;
@@ -72,6 +77,32 @@ public class PriceListTest {
         }
 	}
 	
+	@Test
+	public void testStreamingPriceList() throws IOException {
+		File testFile = new File(resourceDir + "PriceListTestData.json");
+		InputStream stream = new FileInputStream(testFile);
+        PriceList priceList = new PriceList(stream, ServiceCode.AmazonEC2, PriceListService.tenancies);
+        stream.close();
+        
+        assertEquals("Wrong number of products", 1, priceList.getProducts().size());
+        String sku = priceList.getProducts().keySet().iterator().next();
+        assertEquals("Wrong instance type", "t2.small", priceList.getProducts().get(sku).getAttribute(Attributes.instanceType));
+        assertNotNull("Missing OnDemand terms", priceList.getTerms().OnDemand.get(sku));
+        
+        Map<String, Term> offerTerms = priceList.getTerms().Reserved.get(sku);
+		verifyReservedPrices(offerTerms, "1yr", "Partial Upfront", 	"standard", 70, 0.008);
+		verifyReservedPrices(offerTerms, "3yr", "All Upfront",		"convertible", 332, 0);
+		
+		// Products and terms for tenancies we don't want should be dropped while reading
+		Set<Tenancy> dedicated = Sets.newHashSet(Tenancy.Dedicated);
+		stream = new FileInputStream(testFile);
+        priceList = new PriceList(stream, ServiceCode.AmazonEC2, dedicated);
+        stream.close();
+        assertEquals("Should have no products", 0, priceList.getProducts().size());
+        assertEquals("Should have no OnDemand terms", 0, priceList.getTerms().OnDemand.size());
+        assertEquals("Should have no Reserved terms", 0, priceList.getTerms().Reserved.size());
+	}
+	
 	private void verifyReservedPrices(Map<String, Term> offerTerms, String leaseContractLength, String purchaseOption, String offeringClass, double fixed, double hourly) {
 		String permutation = leaseContractLength + ", " + purchaseOption + ", " + offeringClass;
 		// Scan the terms looking for a match
@@ -0,0 +1,78 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+public class QueryCacheTest {
+
+	private Map<String, Object> getResult(int numValues) {
+		Map<String, Object> result = Maps.newHashMap();
+		Map<String, double[]> data = Maps.newHashMap();
+		data.put("aggregated", new double[numValues]);
+		result.put("status", 200);
+		result.put("data", data);
+		return result;
+	}
+
+	@Test
+	public void testKey() throws Exception {
+		JSONObject a = new JSONObject();
+		a.put("isCost", true);
+		a.put("groupBy", "Account");
+		a.put("account", new JSONArray().put("Account1").put("Account2"));
+
+		JSONObject b = new JSONObject();
+		b.put("account", new JSONArray().put("Account1").put("Account2"));
+		b.put("groupBy", "Account");
+		b.put("isCost", true);
+
+		assertEquals("key should not depend on the order of the query properties", QueryCache.getKey(a, 1), QueryCache.getKey(b, 1));
+		assertFalse("key should depend on the data version", QueryCache.getKey(a, 1).equals(QueryCache.getKey(a, 2)));
+
+		b.put("account", new JSONArray().put("Account2").put("Account1"));
+		assertFalse("key should depend on the order of list values", QueryCache.getKey(a, 1).equals(QueryCache.getKey(b, 1)));
+	}
+
+	@Test
+	public void testPutAndInvalidate() {
+		QueryCache cache = new QueryCache(1, 0);
+		Map<String, Object> result = getResult(10);
+		cache.put("a", result);
+		assertSame("result should be cached", result, cache.getIfPresent("a"));
+
+		cache.invalidateAll();
+		assertNull("result should be invalidated", cache.getIfPresent("a"));
+	}
+
+	@Test
+	public void testSettle() {
+		QueryCache cache = new QueryCache(1, 60 * 1000L);
+		cache.put("a", getResult(10));
+		assertNotNull("result should be cached before first invalidation", cache.getIfPresent("a"));
+
+		cache.invalidateAll();
+		cache.put("a", getResult(10));
+		assertNull("result should not be cached while data is reloading", cache.getIfPresent("a"));
+	}
+
+	@Test
+	public void testWeight() {
+		QueryCache cache = new QueryCache(1, 0);
+		// Each result is about 40KB, so no more than 25 of them fit in 1MB
+		for (int i = 0; i < 100; i++)
+			cache.put("key" + i, getResult(5 * 1024));
+		assertTrue("cache should be bounded by weight, has " + cache.size() + " entries", cache.size() <= 25);
+		assertNotNull("latest result should be cached", cache.getIfPresent("key99"));
+
+		cache = new QueryCache(0, 0);
+		cache.put("a", getResult(10));
+		assertNull("cache should be disabled", cache.getIfPresent("a"));
+	}
+}
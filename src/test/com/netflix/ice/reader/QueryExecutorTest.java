@@ -0,0 +1,61 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class QueryExecutorTest {
+
+	private List<Callable<Integer>> getTasks(int num) {
+		List<Callable<Integer>> tasks = Lists.newArrayList();
+		for (int i = 0; i < num; i++) {
+			final int value = i;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					// Finish in reverse order
+					Thread.sleep((10 - value) * 5);
+					return value;
+				}
+			});
+		}
+		return tasks;
+	}
+
+	@Test
+	public void testOrder() {
+		for (int numThreads: new int[]{ 0, 1, 4 }) {
+			QueryExecutor executor = new QueryExecutor(numThreads);
+			try {
+				List<Integer> results = executor.invokeAll(getTasks(10));
+				assertEquals("wrong number of results with " + numThreads + " threads", 10, results.size());
+				for (int i = 0; i < results.size(); i++)
+					assertEquals("results out of order with " + numThreads + " threads", i, results.get(i).intValue());
+			}
+			finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testException() {
+		QueryExecutor executor = new QueryExecutor(4);
+		try {
+			List<Callable<Integer>> tasks = getTasks(3);
+			tasks.add(new Callable<Integer>() {
+				public Integer call() throws Exception {
+					throw new IllegalStateException("failed sub-query");
+				}
+			});
+			executor.invokeAll(tasks);
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.common.AccountService;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Operation;
+import com.netflix.ice.tag.Region;
+import com.netflix.ice.tag.ResourceGroup;
+import com.netflix.ice.tag.UserTag;
+import com.netflix.ice.tag.Zone;
+
+public class TagFilterTest {
+	private static ProductService productService = new BasicProductService(null);
+	private static AccountService accountService = new BasicAccountService(new Properties());
+
+	private static final TagGroup[] tagGroups = new TagGroup[]{
+			TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", null, accountService, productService),
+			TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "ProductA", accountService, productService),
+			TagGroup.getTagGroup("Account1", "us-east-1", "us-east-1b", "ProductA", "OperationB", "UsageTypeA", "", "TagA|", accountService, productService),
+			TagGroup.getTagGroup("Account2", "us-west-2", null, 		"ProductA", "OperationA", "UsageTypeB", "", "|TagX", accountService, productService),
+			TagGroup.getTagGroup("Account2", "us-west-2", "us-west-2a", "ProductA", "OperationB", "UsageTypeB", "", "TagA|TagX", accountService, productService),
+			TagGroup.getTagGroup("Account2", "us-east-1", "us-east-1a", "ProductA", "OperationA", "UsageTypeA", "", "|", 	accountService, productService),
+	};
+
+	private void check(TagLists tagLists) {
+		TagFilter filter = tagLists.getFilter();
+		for (TagGroup tagGroup: tagGroups) {
+			assertEquals("wrong contains for " + tagGroup + " with " + tagLists, tagLists.contains(tagGroup), filter.contains(tagGroup));
+			assertEquals("wrong contains using resources for " + tagGroup + " with " + tagLists, tagLists.contains(tagGroup, true), filter.contains(tagGroup, true));
+		}
+	}
+
+	@Test
+	public void testTagLists() {
+		check(new TagLists());
+		check(new TagLists(Lists.newArrayList(accountService.getAccountByName("Account1"))));
+		check(new TagLists(null, Lists.newArrayList(Region.US_WEST_2), Lists.<Zone>newArrayList()));
+		check(new TagLists(null, null, Lists.newArrayList(Zone.getZone("us-east-1a"))));
+		check(new TagLists(null, null, null, null, Lists.newArrayList(Operation.getOperation("OperationB"))));
+		check(new TagLists(null, null, null, null, null, null, Lists.newArrayList(ResourceGroup.getResourceGroup("TagA|", false))));
+	}
+
+	@Test
+	public void testTagListsWithUserTags() {
+		List<List<UserTag>> resourceTagLists = Lists.newArrayList();
+		resourceTagLists.add(null);
+		resourceTagLists.add(null);
+		check(new TagListsWithUserTags(null, null, null, null, null, null, resourceTagLists));
+
+		resourceTagLists = Lists.newArrayList();
+		resourceTagLists.add(Lists.newArrayList(UserTag.get("TagA")));
+		resourceTagLists.add(Lists.<UserTag>newArrayList());
+		check(new TagListsWithUserTags(null, null, null, null, null, null, resourceTagLists));
+
+		resourceTagLists = Lists.newArrayList();
+		resourceTagLists.add(Lists.newArrayList(UserTag.get(""), UserTag.get("TagA")));
+		resourceTagLists.add(Lists.newArrayList(UserTag.get("TagX")));
+		check(new TagListsWithUserTags(Lists.newArrayList(accountService.getAccountByName("Account2")), null, null, null, null, null, resourceTagLists));
+
+		resourceTagLists = Lists.newArrayList();
+		resourceTagLists.add(Lists.newArrayList(UserTag.get("")));
+		resourceTagLists.add(Lists.newArrayList(UserTag.get("")));
+		check(new TagListsWithUserTags(null, null, null, null, null, null, resourceTagLists));
+	}
+}
@@ -0,0 +1,229 @@
+package com.netflix.ice.reader;
+
+import static org.junit.Assert.*;
+
+import java.io.DataInput;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.After;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.netflix.ice.basic.BasicAccountService;
+import com.netflix.ice.basic.BasicProductService;
+import com.netflix.ice.basic.DataCache;
+import com.netflix.ice.basic.DataFilePoller;
+import com.netflix.ice.common.ConsolidateType;
+import com.netflix.ice.common.ProductService;
+import com.netflix.ice.common.TagGroup;
+import com.netflix.ice.tag.Product;
+import com.netflix.ice.tag.Tag;
+import com.netflix.ice.tag.TagType;
+import com.netflix.ice.tag.UserTag;
+
+public class WarmUpTest {
+	private final static DateTime now = new DateTime(2018, 3, 15, 0, 0, DateTimeZone.UTC);
+	private final static ProductService productService = new BasicProductService(null);
+	private final AtomicInteger numLoads = new AtomicInteger();
+	private final DataCache dataCache = new DataCache(64);
+	private final File dir = Files.createTempDir();
+	private final Map<String, DataFilePoller> dataManagers = Maps.newHashMap();
+
+	/**
+	 * Data manager that reads empty data from local files instead of the work bucket,
+	 * or fails to load the hourly and daily data if fail is set.
+	 */
+	class TestDataManager extends DataFilePoller implements DataManager {
+		private final boolean fail;
+
+		TestDataManager(String dbName, ConsolidateType consolidateType, boolean fail) {
+			super(now.minusYears(2), dbName, consolidateType, false, WarmUpTest.this.dataCache, new BasicAccountService(new Properties()), WarmUpTest.productService);
+			this.fail = fail;
+		}
+
+		@Override
+		public void load(Interval interval) throws ExecutionException {
+			numLoads.incrementAndGet();
+			super.load(interval);
+		}
+
+		public Map<Tag, double[]> getData(Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, boolean forReservation, UsageUnit usageUnit) {
+			return Maps.newHashMap();
+		}
+
+		public Map<Tag, double[]> getData(Interval interval, TagLists tagLists, TagType groupBy, AggregateType aggregate, boolean forReservation, UsageUnit usageUnit, int userTagGroupByIndex) {
+			return Maps.newHashMap();
+		}
+
+		@Override
+		protected File getFile(DateTime monthDate) {
+			File file = new File(dir, dbName + "_" + monthDate.getMillis());
+			try {
+				// Loads delete the files they fail to read
+				file.createNewFile();
+			}
+			catch (IOException e) {
+				throw new RuntimeException(e);
+			}
+			return file;
+		}
+
+		@Override
+		protected boolean downloadFile(File file) {
+			return false;
+		}
+
+		@Override
+		protected boolean stalePoll() {
+			return false;
+		}
+
+		@Override
+		protected ReadOnlyData deserialize(DataInput in) throws IOException {
+			if (fail && consolidateType == ConsolidateType.hourly)
+				throw new IOException("corrupted");
+			if (fail && consolidateType == ConsolidateType.daily)
+				throw new OutOfMemoryError("test");
+			return new ReadOnlyData(new double[][]{}, Lists.<TagGroup>newArrayList());
+		}
+	}
+
+	@After
+	public void shutdown() throws IOException {
+		for (DataFilePoller dataManager: dataManagers.values())
+			dataManager.shutdown();
+		FileUtils.deleteDirectory(dir);
+	}
+
+	/**
+	 * Managers for all products and one other product with one user tag. The tag group
+	 * managers have data for the whole interval.
+	 */
+	private Managers getManagers() {
+		return getManagers(false);
+	}
+
+	/**
+	 * @param fail fail to load the hourly and daily data
+	 */
+	private Managers getManagers(final boolean fail) {
+		final Product product = productService.getProductByName(Product.ec2Instance);
+		final TagGroupManager tagGroupManager = proxy(TagGroupManager.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				return method.getName().equals("getOverlapInterval") ? args[0] : null;
+			}
+		});
+		return proxy(Managers.class, new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object[] args) {
+				if (method.getName().equals("getProducts"))
+					return Lists.newArrayList(product, null);
+				if (method.getName().equals("getTags"))
+					return Collections.singletonList(UserTag.get("Environment"));
+				if (method.getName().equals("getTagGroupManager"))
+					return tagGroupManager;
+				if (method.getName().endsWith("Manager")) {
+					ConsolidateType consolidateType = args.length > 1 ? (ConsolidateType) args[1] : ConsolidateType.hourly;
+					String dbName = method.getName() + "_" + args[0] + "_" + consolidateType;
+					synchronized (dataManagers) {
+						DataFilePoller dataManager = dataManagers.get(dbName);
+						if (dataManager == null) {
+							dataManager = new TestDataManager(dbName, consolidateType, fail);
+							dataManagers.put(dbName, dataManager);
+						}
+						return dataManager;
+					}
+				}
+				return null;
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return (T) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ type }, handler);
+	}
+
+	@Test
+	public void testPriority() {
+		WarmUp warmUp = new WarmUp(getManagers(), 2, 1);
+		List<WarmUp.Task> tasks = warmUp.getTasks(now);
+		Collections.sort(tasks);
+
+		// 3 months of hourly, 1 year of daily, weekly and monthly for cost and usage, then 3 months of coverage
+		int numPerProduct = 2 * (3 + 1 + 1 + 1);
+		assertEquals("wrong number of tasks", 2 * numPerProduct + 3, tasks.size());
+		for (int i = 0; i < numPerProduct; i++)
+			assertTrue("data across all products should be first: " + tasks.get(i), tasks.get(i).name.contains(" all "));
+		for (int i = numPerProduct; i < numPerProduct + 3; i++)
+			assertTrue("tag coverage should be next: " + tasks.get(i), tasks.get(i).name.startsWith("coverage "));
+
+		DateTime last = tasks.get(0).date;
+		for (int i = 1; i < numPerProduct; i++) {
+			assertFalse("recent data should be first: " + tasks.get(i), tasks.get(i).date.isAfter(last));
+			last = tasks.get(i).date;
+		}
+	}
+
+	@Test
+	public void testStatus() throws InterruptedException {
+		WarmUp warmUp = new WarmUp(getManagers(), 2, 4);
+		assertEquals("wrong state before start", WarmUp.State.pending, warmUp.getState());
+		assertFalse("should not be ready before start", warmUp.isReady());
+
+		warmUp.start();
+		for (int i = 0; i < 100 && !warmUp.isReady(); i++)
+			Thread.sleep(50);
+		assertTrue("should be ready", warmUp.isReady());
+
+		Map<String, Object> status = warmUp.getStatus();
+		assertEquals("wrong state", "ready", status.get("state"));
+		assertEquals("wrong percent", 100, status.get("percent"));
+		assertEquals("all tasks should complete", status.get("total"), status.get("completed"));
+		assertEquals("no tasks should fail", 0, status.get("failed"));
+		warmUp.shutdown();
+	}
+
+	@Test
+	public void testErrors() throws InterruptedException {
+		WarmUp warmUp = new WarmUp(getManagers(true), 2, 4);
+		warmUp.start();
+		for (int i = 0; i < 100 && !warmUp.isReady(); i++)
+			Thread.sleep(50);
+		assertTrue("should be ready even if loads fail", warmUp.isReady());
+
+		// Hourly, daily and coverage loads fail, the weekly and monthly loads for cost and usage complete
+		Map<String, Object> status = warmUp.getStatus();
+		assertEquals("wrong number of completed tasks", 2 * 2 * 2, status.get("completed"));
+		assertEquals("wrong number of failed tasks", (Integer) status.get("total") - 8, status.get("failed"));
+		warmUp.shutdown();
+	}
+
+	@Test
+	public void testTouchFirst() throws InterruptedException {
+		WarmUp warmUp = new WarmUp(getManagers(), 2, 4);
+		warmUp.start();
+		int total = 2 * 2 * (3 + 1 + 1 + 1) + 3;
+		int numFirst = 2 * (3 + 1 + 1 + 1);
+		for (int i = 0; i < 100 && numLoads.get() < total + numFirst; i++)
+			Thread.sleep(50);
+		assertTrue("should be ready", warmUp.isReady());
+		assertEquals("data across all products should be read again after warm-up", total + numFirst, numLoads.get());
+		warmUp.shutdown();
+	}
+}
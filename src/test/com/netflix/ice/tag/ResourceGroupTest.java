@@ -2,8 +2,12 @@ package com.netflix.ice.tag;
 
 import static org.junit.Assert.*;
 
+import java.lang.ref.WeakReference;
+
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+
 public class ResourceGroupTest {
 
 	@Test
@@ -23,4 +27,61 @@ public class ResourceGroupTest {
 		rg = ResourceGroup.getResourceGroup(new String[]{"", "foo"});
 		assertEquals("group with only second tag name incorrect", "|foo", rg.name);		
 	}
+
+	@Test
+	public void testUserTags() {
+		ResourceGroup rg = ResourceGroup.getResourceGroup("one||three", false);
+		assertEquals("wrong number of user tags", 3, rg.getNumUserTags());
+		assertSame("wrong first user tag", UserTag.get("one"), rg.getUserTag(0));
+		assertEquals("wrong second user tag", "", rg.getUserTag(1).name);
+		assertSame("wrong third user tag", UserTag.get("three"), rg.getUserTag(2));
+		assertEquals("user tag past the end should be empty", "", rg.getUserTag(3).name);
+		assertSame("name and tuple should intern to the same resource group", rg, ResourceGroup.getResourceGroup(new String[]{"one", "", "three"}));
+	}
+
+	@Test
+	public void testMissingUserTags() {
+		ResourceGroup rg = ResourceGroup.getResourceGroup(new String[]{"missing", null});
+		assertEquals("wrong name", "missing|", rg.name);
+		assertNotNull("missing user tag should not be null", rg.getUserTag(1));
+		assertEquals("missing user tag should be empty", "", rg.getUserTag(1).name);
+	}
+
+	@Test
+	public void testInterning() {
+		ResourceGroup rg = ResourceGroup.getResourceGroup(new String[]{"intern", "me"});
+		assertSame("referenced resource group should stay interned", rg, ResourceGroup.getResourceGroup("intern|me", false));
+		assertSame("same tuple should intern to the same resource group", rg, ResourceGroup.getResourceGroup(new String[]{"intern", "me"}));
+	}
+
+	@Test
+	public void testUnreferencedReleased() throws InterruptedException {
+		ResourceGroup rg = ResourceGroup.getResourceGroup(new String[]{"release", "me"});
+		UsageType usageType = UsageType.getUsageType("ReleaseMe", "hours");
+		WeakReference<ResourceGroup> rgRef = new WeakReference<ResourceGroup>(rg);
+		WeakReference<UsageType> usageTypeRef = new WeakReference<UsageType>(usageType);
+		rg = null;
+		usageType = null;
+
+		for (int i = 0; i < 100 && (rgRef.get() != null || usageTypeRef.get() != null); i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull("unreferenced resource group should be released", rgRef.get());
+		assertNull("unreferenced usage type should be released", usageTypeRef.get());
+
+		// Lookups by name must skip the released entries
+		assertEquals("released resource group should not be found", 0, ResourceGroup.getResourceGroups(Lists.newArrayList("release|me")).size());
+		assertEquals("released usage type should not be found", 0, UsageType.getUsageTypes(Lists.newArrayList("ReleaseMe")).size());
+	}
+
+	@Test
+	public void testProductName() {
+		ResourceGroup rg = ResourceGroup.getResourceGroup("ProductA", true);
+		assertTrue("should be a product name", rg.isProductName());
+		assertEquals("wrong number of user tags", 1, rg.getNumUserTags());
+		assertSame("wrong first user tag", UserTag.get("ProductA"), rg.getUserTag(0));
+		assertSame("wrong second user tag", UserTag.get(""), rg.getUserTag(1));
+		assertArrayEquals("wrong user tags", new UserTag[]{ UserTag.get("ProductA") }, rg.getUserTags());
+	}
 }